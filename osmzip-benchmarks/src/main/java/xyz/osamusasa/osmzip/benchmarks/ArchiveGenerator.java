@@ -0,0 +1,168 @@
+package xyz.osamusasa.osmzip.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.SplittableRandom;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * ベンチマークに使うZIPファイルを作るクラス
+ *
+ * 内容は形ごとに固定のシードから作るので、何度作っても同じバイト列になる。
+ * 作ったファイルは {@link #baseDir()} に置き、次からはそれを使う。
+ * ZIPファイルは OsmZip ではなく java.util.zip で作る(測る対象で測る対象の入力を作らないため)。
+ */
+public final class ArchiveGenerator {
+
+    private static final long TIMESTAMP = 1_600_000_000_000L;
+
+    /**
+     * ありふれたテキストに近い圧縮率にするための単語
+     */
+    private static final String[] WORDS = {
+            "zip", "local", "file", "header", "central", "directory", "record", "deflate",
+            "stored", "entry", "offset", "size", "crc", "data", "extra", "field",
+    };
+
+    private ArchiveGenerator() {
+    }
+
+    /**
+     * ZIPファイルやディレクトリを置くディレクトリを返す
+     *
+     * @return ディレクトリ
+     */
+    public static Path baseDir() {
+        String dir = System.getProperty("osmzip.benchmarks.dir");
+        return dir != null
+                ? Path.of(dir)
+                : Path.of(System.getProperty("java.io.tmpdir"), "osmzip-benchmarks");
+    }
+
+    /**
+     * 指定した形のZIPファイルを返す。まだ無ければ作る。
+     *
+     * @param shape 形
+     * @return ZIPファイル
+     * @throws IOException 書き込めない場合
+     */
+    public static synchronized Path archive(ArchiveShape shape) throws IOException {
+        Path target = baseDir().resolve(shape.name() + ".zip");
+        if (Files.exists(target)) {
+            return target;
+        }
+
+        Files.createDirectories(target.getParent());
+        Path tmp = Files.createTempFile(target.getParent(), shape.name(), ".tmp");
+        try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            if (shape.commented) {
+                out.setComment("archive comment of " + shape.name());
+            }
+
+            byte[] buf = new byte[(int) Math.min(shape.entrySize, 1 << 20)];
+            for (int i = 0; i < shape.entries; i++) {
+                ZipEntry entry = new ZipEntry(ArchiveShape.entryName(i));
+                entry.setLastModifiedTime(FileTime.fromMillis(TIMESTAMP));
+                if (shape.commented) {
+                    entry.setComment("comment of entry " + i);
+                }
+                if (!shape.deflated) {
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(shape.entrySize);
+                    entry.setCompressedSize(shape.entrySize);
+                    entry.setCrc(crc(shape, i, buf));
+                }
+
+                out.putNextEntry(entry);
+                writeContent(out, shape, i, buf);
+                out.closeEntry();
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return target;
+    }
+
+    /**
+     * 指定した形のZIPファイルに入るのと同じファイルを並べたディレクトリを返す。まだ無ければ作る。
+     * 圧縮のベンチマークの入力に使う。
+     *
+     * @param shape 形
+     * @return ディレクトリ
+     * @throws IOException 書き込めない場合
+     */
+    public static synchronized Path directory(ArchiveShape shape) throws IOException {
+        Path target = baseDir().resolve(shape.name());
+        if (Files.isDirectory(target)) {
+            return target;
+        }
+
+        Path tmp = Files.createTempDirectory(Files.createDirectories(baseDir()), shape.name());
+        byte[] buf = new byte[(int) Math.min(shape.entrySize, 1 << 20)];
+        for (int i = 0; i < shape.entries; i++) {
+            Path file = tmp.resolve(ArchiveShape.entryName(i));
+            Files.createDirectories(file.getParent());
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+                writeContent(out, shape, i, buf);
+            }
+            Files.setLastModifiedTime(file, FileTime.fromMillis(TIMESTAMP));
+        }
+
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        return target;
+    }
+
+    private static long crc(ArchiveShape shape, int index, byte[] buf) throws IOException {
+        CRC32 crc = new CRC32();
+        writeContent(new OutputStream() {
+            @Override
+            public void write(int b) {
+                crc.update(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                crc.update(b, off, len);
+            }
+        }, shape, index, buf);
+        return crc.getValue();
+    }
+
+    /**
+     * i 番目のエントリの内容を書き込む。単語を乱数で並べたテキストにする。
+     */
+    private static void writeContent(OutputStream out, ArchiveShape shape, int index, byte[] buf) throws IOException {
+        SplittableRandom random = new SplittableRandom(shape.ordinal() * 1_000_003L + index);
+        long remaining = shape.entrySize;
+        while (remaining > 0) {
+            int length = (int) Math.min(buf.length, remaining);
+            fill(buf, length, random);
+            out.write(buf, 0, length);
+            remaining -= length;
+        }
+    }
+
+    private static void fill(byte[] buf, int length, SplittableRandom random) {
+        int i = 0;
+        while (i < length) {
+            byte[] word = WORDS[random.nextInt(WORDS.length)].getBytes(StandardCharsets.US_ASCII);
+            for (int j = 0; j < word.length && i < length; j++) {
+                buf[i++] = word[j];
+            }
+            if (i < length) {
+                buf[i++] = (byte) (random.nextInt(8) == 0 ? '\n' : ' ');
+            }
+        }
+    }
+}
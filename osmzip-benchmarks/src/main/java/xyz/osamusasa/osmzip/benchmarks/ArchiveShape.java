@@ -0,0 +1,55 @@
+package xyz.osamusasa.osmzip.benchmarks;
+
+/**
+ * ベンチマークに使うZIPファイルの形
+ *
+ * 同じ形からは常に同じ内容のZIPファイルが作られる。
+ */
+public enum ArchiveShape {
+
+    SINGLE_SMALL(1, 4 << 10, true, false),
+    SMALL_1K_DEFLATED(1_000, 4 << 10, true, false),
+    SMALL_1K_STORED(1_000, 4 << 10, false, false),
+    SMALL_1K_COMMENTED(1_000, 4 << 10, true, true),
+    MANY_100K(100_000, 256, true, false),
+    MANY_1M(1_000_000, 64, true, false),
+    HUGE_ENTRY(1, 512 << 20, true, false),
+    ;
+
+    /**
+     * エントリ数
+     */
+    final int entries;
+
+    /**
+     * 1エントリの圧縮前のサイズ [byte]
+     */
+    final long entrySize;
+
+    /**
+     * true なら DEFLATE、false なら無圧縮
+     */
+    final boolean deflated;
+
+    /**
+     * エントリと ZIP ファイルにコメントを付けるかどうか
+     */
+    final boolean commented;
+
+    ArchiveShape(int entries, long entrySize, boolean deflated, boolean commented) {
+        this.entries = entries;
+        this.entrySize = entrySize;
+        this.deflated = deflated;
+        this.commented = commented;
+    }
+
+    /**
+     * i 番目のエントリ名を返す。ディレクトリに分けて、ある程度長い名前にする。
+     *
+     * @param i エントリ番号
+     * @return エントリ名
+     */
+    public static String entryName(int i) {
+        return String.format("dir%03d/sub%02d/entry-%07d.txt", i % 1000, (i / 1000) % 100, i);
+    }
+}
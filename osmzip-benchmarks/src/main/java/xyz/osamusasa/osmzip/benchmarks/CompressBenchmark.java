@@ -0,0 +1,83 @@
+package xyz.osamusasa.osmzip.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import xyz.osamusasa.osmzip.Zip;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * ディレクトリを圧縮する時間
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CompressBenchmark {
+
+    @Param({"SMALL_1K_DEFLATED", "HUGE_ENTRY"})
+    public ArchiveShape shape;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private Path sourceDir;
+    private List<Path> files;
+    private Path target;
+
+    @Setup
+    public void setup() throws IOException {
+        sourceDir = ArchiveGenerator.directory(shape);
+        try (Stream<Path> paths = Files.walk(sourceDir)) {
+            files = paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        target = Files.createTempFile(Files.createDirectories(ArchiveGenerator.baseDir()), "compress", ".zip");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(target);
+    }
+
+    @Benchmark
+    public long osmzip() throws IOException {
+        new Zip(threads).compress(sourceDir.toString(), target.toString());
+        return Files.size(target);
+    }
+
+    /**
+     * java.util.zip には並列に圧縮する API が無いので、threads に関わらず1スレッドで圧縮する
+     */
+    @Benchmark
+    public long jdk() throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(target), 1 << 16))) {
+            for (Path file : files) {
+                out.putNextEntry(new ZipEntry(sourceDir.relativize(file).toString().replace('\\', '/')));
+                Files.copy(file, out);
+                out.closeEntry();
+            }
+        }
+        return Files.size(target);
+    }
+}
@@ -0,0 +1,119 @@
+package xyz.osamusasa.osmzip.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import xyz.osamusasa.osmzip.Zip;
+import xyz.osamusasa.osmzip.ZipFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+
+/**
+ * エントリを展開する時間
+ *
+ * single* は真ん中のエントリ1つをメモリに読み込むだけ、full* は全エントリをディレクトリに書き出す。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ExtractBenchmark {
+
+    @Param({"SMALL_1K_DEFLATED", "SMALL_1K_STORED", "HUGE_ENTRY"})
+    public ArchiveShape shape;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private Path file;
+    private Path targetDir;
+    private ZipFile osmzip;
+    private java.util.zip.ZipFile jdk;
+    private String name;
+    private byte[] buf;
+
+    @Setup
+    public void setup() throws IOException {
+        file = ArchiveGenerator.archive(shape);
+        targetDir = Files.createTempDirectory(Files.createDirectories(ArchiveGenerator.baseDir()), "extract");
+        osmzip = ZipFile.read(file.toFile());
+        jdk = new java.util.zip.ZipFile(file.toFile());
+        name = ArchiveShape.entryName(shape.entries / 2);
+        buf = new byte[1 << 16];
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        osmzip.close();
+        jdk.close();
+        try (var paths = Files.walk(targetDir)) {
+            paths.sorted((a, b) -> b.compareTo(a)).forEach((p) -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long singleOsmzip() throws IOException {
+        try (InputStream in = osmzip.getInputStream(osmzip.indexOf(name))) {
+            return drain(in);
+        }
+    }
+
+    @Benchmark
+    public long singleJdk() throws IOException {
+        try (InputStream in = jdk.getInputStream(jdk.getEntry(name))) {
+            return drain(in);
+        }
+    }
+
+    @Benchmark
+    public void fullOsmzip() throws IOException {
+        new Zip(threads).uncompress(file.toString(), targetDir.toString());
+    }
+
+    /**
+     * java.util.zip には並列に展開する API が無いので、threads に関わらず1スレッドで展開する
+     */
+    @Benchmark
+    public void fullJdk() throws IOException {
+        Enumeration<? extends ZipEntry> entries = jdk.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            Path target = targetDir.resolve(entry.getName());
+            if (entry.isDirectory()) {
+                Files.createDirectories(target);
+                continue;
+            }
+            Files.createDirectories(target.getParent());
+            try (InputStream in = jdk.getInputStream(entry)) {
+                Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    private long drain(InputStream in) throws IOException {
+        long total = 0;
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            total += n;
+        }
+        return total;
+    }
+}
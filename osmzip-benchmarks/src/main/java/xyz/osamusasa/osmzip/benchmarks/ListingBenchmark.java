@@ -0,0 +1,70 @@
+package xyz.osamusasa.osmzip.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import xyz.osamusasa.osmzip.ZipFile;
+import xyz.osamusasa.osmzip.io.OsmZipIOException;
+
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+
+/**
+ * 全エントリの名前とサイズを列挙する時間
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListingBenchmark {
+
+    @Param({"SMALL_1K_DEFLATED", "MANY_100K", "MANY_1M"})
+    public ArchiveShape shape;
+
+    private ZipFile osmzip;
+    private java.util.zip.ZipFile jdk;
+
+    @Setup
+    public void setup() throws IOException {
+        osmzip = ZipFile.read(ArchiveGenerator.archive(shape).toFile());
+        jdk = new java.util.zip.ZipFile(ArchiveGenerator.archive(shape).toFile());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        osmzip.close();
+        jdk.close();
+    }
+
+    @Benchmark
+    public void osmzip(Blackhole bh) throws OsmZipIOException {
+        for (int i = 0; i < osmzip.lengthOfLocalFileHeader(); i++) {
+            bh.consume(osmzip.getFile(i).getFileName());
+            bh.consume(osmzip.getFile(i).getUncompressedSize());
+        }
+    }
+
+    @Benchmark
+    public void jdk(Blackhole bh) {
+        Enumeration<? extends ZipEntry> entries = jdk.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            bh.consume(entry.getName());
+            bh.consume(entry.getSize());
+        }
+    }
+}
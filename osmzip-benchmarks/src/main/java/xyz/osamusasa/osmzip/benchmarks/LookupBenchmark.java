@@ -0,0 +1,75 @@
+package xyz.osamusasa.osmzip.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import xyz.osamusasa.osmzip.ZipFile;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+
+/**
+ * エントリ名からエントリを探す時間
+ *
+ * 探す名前は固定のシードで選んだ既存の名前と、存在しない名前を混ぜたもの。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LookupBenchmark {
+
+    private static final int NAMES = 1 << 12;
+
+    @Param({"SMALL_1K_DEFLATED", "MANY_100K", "MANY_1M"})
+    public ArchiveShape shape;
+
+    private ZipFile osmzip;
+    private java.util.zip.ZipFile jdk;
+    private String[] names;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        osmzip = ZipFile.read(ArchiveGenerator.archive(shape).toFile());
+        jdk = new java.util.zip.ZipFile(ArchiveGenerator.archive(shape).toFile());
+
+        SplittableRandom random = new SplittableRandom(42);
+        names = new String[NAMES];
+        for (int i = 0; i < NAMES; i++) {
+            // 8 回に 1 回は存在しない名前
+            names[i] = random.nextInt(8) == 0
+                    ? "missing/" + i
+                    : ArchiveShape.entryName(random.nextInt(shape.entries));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        osmzip.close();
+        jdk.close();
+    }
+
+    @Benchmark
+    public int osmzip() {
+        return osmzip.indexOf(names[next++ & (NAMES - 1)]);
+    }
+
+    @Benchmark
+    public ZipEntry jdk() {
+        return jdk.getEntry(names[next++ & (NAMES - 1)]);
+    }
+}
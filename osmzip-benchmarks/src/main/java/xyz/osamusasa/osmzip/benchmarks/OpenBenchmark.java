@@ -0,0 +1,58 @@
+package xyz.osamusasa.osmzip.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import xyz.osamusasa.osmzip.ZipFile;
+import xyz.osamusasa.osmzip.io.ZipReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ZIPファイルを開く(EOCD と Central directory を読み込む)までの時間
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OpenBenchmark {
+
+    @Param({"SINGLE_SMALL", "SMALL_1K_DEFLATED", "SMALL_1K_COMMENTED", "MANY_100K", "MANY_1M"})
+    public ArchiveShape shape;
+
+    @Param({"RANDOM_ACCESS_FILE", "MEMORY_MAPPED"})
+    public ZipReader.Backend backend;
+
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        file = ArchiveGenerator.archive(shape).toFile();
+    }
+
+    @Benchmark
+    public int osmzip() throws IOException {
+        try (ZipFile zip = ZipFile.read(file, backend)) {
+            return zip.lengthOfLocalFileHeader();
+        }
+    }
+
+    @Benchmark
+    public int jdk() throws IOException {
+        try (java.util.zip.ZipFile zip = new java.util.zip.ZipFile(file)) {
+            return zip.size();
+        }
+    }
+}
@@ -1,5 +1,4 @@
 import xyz.osamusasa.osmzip.ZipFile;
-import xyz.osamusasa.osmzip.io.OsmZipIOException;
 
 import java.io.File;
 import java.io.IOException;
@@ -32,11 +31,12 @@ public class Main {
         try {
             File zipFile = Path.of(Main.class.getResource(PATH_TEXT_ZIP).toURI()).toFile();
 
-            ZipFile zip = ZipFile.read(zipFile);
-            System.out.println(zip);
+            try (ZipFile zip = ZipFile.read(zipFile)) {
+                System.out.println(zip);
+            }
         } catch (URISyntaxException e) {
             e.printStackTrace();
-        } catch (OsmZipIOException e) {
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
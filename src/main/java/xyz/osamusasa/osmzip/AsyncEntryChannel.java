@@ -0,0 +1,151 @@
+package xyz.osamusasa.osmzip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousByteChannel;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadPendingException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * エントリの展開後のデータを非同期に読み込むチャネル
+ *
+ * 読み込みは I/O 用の Executor で {@link ZipFile#openChannel(int)} のチャネルから行い、結果は CompletionHandler に渡す。
+ * エントリを開く(LFH を読む)のも最初の読み込みのときに I/O 用のスレッドで行う。
+ * 同時に行える読み込みは1つだけで、前の読み込みが終わる前に読むと {@link ReadPendingException} を投げる。
+ */
+class AsyncEntryChannel implements AsynchronousByteChannel {
+
+    private final ZipFile zip;
+    private final int index;
+    private final Executor executor;
+    private final AtomicBoolean reading = new AtomicBoolean();
+    private volatile boolean open = true;
+
+    /**
+     * I/O 用のスレッドで開き、読み込み、閉じる。アクセスは this で同期する
+     */
+    private ReadableByteChannel channel;
+
+    /**
+     * @param zip ZIPファイル
+     * @param index エントリ番号
+     * @param executor 読み込みを行う Executor
+     */
+    AsyncEntryChannel(ZipFile zip, int index, Executor executor) {
+        this.zip = zip;
+        this.index = index;
+        this.executor = executor;
+    }
+
+    @Override
+    public <A> void read(ByteBuffer dst, A attachment, CompletionHandler<Integer, ? super A> handler) {
+        Objects.requireNonNull(handler);
+        if (dst.isReadOnly()) {
+            throw new IllegalArgumentException("読み込み専用のバッファ");
+        }
+        if (!open) {
+            handler.failed(new ClosedChannelException(), attachment);
+            return;
+        }
+        if (!reading.compareAndSet(false, true)) {
+            throw new ReadPendingException();
+        }
+
+        try {
+            executor.execute(() -> {
+                int n;
+                try {
+                    n = readNow(dst);
+                } catch (IOException | RuntimeException e) {
+                    reading.set(false);
+                    handler.failed(e, attachment);
+                    return;
+                }
+                reading.set(false);
+                handler.completed(n, attachment);
+            });
+        } catch (RejectedExecutionException e) {
+            reading.set(false);
+            handler.failed(e, attachment);
+        }
+    }
+
+    @Override
+    public Future<Integer> read(ByteBuffer dst) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        read(dst, null, new CompletionHandler<Integer, Object>() {
+            @Override
+            public void completed(Integer n, Object attachment) {
+                result.complete(n);
+            }
+
+            @Override
+            public void failed(Throwable e, Object attachment) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private synchronized int readNow(ByteBuffer dst) throws IOException {
+        if (!open) {
+            throw new AsynchronousCloseException();
+        }
+        if (channel == null) {
+            channel = zip.openChannel(index);
+        }
+        return channel.read(dst);
+    }
+
+    @Override
+    public <A> void write(ByteBuffer src, A attachment, CompletionHandler<Integer, ? super A> handler) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public Future<Integer> write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * チャネルを閉じる。読み込み中のチャネルを待たないよう、元のチャネルは I/O 用のスレッドで閉じる
+     */
+    @Override
+    public void close() {
+        if (!open) {
+            return;
+        }
+        open = false;
+        try {
+            executor.execute(this::closeChannel);
+        } catch (RejectedExecutionException e) {
+            closeChannel();
+        }
+    }
+
+    private synchronized void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // 読み込み専用なので、閉じるときの失敗は無視する
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package xyz.osamusasa.osmzip;
+
+import xyz.osamusasa.osmzip.io.CentralDirectory;
+import xyz.osamusasa.osmzip.io.OsmZipIOException;
+import xyz.osamusasa.osmzip.io.ZipReader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ZipFile のエントリを非同期に読み込むクラス
+ *
+ * 要求はキューに入れるだけで、読み込みと展開は I/O 用の Executor で行う。呼び出し元のスレッドはディスクを待たない。
+ * キューに溜まった要求はまとめて取り出し、LFH のオフセット順に並べる。
+ * 近くにあるエントリ同士(間が {@link #MAX_GAP} 以下で、全体が {@link #MAX_MERGED} 以下)は1回の読み込みでまとめて読み、
+ * 読み込んだ範囲から各エントリの File data を取り出して展開する。まとめた範囲ごとの処理は並列に行う。
+ *
+ * 大きなエントリと、{@link EntryContentCache} に入るエントリは、まとめずに {@link ZipFile#openChannel(int)} で読み込む。
+ * 結果の CompletableFuture は I/O 用のスレッドで完了する。
+ */
+class AsyncEntryReader {
+
+    /**
+     * この間隔までのエントリはまとめて読み込む [byte]
+     */
+    static final long MAX_GAP = 64L << 10;
+
+    /**
+     * まとめて読み込む範囲の最大の大きさ [byte]
+     */
+    static final long MAX_MERGED = 8L << 20;
+
+    /**
+     * LFH の extra field が CDH のものより長い場合に備えて、範囲の見積もりに足す長さ
+     */
+    private static final int LFH_SLACK = 64;
+
+    /**
+     * 1回に取り出す要求の最大数
+     */
+    private static final int MAX_BATCH = 1024;
+
+    /**
+     * 1エントリの要求
+     *
+     * @param index エントリ番号
+     * @param result 展開後の内容を渡す先
+     */
+    private record Request(int index, CompletableFuture<ByteBuffer> result) {
+    }
+
+    private final ZipFile zip;
+    private final Executor executor;
+    private final Queue<Request> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    /**
+     * @param zip 読み込むZIPファイル
+     * @param executor 読み込みと展開を行う Executor
+     */
+    AsyncEntryReader(ZipFile zip, Executor executor) {
+        this.zip = zip;
+        this.executor = executor;
+    }
+
+    /**
+     * 指定しない場合に使う I/O 用の Executor。スレッド数は固定で、デーモンスレッドを使う
+     *
+     * @return Executor
+     */
+    static Executor defaultExecutor() {
+        return DefaultExecutor.INSTANCE;
+    }
+
+    private static final class DefaultExecutor {
+        private static final AtomicInteger THREADS = new AtomicInteger();
+        private static final ExecutorService INSTANCE = Executors.newFixedThreadPool(
+                Math.max(2, Runtime.getRuntime().availableProcessors()), (r) -> {
+                    Thread thread = new Thread(r, "osmzip-io-" + THREADS.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * エントリの読み込みを要求する
+     *
+     * @param index エントリ番号
+     * @return 展開後の内容
+     */
+    CompletableFuture<ByteBuffer> read(int index) {
+        CompletableFuture<ByteBuffer> result = new CompletableFuture<>();
+        queue.add(new Request(index, result));
+        schedule();
+        return result;
+    }
+
+    private void schedule() {
+        if (!draining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            draining.set(false);
+            Request request;
+            while ((request = queue.poll()) != null) {
+                request.result().completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * キューに溜まった要求を取り出して、まとめて読み込む範囲に分ける
+     */
+    private void drain() {
+        try {
+            List<Request> batch = new ArrayList<>();
+            Request request;
+            while (batch.size() < MAX_BATCH && (request = queue.poll()) != null) {
+                batch.add(request);
+            }
+            dispatch(batch);
+        } finally {
+            draining.set(false);
+            if (!queue.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+
+    private void dispatch(List<Request> batch) {
+        CentralDirectory directory = zip.getCentralDirectory();
+        EntryContentCache cache = zip.getContentCache();
+        batch.sort(Comparator.comparingLong((Request r) -> directory.getOffsetRelativeLH(r.index())));
+
+        List<Request> group = new ArrayList<>();
+        long start = 0;
+        long end = 0;
+        for (Request request : batch) {
+            int index = request.index();
+            long lfh = directory.getOffsetRelativeLH(index);
+            long estimatedEnd = lfh + 30 + directory.getLengthFileName(index) + directory.getLengthExtraField(index)
+                    + LFH_SLACK + directory.getCompressedSize(index);
+
+            if (estimatedEnd - lfh > MAX_MERGED
+                    || (cache != null && cache.accepts(directory.getUncompressedSize(index)))) {
+                execute(() -> readAlone(request), List.of(request));
+                continue;
+            }
+            if (!group.isEmpty() && (lfh - end > MAX_GAP || estimatedEnd - start > MAX_MERGED)) {
+                submit(group, start, end);
+                group = new ArrayList<>();
+            }
+            if (group.isEmpty()) {
+                start = lfh;
+            }
+            group.add(request);
+            end = Math.max(end, estimatedEnd);
+        }
+        if (!group.isEmpty()) {
+            submit(group, start, end);
+        }
+    }
+
+    private void submit(List<Request> group, long start, long end) {
+        execute(() -> readGroup(group, start, end), group);
+    }
+
+    private void execute(Runnable task, List<Request> requests) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            requests.forEach((r) -> r.result().completeExceptionally(e));
+        }
+    }
+
+    /**
+     * 範囲をまとめて読み込み、範囲に含まれる各エントリを展開する
+     */
+    private void readGroup(List<Request> group, long start, long end) {
+        CentralDirectory directory = zip.getCentralDirectory();
+        ByteBuffer range;
+        try {
+            range = zip.readRaw(start, (int) (Math.min(end, zip.rawSize()) - start));
+        } catch (OsmZipIOException | RuntimeException e) {
+            group.forEach((r) -> r.result().completeExceptionally(e));
+            return;
+        }
+
+        for (Request request : group) {
+            int index = request.index();
+            try {
+                ByteBuffer data = ZipReader.sliceFileData(range,
+                        (int) (directory.getOffsetRelativeLH(index) - start), directory.getCompressedSize(index));
+                if (data == null) {
+                    // LFH の extra field が見積もりより長かった
+                    readAlone(request);
+                    continue;
+                }
+                request.result().complete(ZipReader.decode(data, directory.getCompressionMethod(index),
+                        directory.getCrc32(index), directory.getUncompressedSize(index), zip.isVerifyChecksums()));
+            } catch (OsmZipIOException | RuntimeException e) {
+                request.result().completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 1エントリを {@link ZipFile#openChannel(int)} で読み込む
+     */
+    private void readAlone(Request request) {
+        int index = request.index();
+        long size = zip.getCentralDirectory().getUncompressedSize(index);
+        if (size > Integer.MAX_VALUE - 8) {
+            request.result().completeExceptionally(new OsmZipIOException("展開後のサイズが大きすぎる。：" + size));
+            return;
+        }
+
+        try (ReadableByteChannel in = zip.openChannel(index)) {
+            ByteBuffer content = ByteBuffer.allocate((int) size);
+            while (content.hasRemaining() && in.read(content) >= 0) {
+                // 読み込み続ける
+            }
+            // 終わりまで読んで検証する
+            ByteBuffer tail = ByteBuffer.allocate(1);
+            while (in.read(tail.clear()) >= 0) {
+                if (tail.position() > 0) {
+                    throw new OsmZipIOException("展開後のサイズが CDH より大きい。：" + index);
+                }
+            }
+            request.result().complete(content.flip());
+        } catch (IOException | RuntimeException e) {
+            request.result().completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package xyz.osamusasa.osmzip;
+
+import xyz.osamusasa.osmzip.io.OsmZipIOException;
+import xyz.osamusasa.osmzip.monitor.ZipMetrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 展開済みのエントリの内容を保持するキャッシュ
+ *
+ * 何度も読まれる小さなエントリを、展開後の内容のまま保持する。
+ * {@link ZipFile#setContentCache(EntryContentCache)} で設定すると、キャッシュにあるエントリは展開せずに読み込める。
+ * キーはZIPファイル(パス・サイズ・更新日時)と LFH のオフセット。
+ *
+ * 内容はヒープの外(ダイレクトバッファ)に置き、合計サイズが上限を超えないように追い出す。
+ * 追い出す候補は最も長く使われていないエントリだが、新しいエントリの方が最近の読み込み回数が多い場合にだけ入れ替える(TinyLFU)。
+ * 入れ替えられるかは展開する前に判断し、保持しないエントリはバッファを確保せずに展開しながら読み込む。
+ * 読み込み回数は小さなカウンタの表で近似し、一定回数ごとに半分にして古い回数の影響を減らす。
+ */
+public class EntryContentCache {
+
+    /**
+     * キャッシュのキー
+     *
+     * @param archive ZIPファイル
+     * @param offset LFH のオフセット
+     */
+    record Key(ZipFile.Identity archive, long offset) {
+    }
+
+    /**
+     * キャッシュの統計
+     *
+     * @param hits キャッシュから読み込んだ回数
+     * @param misses 展開して読み込んだ回数
+     * @param evictions 追い出したエントリの数
+     * @param rejections 読み込み回数が少なく、キャッシュに入れなかった回数
+     * @param entries 保持しているエントリの数
+     * @param bytes 保持している内容の合計サイズ [byte]
+     */
+    public record Stats(long hits, long misses, long evictions, long rejections, int entries, long bytes) {
+    }
+
+    private final long maxBytes;
+    private final int maxEntrySize;
+
+    /**
+     * アクセス順に並ぶので、先頭が最も長く使われていない
+     */
+    private final LinkedHashMap<Key, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    /**
+     * @param maxBytes 保持する内容の合計サイズの上限 [byte]
+     * @param maxEntrySize これより大きいエントリは保持しない [byte]
+     */
+    public EntryContentCache(long maxBytes, int maxEntrySize) {
+        if (maxBytes <= 0 || maxEntrySize <= 0) {
+            throw new IllegalArgumentException("maxBytes と maxEntrySize は1以上：" + maxBytes + ", " + maxEntrySize);
+        }
+        this.maxBytes = maxBytes;
+        this.maxEntrySize = (int) Math.min(maxEntrySize, maxBytes);
+        this.sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(64, maxBytes / 1024)));
+    }
+
+    /**
+     * 統計を返す
+     *
+     * @return 統計
+     */
+    public Stats stats() {
+        synchronized (this) {
+            return new Stats(hits.sum(), misses.sum(), evictions.sum(), rejections.sum(), entries.size(), bytes);
+        }
+    }
+
+    /**
+     * 保持している内容を全て捨てる
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * このサイズのエントリを保持するかどうか
+     *
+     * @param uncompressedSize 展開後のサイズ [byte]
+     * @return 保持するなら true
+     */
+    boolean accepts(long uncompressedSize) {
+        return uncompressedSize <= maxEntrySize;
+    }
+
+    /**
+     * エントリの内容を読み込むチャネルを開く。
+     * キャッシュに無ければ、読み込み回数が多く保持できる場合だけ展開して保持する。そうでなければ展開しながら読み込む。
+     *
+     * @param zip ZIPファイル
+     * @param index エントリの番号
+     * @return 展開後のデータを読み込むチャネル
+     * @throws OsmZipIOException 展開に失敗した場合
+     */
+    ReadableByteChannel openChannel(ZipFile zip, int index) throws OsmZipIOException {
+        Key key = new Key(zip.identity(), zip.getCentralDirectory().getOffsetRelativeLH(index));
+
+        ByteBuffer content;
+        boolean admit;
+        synchronized (this) {
+            sketch.increment(key.hashCode());
+            content = entries.get(key);
+            admit = content == null && admits(key, zip.getCentralDirectory().getUncompressedSize(index));
+        }
+        if (ZipMetrics.DEFAULT.isEnabled()) {
+            ZipMetrics.DEFAULT.recordContentCache(content != null);
+        }
+        if (content != null) {
+            hits.increment();
+            return new ContentChannel(content.duplicate());
+        }
+
+        misses.increment();
+        if (!admit) {
+            rejections.increment();
+            return zip.openUncachedChannel(index);
+        }
+        content = load(zip, index);
+        put(key, content);
+        return new ContentChannel(content.duplicate());
+    }
+
+    /**
+     * エントリを最後まで展開して、ヒープの外のバッファに読み込む。CRC-32 は ZipFile の設定に従って検証する
+     */
+    private static ByteBuffer load(ZipFile zip, int index) throws OsmZipIOException {
+        ByteBuffer content = ByteBuffer.allocateDirect((int) zip.getCentralDirectory().getUncompressedSize(index));
+
+        try (ReadableByteChannel in = zip.openUncachedChannel(index)) {
+            while (content.hasRemaining() && in.read(content) >= 0) {
+                // 読み込み続ける
+            }
+            // 終わりまで読んで検証する
+            ByteBuffer tail = ByteBuffer.allocate(1);
+            while (in.read(tail.clear()) >= 0) {
+                if (tail.position() > 0) {
+                    throw new OsmZipIOException("展開後のサイズが CDH より大きい。：" + index);
+                }
+            }
+        } catch (OsmZipIOException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new OsmZipIOException("File Dataの読み込みに失敗。：" + index, e);
+        }
+
+        if (content.hasRemaining()) {
+            throw new OsmZipIOException("展開後のサイズが CDH より小さい。：" + index);
+        }
+        return content.flip().asReadOnlyBuffer();
+    }
+
+    /**
+     * 新しいエントリを保持できるかを返す。
+     * 上限を超える場合は、最も長く使われていないものから順に、新しいエントリより読み込み回数が少なければ追い出せるとみなす。
+     */
+    private boolean admits(Key key, long size) {
+        if (bytes + size <= maxBytes) {
+            return true;
+        }
+
+        int frequency = sketch.frequency(key.hashCode());
+        long free = maxBytes - bytes;
+        for (Map.Entry<Key, ByteBuffer> victim : entries.entrySet()) {
+            if (frequency <= sketch.frequency(victim.getKey().hashCode())) {
+                return false;
+            }
+            free += victim.getValue().capacity();
+            if (free >= size) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 内容を保持する。上限を超える場合は、読み込み回数が少ないものを追い出すか、新しい内容を保持しない
+     */
+    private synchronized void put(Key key, ByteBuffer content) {
+        if (entries.containsKey(key)) {
+            return;
+        }
+
+        int size = content.capacity();
+        int frequency = sketch.frequency(key.hashCode());
+        Iterator<Map.Entry<Key, ByteBuffer>> it = entries.entrySet().iterator();
+        while (bytes + size > maxBytes) {
+            Map.Entry<Key, ByteBuffer> victim = it.next();
+            if (frequency <= sketch.frequency(victim.getKey().hashCode())) {
+                rejections.increment();
+                return;
+            }
+            it.remove();
+            bytes -= victim.getValue().capacity();
+            evictions.increment();
+        }
+
+        entries.put(key, content);
+        bytes += size;
+    }
+
+    /**
+     * 保持している内容を読み込むチャネル
+     */
+    private static final class ContentChannel implements ReadableByteChannel {
+        private final ByteBuffer content;
+        private boolean open = true;
+
+        ContentChannel(ByteBuffer content) {
+            this.content = content;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            if (!content.hasRemaining()) {
+                return -1;
+            }
+
+            int n = Math.min(dst.remaining(), content.remaining());
+            dst.put(dst.position(), content, content.position(), n);
+            dst.position(dst.position() + n);
+            content.position(content.position() + n);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+
+    /**
+     * キーごとの最近の読み込み回数を近似する表(Count-Min Sketch)
+     *
+     * 4bit 相当のカウンタを4つのハッシュで引き、最小値を回数とする。
+     * 増やした回数が表の大きさの10倍になるたびに全てのカウンタを半分にする。
+     */
+    private static final class FrequencySketch {
+        private static final int[] SEEDS = {0x97cb3127, 0x2d8e2d35, 0x7fb7e1b5, 0x1b873593};
+        private static final int MAX_COUNT = 15;
+
+        private final int[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int expectedEntries) {
+            int size = Integer.highestOneBit(Math.max(16, expectedEntries - 1) << 1);
+            this.table = new int[size];
+            this.mask = size - 1;
+            this.sampleSize = size * 10;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int seed : SEEDS) {
+                int i = index(hash, seed);
+                if (table[i] < MAX_COUNT) {
+                    table[i]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] >>>= 1;
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(int hash) {
+            int frequency = MAX_COUNT;
+            for (int seed : SEEDS) {
+                frequency = Math.min(frequency, table[index(hash, seed)]);
+            }
+            return frequency;
+        }
+
+        private int index(int hash, int seed) {
+            int h = (hash + seed) * seed;
+            h ^= h >>> 16;
+            return h & mask;
+        }
+    }
+}
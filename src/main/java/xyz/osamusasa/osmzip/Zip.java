@@ -1,28 +1,376 @@
 package xyz.osamusasa.osmzip;
 
+import lombok.Getter;
+import lombok.Setter;
 import xyz.osamusasa.osmzip.io.OsmZipIOException;
+import xyz.osamusasa.osmzip.io.ZipWriter;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
 
 public class Zip {
 
+    private final Supplier<ExecutorService> executorFactory;
+    private final boolean ownsExecutor;
+
+    /**
+     * 同時に処理するタスクの数の目安。圧縮中にしておくエントリの数はこの2倍まで
+     */
+    private final int parallelism;
+
+    /**
+     * 圧縮レベル(0～9, -1 はデフォルト)
+     */
+    @Getter
+    @Setter
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * これより大きいファイルはブロックに分けて並列に圧縮する [byte]
+     */
+    @Getter
+    @Setter
+    private long chunkThreshold = 64L * 1024 * 1024;
+
+    /**
+     * ブロックに分けて圧縮するときのブロックの大きさ [byte]。32KiB 以上
+     */
+    @Getter
+    @Setter
+    private int chunkSize = 1024 * 1024;
+
+    /**
+     * 同時に圧縮中にしておくファイルの合計サイズの上限 [byte]。
+     * ブロックに分けないファイルは全体を読み込んで圧縮するので、ヒープの使用量はおよそこの2倍(入力と圧縮後のデータ)までになる。
+     * 1つのファイルがこれより大きい場合は、そのファイルだけを圧縮する
+     */
+    @Getter
+    @Setter
+    private long maxBytesInFlight = 256L * 1024 * 1024;
+
+    /**
+     * 解凍するときに CRC-32 とサイズを検証するかどうか。信頼できるZIPファイルだけを扱うなら false にしてよい
+     */
+    @Getter
+    @Setter
+    private boolean verifyChecksums = true;
+
+    /**
+     * 前回のzipファイルの圧縮データを使い回すときに、CRC-32 も比べるかどうか。
+     * false なら名前・サイズ・更新日時だけで判断する(更新日時は2秒単位)
+     */
+    @Getter
+    @Setter
+    private boolean reuseCheckCrc = false;
+
+    /**
+     * 利用できるコア数だけのスレッドで処理する
+     */
+    public Zip() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * 指定したスレッド数で処理する。スレッドプールは処理ごとに作り、終わったら破棄する。
+     *
+     * @param parallelism スレッド数
+     */
+    public Zip(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism: " + parallelism);
+        }
+        this.executorFactory = () -> Executors.newFixedThreadPool(parallelism);
+        this.ownsExecutor = true;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * 呼び出し元が管理する ExecutorService で処理する。この ExecutorService は shutdown しない。
+     *
+     * @param executor タスクを実行する ExecutorService
+     */
+    public Zip(ExecutorService executor) {
+        this.executorFactory = () -> executor;
+        this.ownsExecutor = false;
+        this.parallelism = Runtime.getRuntime().availableProcessors();
+    }
+
+    private Zip(Supplier<ExecutorService> executorFactory, boolean ownsExecutor) {
+        this.executorFactory = executorFactory;
+        this.ownsExecutor = ownsExecutor;
+        this.parallelism = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * エントリごとに仮想スレッドを1つ使って処理する。
+     * 仮想スレッドは Java 21 以降でのみ利用できる。それより前の実行環境では、利用できるコア数だけのスレッドで処理する。
+     *
+     * @return Zip
+     */
+    public static Zip withVirtualThreads() {
+        Method factory;
+        try {
+            // コンパイル対象のバージョンに無いAPIなのでリフレクションで呼ぶ
+            factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return new Zip();
+        }
+
+        return new Zip(() -> {
+            try {
+                return (ExecutorService) factory.invoke(null);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            }
+        }, true);
+    }
+
     /**
      * zip圧縮
+     *
+     * ディレクトリの中身を、ディレクトリからの相対パスをエントリ名として圧縮する。
+     * 各エントリは別々のタスクとして並列に圧縮され、エントリ名の順に書き込まれる。
+     *
+     * @param sourceDir 圧縮するディレクトリ
+     * @param targetFile 作成するzipファイル
+     * @throws OsmZipIOException 読み込みか書き込みに失敗した場合
      */
-    public void compress(){}
+    public void compress(String sourceDir, String targetFile) throws OsmZipIOException {
+        compressSources(ZipCompressor.sourcesOf(Path.of(sourceDir)), Path.of(targetFile));
+    }
 
     /**
-     * zip解凍
+     * zip圧縮
+     *
+     * 各ファイル・ディレクトリを、それぞれのファイル名から始まるエントリ名で圧縮する。
+     *
+     * @param sources 圧縮するファイルまたはディレクトリ
+     * @param targetFile 作成するzipファイル
+     * @throws OsmZipIOException 読み込みか書き込みに失敗した場合
      */
-    public void uncompress(String sourceFile, String targetDir){
-        //zipファイル読み込み
-        ZipFile zip = null;
+    public void compress(List<Path> sources, Path targetFile) throws OsmZipIOException {
+        compressSources(ZipCompressor.sourcesOf(sources), targetFile);
+    }
+
+    /**
+     * zip圧縮(差分)
+     *
+     * ディレクトリの中身を圧縮する。前回のzipファイルに名前・サイズ・更新日時が同じエントリがあるファイルは、
+     * 圧縮し直さずに前回の圧縮データをそのままコピーする。変わったファイルの分だけ圧縮すればよい。
+     *
+     * @param sourceDir 圧縮するディレクトリ
+     * @param targetFile 作成するzipファイル。前回のzipファイルとは別のファイル
+     * @param previousFile 前回のzipファイル
+     * @throws OsmZipIOException 読み込みか書き込みに失敗した場合
+     */
+    public void compress(String sourceDir, String targetFile, String previousFile) throws OsmZipIOException {
+        compressIncrementally(ZipCompressor.sourcesOf(Path.of(sourceDir)), Path.of(targetFile), Path.of(previousFile));
+    }
+
+    /**
+     * zip圧縮(差分)
+     *
+     * 各ファイル・ディレクトリを圧縮する。前回のzipファイルに名前・サイズ・更新日時が同じエントリがあるファイルは、
+     * 圧縮し直さずに前回の圧縮データをそのままコピーする。
+     *
+     * @param sources 圧縮するファイルまたはディレクトリ
+     * @param targetFile 作成するzipファイル。前回のzipファイルとは別のファイル
+     * @param previousFile 前回のzipファイル
+     * @throws OsmZipIOException 読み込みか書き込みに失敗した場合
+     */
+    public void compress(List<Path> sources, Path targetFile, Path previousFile) throws OsmZipIOException {
+        compressIncrementally(ZipCompressor.sourcesOf(sources), targetFile, previousFile);
+    }
+
+    private void compressIncrementally(List<ZipCompressor.Source> sources, Path targetFile, Path previousFile)
+            throws OsmZipIOException {
+        try (ZipFile previous = ZipFile.read(previousFile.toFile())) {
+            ExecutorService executor = executorFactory.get();
+            try {
+                compressor(previous).compress(sources, targetFile, executor);
+            } finally {
+                if (ownsExecutor) {
+                    executor.shutdownNow();
+                }
+            }
+        } catch (OsmZipIOException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new OsmZipIOException("failed to close the ZIP file", e);
+        }
+    }
+
+    /**
+     * zip圧縮
+     *
+     * ディレクトリの中身を圧縮してストリームに書き込む。ストリームはシークできなくてよい。
+     * 各エントリは CRC-32 とサイズを File data の後ろの Data descriptor に書く。
+     *
+     * @param sourceDir 圧縮するディレクトリ
+     * @param out 書き込み先。書き終えたら閉じる
+     * @throws OsmZipIOException 読み込みか書き込みに失敗した場合
+     */
+    public void compress(String sourceDir, OutputStream out) throws OsmZipIOException {
+        compressSources(ZipCompressor.sourcesOf(Path.of(sourceDir)), out);
+    }
+
+    /**
+     * zip圧縮
+     *
+     * 各ファイル・ディレクトリを圧縮してストリームに書き込む。ストリームはシークできなくてよい。
+     *
+     * @param sources 圧縮するファイルまたはディレクトリ
+     * @param out 書き込み先。書き終えたら閉じる
+     * @throws OsmZipIOException 読み込みか書き込みに失敗した場合
+     */
+    public void compress(List<Path> sources, OutputStream out) throws OsmZipIOException {
+        compressSources(ZipCompressor.sourcesOf(sources), out);
+    }
+
+    /**
+     * zip追記
+     *
+     * 各ファイル・ディレクトリを圧縮して既存のzipファイルに追記する。既存のエントリは書き直さない。
+     * 同じ名前のエントリがあれば置き換える(Central directory から外すだけで、元の File data は残る)。
+     *
+     * @param sources 圧縮するファイルまたはディレクトリ
+     * @param archive 追記するzipファイル
+     * @throws OsmZipIOException 読み込みか書き込みに失敗した場合
+     */
+    public void append(List<Path> sources, Path archive) throws OsmZipIOException {
+        ExecutorService executor = executorFactory.get();
         try {
-            zip = ZipFile.read(new File(sourceFile));
+            compressor().append(ZipCompressor.sourcesOf(sources), archive, executor);
+        } finally {
+            if (ownsExecutor) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * zipファイルからエントリを削除する
+     *
+     * Central directory から外すだけで、File data は残る。
+     *
+     * @param archive zipファイル
+     * @param names 削除するエントリ名
+     * @return 削除したエントリの数
+     * @throws OsmZipIOException 読み込みか書き込みに失敗した場合
+     */
+    public int remove(Path archive, Collection<String> names) throws OsmZipIOException {
+        int removed = 0;
+        try (ZipWriter writer = ZipWriter.append(archive.toFile())) {
+            for (String name : names) {
+                if (writer.remove(name)) {
+                    removed++;
+                }
+            }
         } catch (OsmZipIOException e) {
-            e.printStackTrace();
+            throw e;
+        } catch (IOException e) {
+            throw new OsmZipIOException("zipファイルの書き込みに失敗。：" + archive, e);
         }
+        return removed;
+    }
 
-        //zipファイル書き込み
+    /**
+     * zipファイルの結合
+     *
+     * 各zipファイルのエントリを、展開も再圧縮もせずに1つのzipファイルにまとめる。
+     * 同じ名前のエントリがあれば、後のzipファイルのものを残す。
+     *
+     * @param archives 結合するzipファイル
+     * @param targetFile 作成するzipファイル
+     * @throws OsmZipIOException 読み込みか書き込みに失敗した場合
+     */
+    public void merge(List<Path> archives, Path targetFile) throws OsmZipIOException {
+        repack(archives, targetFile, name -> true);
+    }
+
+    /**
+     * zipファイルの作り直し
+     *
+     * 各zipファイルのエントリのうち、名前が条件に合うものだけを、展開も再圧縮もせずに1つのzipファイルにまとめる。
+     * 同じ名前のエントリがあれば、後のzipファイルのものを残す。
+     *
+     * @param archives 元のzipファイル
+     * @param targetFile 作成するzipファイル
+     * @param filter 残すエントリの名前を選ぶ条件(例：{@code Pattern.compile(".*\\.txt").asMatchPredicate()})
+     * @throws OsmZipIOException 読み込みか書き込みに失敗した場合
+     */
+    public void repack(List<Path> archives, Path targetFile, Predicate<String> filter) throws OsmZipIOException {
+        new ZipRepacker(filter).repack(archives, targetFile);
+    }
+
+    private void compressSources(List<ZipCompressor.Source> sources, Path targetFile) throws OsmZipIOException {
+        ExecutorService executor = executorFactory.get();
+        try {
+            compressor().compress(sources, targetFile, executor);
+        } finally {
+            if (ownsExecutor) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private void compressSources(List<ZipCompressor.Source> sources, OutputStream out) throws OsmZipIOException {
+        ExecutorService executor = executorFactory.get();
+        try {
+            compressor().compress(sources, out, executor);
+        } finally {
+            if (ownsExecutor) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private ZipCompressor compressor() {
+        return compressor(null);
+    }
+
+    private ZipCompressor compressor(ZipFile previous) {
+        return new ZipCompressor(compressionLevel, parallelism * 2, maxBytesInFlight, chunkThreshold, chunkSize,
+                previous, reuseCheckCrc);
+    }
+
+    /**
+     * zip解凍
+     *
+     * 各エントリは別々のタスクとして並列に展開される。
+     *
+     * @param sourceFile zipファイル
+     * @param targetDir 展開先のディレクトリ
+     * @throws OsmZipIOException 読み込みか展開に失敗した場合
+     */
+    public void uncompress(String sourceFile, String targetDir) throws OsmZipIOException {
+        //zipファイル読み込み
+        try (ZipFile zip = ZipFile.read(new File(sourceFile))) {
+            zip.setVerifyChecksums(verifyChecksums);
+            //zipファイル書き込み
+            ExecutorService executor = executorFactory.get();
+            try {
+                new ZipExtractor(zip, Path.of(targetDir)).extractAll(executor);
+            } finally {
+                if (ownsExecutor) {
+                    executor.shutdownNow();
+                }
+            }
+        } catch (OsmZipIOException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new OsmZipIOException("failed to close the ZIP file", e);
+        }
     }
 }
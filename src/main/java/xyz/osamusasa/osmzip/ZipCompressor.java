@@ -0,0 +1,380 @@
+package xyz.osamusasa.osmzip;
+
+import xyz.osamusasa.osmzip.element.CentralDictionaryHeader;
+import xyz.osamusasa.osmzip.io.CentralDirectory;
+import xyz.osamusasa.osmzip.io.ChunkedEntryCompressor;
+import xyz.osamusasa.osmzip.io.CompressedEntry;
+import xyz.osamusasa.osmzip.io.EntryCompressor;
+import xyz.osamusasa.osmzip.io.OsmZipIOException;
+import xyz.osamusasa.osmzip.io.ZipWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * 複数のファイルを並列に圧縮して1つのZIPファイルを作るクラス
+ *
+ * 圧縮はエントリごとのタスクとして並列に行い、書き込みは呼び出し元のスレッドがエントリ名の順に行う。
+ * そのため、出力はスレッド数に関係なく同じ内容になる。
+ * 同時に圧縮中のエントリ数は {@link #window} まで、読み込むファイルの合計サイズは {@link #maxBytesInFlight} までに抑え、
+ * メモリ使用量が増えすぎないようにする。
+ * {@link #chunkThreshold} を超える大きなファイルは {@link ChunkedEntryCompressor} でブロックごとに並列に圧縮する。
+ *
+ * 前回のZIPファイル({@link #previous})を渡すと、エントリ名・サイズ・更新日時(DOS 形式)が前回の CDH と同じファイルは
+ * 圧縮せず、前回の圧縮データをそのままコピーする({@link ZipFile#copyRawTo})。
+ * 更新日時は2秒単位なので、{@link #checkCrc} が true なら CRC-32 も比べる(ファイルを読むが、圧縮よりずっと速い)。
+ */
+class ZipCompressor {
+
+    /**
+     * ZIPに格納するファイルとエントリ名
+     */
+    record Source(Path path, String name) {
+    }
+
+    /**
+     * 書き込み待ちのエントリ。ブロックに分けて圧縮するエントリと、前回のZIPファイルからコピーするエントリは future が null
+     *
+     * @param previous 前回のZIPファイルからコピーする場合はそのエントリ番号。そうでなければ -1
+     * @param crc コピーする前に比べるファイルの CRC-32。比べない場合は null
+     * @param bytes 圧縮のためにメモリに読み込むサイズ [byte]。future が null なら 0
+     */
+    private record Pending(Source source, Future<CompressedEntry> future, int previous, Future<Long> crc, long bytes) {
+    }
+
+    /**
+     * これより大きいファイルは chunkThreshold に関わらずブロックに分ける。
+     * {@link EntryCompressor} はファイル全体を配列に読み込むため。
+     */
+    private static final long MAX_IN_MEMORY = 1L << 30;
+
+    private final int level;
+    private final int window;
+    private final long maxBytesInFlight;
+    private final long chunkThreshold;
+    private final int chunkSize;
+
+    /**
+     * 圧縮データを使い回す前回のZIPファイル。無ければ null
+     */
+    private final ZipFile previous;
+    private final boolean checkCrc;
+
+    /**
+     * @param level 圧縮レベル
+     * @param window 同時に圧縮中にしておくエントリ(ブロック)の最大数
+     * @param maxBytesInFlight 同時に圧縮中にしておくファイルの合計サイズの上限 [byte]
+     * @param chunkThreshold これより大きいファイルはブロックに分けて並列に圧縮する [byte]
+     * @param chunkSize ブロックの大きさ [byte]
+     * @param previous 変わっていないファイルの圧縮データを使い回す前回のZIPファイル。無ければ null
+     * @param checkCrc 使い回す前に CRC-32 も比べるかどうか
+     */
+    ZipCompressor(int level, int window, long maxBytesInFlight, long chunkThreshold, int chunkSize,
+                  ZipFile previous, boolean checkCrc) {
+        this.level = level;
+        this.window = window;
+        this.maxBytesInFlight = maxBytesInFlight;
+        this.chunkThreshold = chunkThreshold;
+        this.chunkSize = chunkSize;
+        this.previous = previous;
+        this.checkCrc = checkCrc;
+    }
+
+    /**
+     * ディレクトリの中身をエントリにする。エントリ名はディレクトリからの相対パス。
+     *
+     * @param dir ディレクトリ
+     * @return エントリ名順のソース
+     * @throws OsmZipIOException ディレクトリが読めない場合
+     */
+    static List<Source> sourcesOf(Path dir) throws OsmZipIOException {
+        List<Source> sources = new ArrayList<>();
+        walk(dir, "", sources);
+        sources.sort(Comparator.comparing(Source::name));
+        return sources;
+    }
+
+    /**
+     * ファイルまたはディレクトリをエントリにする。エントリ名はそれぞれのファイル名から始まる。
+     *
+     * @param paths ファイルまたはディレクトリ
+     * @return エントリ名順のソース
+     * @throws OsmZipIOException ディレクトリが読めない場合
+     */
+    static List<Source> sourcesOf(List<Path> paths) throws OsmZipIOException {
+        List<Source> sources = new ArrayList<>();
+        for (Path path : paths) {
+            String name = path.toAbsolutePath().normalize().getFileName().toString();
+            if (Files.isDirectory(path)) {
+                sources.add(new Source(path, name + "/"));
+                walk(path, name + "/", sources);
+            } else {
+                sources.add(new Source(path, name));
+            }
+        }
+        sources.sort(Comparator.comparing(Source::name));
+        return sources;
+    }
+
+    private static void walk(Path dir, String prefix, List<Source> sources) throws OsmZipIOException {
+        try (Stream<Path> children = Files.list(dir)) {
+            for (Path child : (Iterable<Path>) children::iterator) {
+                String name = prefix + child.getFileName().toString();
+                if (Files.isDirectory(child)) {
+                    sources.add(new Source(child, name + "/"));
+                    walk(child, name + "/", sources);
+                } else {
+                    sources.add(new Source(child, name));
+                }
+            }
+        } catch (IOException e) {
+            throw new OsmZipIOException("ディレクトリが読めない。：" + dir, e);
+        }
+    }
+
+    /**
+     * ソースを圧縮してZIPファイルに書き込む
+     *
+     * @param sources ソース
+     * @param target 書き込むZIPファイル
+     * @param executor 圧縮タスクを実行する ExecutorService
+     * @throws OsmZipIOException 圧縮か書き込みに失敗した場合
+     */
+    void compress(List<Source> sources, Path target, ExecutorService executor) throws OsmZipIOException {
+        if (previous != null && previous.identity().path().equals(target.toAbsolutePath().normalize())) {
+            throw new IllegalArgumentException("前回のZIPファイルには書き込めない：" + target);
+        }
+        try (ZipWriter writer = new ZipWriter(target.toFile())) {
+            compress(sources, writer, executor);
+        } catch (OsmZipIOException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new OsmZipIOException("ZIPファイルの書き込みに失敗。：" + target, e);
+        }
+    }
+
+    /**
+     * ソースを圧縮して既存のZIPファイルに追記する。同じ名前の既存のエントリは置き換える
+     *
+     * @param sources ソース
+     * @param archive 追記するZIPファイル
+     * @param executor 圧縮タスクを実行する ExecutorService
+     * @throws OsmZipIOException 圧縮か書き込みに失敗した場合
+     */
+    void append(List<Source> sources, Path archive, ExecutorService executor) throws OsmZipIOException {
+        try (ZipWriter writer = ZipWriter.append(archive.toFile())) {
+            compress(sources, writer, executor);
+        } catch (OsmZipIOException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new OsmZipIOException("ZIPファイルの書き込みに失敗。：" + archive, e);
+        }
+    }
+
+    /**
+     * ソースを圧縮してストリームに書き込む。
+     * 出力はシークしないので、パイプや HTTP のレスポンスにもそのまま書き込める。
+     *
+     * @param sources ソース
+     * @param out 書き込み先。書き終えたら閉じる
+     * @param executor 圧縮タスクを実行する ExecutorService
+     * @throws OsmZipIOException 圧縮か書き込みに失敗した場合
+     */
+    void compress(List<Source> sources, OutputStream out, ExecutorService executor) throws OsmZipIOException {
+        try (ZipWriter writer = new ZipWriter(out)) {
+            compress(sources, writer, executor);
+        } catch (OsmZipIOException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new OsmZipIOException("ZIPファイルの書き込みに失敗。", e);
+        }
+    }
+
+    /**
+     * ソースを圧縮して書き込む。失敗した場合は、途中までを正しいZIPファイルとして仕上げないよう writer を中止する
+     */
+    private void compress(List<Source> sources, ZipWriter writer, ExecutorService executor) throws IOException {
+        try {
+            write(sources, writer, executor);
+        } catch (IOException | RuntimeException e) {
+            abort(writer, e);
+            throw e;
+        }
+    }
+
+    private void write(List<Source> sources, ZipWriter writer, ExecutorService executor) throws IOException {
+        Deque<Pending> pending = new ArrayDeque<>();
+        ChunkedEntryCompressor chunked = new ChunkedEntryCompressor(level, chunkSize, executor, window);
+        int next = 0;
+        long inFlight = 0;
+
+        try {
+            while (next < sources.size() || !pending.isEmpty()) {
+                while (next < sources.size() && pending.size() < window) {
+                    Source source = sources.get(next);
+                    int unchanged = unchanged(source);
+                    if (unchanged >= 0) {
+                        // CRC-32 の計算も圧縮と同じく先に始めておき、先頭に来たときに待つ
+                        Future<Long> crc = checkCrc ? executor.submit(() -> crc32(source.path())) : null;
+                        pending.add(new Pending(source, null, unchanged, crc, 0));
+                    } else if (isChunked(source)) {
+                        pending.add(new Pending(source, null, -1, null, 0));
+                    } else {
+                        // 先頭のエントリは大きくても圧縮しないと進まないので、待ちが無ければサイズに関わらず始める
+                        long bytes = Files.isRegularFile(source.path()) ? Files.size(source.path()) : 0;
+                        if (!pending.isEmpty() && inFlight + bytes > maxBytesInFlight) {
+                            break;
+                        }
+                        inFlight += bytes;
+                        pending.add(new Pending(source, executor.submit(
+                                () -> EntryCompressor.compress(source.path(), source.name(), level)), -1, null, bytes));
+                    }
+                    next++;
+                }
+
+                Pending head = pending.poll();
+                inFlight -= head.bytes();
+                if (head.previous() >= 0 && sameContent(head)) {
+                    previous.copyRawTo(head.previous(), writer);
+                } else if (head.future() != null) {
+                    writer.writeEntry(head.future().get());
+                } else if (isChunked(head.source())) {
+                    chunked.compress(head.source().path(), head.source().name(), writer);
+                } else {
+                    // 日時とサイズは同じだが内容が変わっていた
+                    writer.writeEntry(EntryCompressor.compress(head.source().path(), head.source().name(), level));
+                }
+            }
+        } catch (ExecutionException e) {
+            cancel(pending);
+            if (e.getCause() instanceof OsmZipIOException) {
+                throw (OsmZipIOException) e.getCause();
+            }
+            throw new OsmZipIOException("圧縮に失敗。", e.getCause());
+        } catch (InterruptedException e) {
+            cancel(pending);
+            Thread.currentThread().interrupt();
+            throw new OsmZipIOException("圧縮が中断された。", e);
+        } catch (IOException e) {
+            cancel(pending);
+            throw e;
+        }
+    }
+
+    /**
+     * 前回のZIPファイルに、名前・サイズ・更新日時が同じエントリがあるかを調べる
+     *
+     * @param source ソース
+     * @return 前回のZIPファイルのエントリ番号。無いか、使い回せない場合は -1
+     * @throws IOException ファイルの属性が読めない場合
+     */
+    private int unchanged(Source source) throws IOException {
+        if (previous == null) {
+            return -1;
+        }
+        int index = previous.indexOf(source.name());
+        if (index < 0) {
+            return -1;
+        }
+
+        CentralDirectory directory = previous.getCentralDirectory();
+        BasicFileAttributes attrs = Files.readAttributes(source.path(), BasicFileAttributes.class);
+        if (!attrs.isRegularFile() || (directory.getOptionFlag(index) & 0000001) != 0) {
+            // ディレクトリは圧縮しないので使い回す意味が無い。暗号化されたエントリは使わない
+            return -1;
+        }
+        CentralDictionaryHeader cdh = EntryCompressor.header(source.name(), attrs);
+        if (directory.getUncompressedSize(index) != attrs.size()
+                || directory.getLastModTime(index) != cdh.getLastModTime()
+                || directory.getLastModDate(index) != cdh.getLastModDate()) {
+            return -1;
+        }
+        return index;
+    }
+
+    /**
+     * 前回のZIPファイルからコピーする候補の内容が同じかを確かめる。CRC-32 を比べない場合は確かめない
+     *
+     * @param pending 書き込み待ちのエントリ
+     * @return 同じなら true
+     * @throws ExecutionException CRC-32 の計算に失敗した場合
+     * @throws InterruptedException CRC-32 の計算を待つ間に割り込まれた場合
+     */
+    private boolean sameContent(Pending pending) throws ExecutionException, InterruptedException {
+        return pending.crc() == null || pending.crc().get() == previous.getCentralDirectory().getCrc32(pending.previous());
+    }
+
+    /**
+     * ファイルの CRC-32 を計算する
+     *
+     * @param path ファイル
+     * @return CRC-32
+     * @throws IOException ファイルが読めない場合
+     */
+    private static long crc32(Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16);
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (in.read(buf.clear()) >= 0) {
+                crc.update(buf.flip());
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * ブロックに分けて圧縮するかどうか
+     *
+     * @param source ソース
+     * @return ブロックに分けるなら true
+     * @throws IOException ファイルの属性が読めない場合
+     */
+    private boolean isChunked(Source source) throws IOException {
+        if (!Files.isRegularFile(source.path())) {
+            return false;
+        }
+        long size = Files.size(source.path());
+        return size > chunkThreshold || size > MAX_IN_MEMORY;
+    }
+
+    /**
+     * 書き込みを中止する。中止での失敗は元の例外に付け加える
+     *
+     * @param writer 中止する ZipWriter
+     * @param cause 中止の原因の例外
+     */
+    static void abort(ZipWriter writer, Exception cause) {
+        try {
+            writer.abort();
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    private static void cancel(Deque<Pending> pending) {
+        for (Pending p : pending) {
+            if (p.future() != null) {
+                p.future().cancel(true);
+            }
+            if (p.crc() != null) {
+                p.crc().cancel(true);
+            }
+        }
+    }
+}
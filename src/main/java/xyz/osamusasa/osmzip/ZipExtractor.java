@@ -0,0 +1,270 @@
+package xyz.osamusasa.osmzip;
+
+import xyz.osamusasa.osmzip.io.CentralDirectory;
+import xyz.osamusasa.osmzip.io.OsmZipIOException;
+import xyz.osamusasa.osmzip.util.Crc32Combiner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * ZIPファイルの全エントリを並列に展開するクラス
+ *
+ * エントリごとに1つのタスクを作り、各タスクが自分のエントリを読み込み・展開し・書き込む。
+ * 読み込みは位置指定で行うので、タスク間でファイルポインタを共有しない。
+ *
+ * 無圧縮のエントリは {@link ZipFile#transferTo} でヒープを経由せずに書き込む(検証しない場合はカーネル内でコピーする)。
+ * 大きな無圧縮のエントリは範囲に分け、範囲ごとのタスクで書き込む。
+ * その場合の CRC-32 は範囲ごとに計算し、全範囲が終わってから {@link Crc32Combiner} で合成して検証する。
+ */
+class ZipExtractor {
+
+    /**
+     * 1エントリの展開に使うバッファの最大サイズ
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * 無圧縮のエントリを分けて読み込むときの1範囲の大きさ [byte]。これの2倍より大きいエントリを分ける
+     */
+    static final long RANGE_SIZE = 8L << 20;
+
+    /**
+     * 範囲に分けて展開するエントリと、範囲ごとの CRC-32
+     */
+    private record Ranges(int index, List<Future<Long>> crcs) {
+    }
+
+    private final ZipFile zip;
+    private final Path targetDir;
+
+    /**
+     * @param zip 展開するZIPファイル
+     * @param targetDir 展開先のディレクトリ
+     */
+    ZipExtractor(ZipFile zip, Path targetDir) {
+        this.zip = zip;
+        this.targetDir = targetDir.toAbsolutePath().normalize();
+    }
+
+    /**
+     * 全エントリを展開する
+     *
+     * @param executor タスクを実行する ExecutorService
+     * @throws OsmZipIOException 展開に失敗したエントリがある場合
+     */
+    void extractAll(ExecutorService executor) throws OsmZipIOException {
+        List<Future<?>> futures = new ArrayList<>(zip.lengthOfLocalFileHeader());
+        List<Ranges> ranged = new ArrayList<>();
+
+        try {
+            Files.createDirectories(targetDir);
+            for (int i = 0; i < zip.lengthOfLocalFileHeader(); i++) {
+                int index = i;
+                if (isRanged(index)) {
+                    Ranges ranges = submitRanges(index, executor);
+                    ranged.add(ranges);
+                    futures.addAll(ranges.crcs());
+                    continue;
+                }
+                futures.add(executor.submit(() -> {
+                    extract(index);
+                    return null;
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            if (zip.isVerifyChecksums()) {
+                for (Ranges ranges : ranged) {
+                    verify(ranges);
+                }
+            }
+        } catch (OsmZipIOException e) {
+            futures.forEach((f) -> f.cancel(true));
+            throw e;
+        } catch (IOException e) {
+            throw new OsmZipIOException("展開先のディレクトリが作れない。：" + targetDir, e);
+        } catch (ExecutionException e) {
+            futures.forEach((f) -> f.cancel(true));
+            if (e.getCause() instanceof OsmZipIOException) {
+                throw (OsmZipIOException) e.getCause();
+            }
+            throw new OsmZipIOException("展開に失敗。", e.getCause());
+        } catch (InterruptedException e) {
+            futures.forEach((f) -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new OsmZipIOException("展開が中断された。", e);
+        }
+    }
+
+    /**
+     * 1つのエントリを展開する
+     *
+     * @param index エントリの番号
+     * @throws OsmZipIOException 展開に失敗した場合
+     */
+    void extract(int index) throws OsmZipIOException {
+        CentralDirectory directory = zip.getCentralDirectory();
+        String name = directory.getFileName(index);
+        Path target = resolve(name);
+
+        try {
+            if (directory.isDirectory(index)) {
+                Files.createDirectories(target);
+                return;
+            }
+            Files.createDirectories(target.getParent());
+
+            if (directory.getCompressionMethod(index) == 0) {
+                // 無圧縮ならヒープを経由せずに転送する
+                try (FileChannel out = FileChannel.open(target,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    zip.transferTo(index, out);
+                }
+                return;
+            }
+
+            ByteBuffer buf = ByteBuffer.allocate((int) Math.max(1, Math.min(BUFFER_SIZE, directory.getUncompressedSize(index))));
+            try (ReadableByteChannel in = zip.openChannel(index);
+                 FileChannel out = FileChannel.open(target,
+                         StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (in.read(buf) >= 0) {
+                    buf.flip();
+                    while (buf.hasRemaining()) {
+                        out.write(buf);
+                    }
+                    buf.clear();
+                }
+            }
+        } catch (OsmZipIOException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new OsmZipIOException("展開に失敗。：" + name, e);
+        }
+    }
+
+    /**
+     * 範囲に分けて展開するかどうか
+     *
+     * @param index エントリの番号
+     * @return 範囲に分けるなら true
+     */
+    private boolean isRanged(int index) {
+        CentralDirectory directory = zip.getCentralDirectory();
+        return directory.getCompressionMethod(index) == 0
+                && !directory.isDirectory(index)
+                && directory.getCompressedSize(index) > RANGE_SIZE * 2;
+    }
+
+    /**
+     * 展開先のファイルを作り、範囲ごとのタスクを登録する
+     *
+     * @param index エントリの番号
+     * @param executor タスクを実行する ExecutorService
+     * @return 範囲ごとの CRC-32 を返すタスク
+     * @throws OsmZipIOException 展開先のファイルが作れない場合
+     */
+    private Ranges submitRanges(int index, ExecutorService executor) throws OsmZipIOException {
+        CentralDirectory directory = zip.getCentralDirectory();
+        String name = directory.getFileName(index);
+        Path target = resolve(name);
+        long size = directory.getCompressedSize(index);
+
+        try {
+            Files.createDirectories(target.getParent());
+            // 空のファイルを作っておき、各範囲のタスクが位置指定で書き込む
+            FileChannel.open(target,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE).close();
+        } catch (IOException e) {
+            throw new OsmZipIOException("展開に失敗。：" + name, e);
+        }
+
+        List<Future<Long>> crcs = new ArrayList<>();
+        for (long offset = 0; offset < size; offset += RANGE_SIZE) {
+            long position = offset;
+            long length = Math.min(RANGE_SIZE, size - offset);
+            crcs.add(executor.submit(() -> extractRange(index, target, position, length)));
+        }
+        return new Ranges(index, crcs);
+    }
+
+    /**
+     * 無圧縮のエントリの1範囲を展開先のファイルの同じ位置に書き込む。
+     * 検証しない場合はカーネル内で転送する。検証する場合はダイレクトバッファを経由して、書き込みながら CRC-32 を計算する。
+     *
+     * @param index エントリの番号
+     * @param target 展開先のファイル
+     * @param offset File data の先頭からの範囲の開始位置
+     * @param length 範囲の長さ
+     * @return 範囲の CRC-32。検証しない場合は 0
+     * @throws OsmZipIOException 展開に失敗した場合
+     */
+    private long extractRange(int index, Path target, long offset, long length) throws OsmZipIOException {
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE)) {
+            if (zip.isVerifyChecksums()) {
+                return zip.transferRawCheckedTo(index, offset, length, out.position(offset));
+            }
+            zip.transferRawTo(index, offset, length, out.position(offset));
+            return 0;
+        } catch (OsmZipIOException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new OsmZipIOException("展開に失敗。：" + zip.getCentralDirectory().getFileName(index), e);
+        }
+    }
+
+    /**
+     * 範囲ごとの CRC-32 を合成して CDH の値と比べる
+     *
+     * @param ranges 展開し終えた範囲
+     * @throws OsmZipIOException 値が違う場合
+     */
+    private void verify(Ranges ranges) throws OsmZipIOException, ExecutionException, InterruptedException {
+        CentralDirectory directory = zip.getCentralDirectory();
+        int index = ranges.index();
+        long size = directory.getCompressedSize(index);
+
+        long crc32 = 0;
+        long offset = 0;
+        for (Future<Long> crc : ranges.crcs()) {
+            long length = Math.min(RANGE_SIZE, size - offset);
+            crc32 = Crc32Combiner.combine(crc32, crc.get(), length);
+            offset += length;
+        }
+
+        if (size != directory.getUncompressedSize(index) || crc32 != directory.getCrc32(index)) {
+            throw new OsmZipIOException("CRC-32 かサイズが CDH と違う。：" + directory.getFileName(index));
+        }
+    }
+
+    /**
+     * エントリ名から展開先のパスを求める。展開先のディレクトリの外を指すエントリは拒否する。
+     *
+     * @param name エントリ名
+     * @return 展開先のパス
+     * @throws OsmZipIOException 展開先のディレクトリの外を指す場合
+     */
+    private Path resolve(String name) throws OsmZipIOException {
+        if (name == null || name.isEmpty()) {
+            throw new OsmZipIOException("ファイル名が無いエントリは展開できない。");
+        }
+
+        Path target = targetDir.resolve(name).normalize();
+        if (!target.startsWith(targetDir)) {
+            throw new OsmZipIOException("展開先のディレクトリの外を指すエントリ：" + name);
+        }
+        return target;
+    }
+}
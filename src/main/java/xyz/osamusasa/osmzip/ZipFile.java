@@ -3,65 +3,166 @@ package xyz.osamusasa.osmzip;
 import lombok.ToString;
 import xyz.osamusasa.osmzip.element.CentralDictionaryHeader;
 import xyz.osamusasa.osmzip.element.EndOfCentralDictionary;
-import xyz.osamusasa.osmzip.element.FileData;
-import xyz.osamusasa.osmzip.element.LocalFileHeader;
+import xyz.osamusasa.osmzip.io.CentralDirectory;
+import xyz.osamusasa.osmzip.io.NameIndex;
 import xyz.osamusasa.osmzip.io.OsmZipIOException;
+import xyz.osamusasa.osmzip.io.SeekIndex;
 import xyz.osamusasa.osmzip.io.ZipReader;
+import xyz.osamusasa.osmzip.io.ZipWriter;
+import xyz.osamusasa.osmzip.monitor.ArchiveOpenEvent;
+import xyz.osamusasa.osmzip.monitor.CentralDirectoryParseEvent;
+import xyz.osamusasa.osmzip.monitor.EntryOpenEvent;
+import xyz.osamusasa.osmzip.monitor.InflateEvent;
+import xyz.osamusasa.osmzip.monitor.ZipMetrics;
 import xyz.osamusasa.osmzip.util.LocalFileHeaderAccessor;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.AsynchronousByteChannel;
+import java.nio.channels.Channels;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.CRC32;
 
 /**
  * Zipファイルを表すクラス
+ *
+ * 開いている間は Central directory だけをメモリに保持し、
+ * Local file header と File data は要求されたときに読み込む。
+ * Central directory はエントリごとのオブジェクトを作らない {@link CentralDirectory} で保持する。
  */
 @ToString
-public class ZipFile {
+public class ZipFile implements Closeable {
 
     private EndOfCentralDictionary eocd;
-    private List<CentralDictionaryHeader> cdhs;
-    private List<LocalFileHeader> lfhs;
-    private List<FileData> fds;
+    private CentralDirectory directory;
+    /**
+     * File data の開始位置。0 ならまだ Local file header を読んでいない
+     */
+    @ToString.Exclude
+    private AtomicLongArray dataOffsets;
+    @ToString.Exclude
+    private NameIndex names;
+    @ToString.Exclude
+    private ZipReader reader;
+    /**
+     * 読み込んだ File data の CRC-32 とサイズを CDH と比べるかどうか
+     */
+    private volatile boolean verifyChecksums = true;
+    /**
+     * {@link ZipFileCache} から借りたハンドルの場合、閉じるときに呼ぶ処理。借りたハンドルでなければ null。
+     * 借りたハンドルはファイルを閉じない
+     */
+    @ToString.Exclude
+    private Runnable release;
+    @ToString.Exclude
+    private final AtomicBoolean closed = new AtomicBoolean();
+    @ToString.Exclude
+    private Identity identity;
+    @ToString.Exclude
+    private volatile EntryContentCache contentCache;
+    /**
+     * DEFLATE で圧縮されたエントリの索引。エントリの番号がキー
+     */
+    @ToString.Exclude
+    private Map<Integer, SeekIndex> seekIndexes = new ConcurrentHashMap<>();
+    /**
+     * 非同期の読み込みを行う Executor と、要求をまとめるリーダー。リーダーは最初の要求で作る
+     */
+    @ToString.Exclude
+    private volatile Executor asyncExecutor;
+    @ToString.Exclude
+    private AsyncEntryReader asyncReader;
+
+    /**
+     * Identifies the ZIP file on disk, so that caches can tell a rewritten file apart.
+     *
+     * @param path the absolute path
+     * @param size the file size when it was opened
+     * @param lastModified the modification time when it was opened
+     */
+    record Identity(Path path, long size, long lastModified) {
+    }
 
     public static ZipFile read(File file) throws OsmZipIOException {
+        return read(file, ZipReader.Backend.RANDOM_ACCESS_FILE);
+    }
+
+    /**
+     * Reads the ZIP file with the specified reader backend.
+     *
+     * @param file the ZIP file
+     * @param backend how the reader accesses the file
+     * @return the ZipFile
+     * @throws OsmZipIOException if the file cannot be read as a ZIP file
+     */
+    public static ZipFile read(File file, ZipReader.Backend backend) throws OsmZipIOException {
         ZipFile zipFile = new ZipFile();
         ZipReader reader = null;
+        ArchiveOpenEvent event = new ArchiveOpenEvent();
+        event.begin();
+        long start = ZipMetrics.DEFAULT.isEnabled() ? System.nanoTime() : 0;
 
         try {
-            reader = new ZipReader(file);
+            reader = new ZipReader(file, backend);
 
             zipFile.eocd = reader.getEocd();
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (OsmZipIOException e) {
-            e.printStackTrace();
-        }
+            CentralDirectoryParseEvent parse = new CentralDirectoryParseEvent();
+            parse.begin();
+            zipFile.directory = reader.getCentralDirectory(zipFile.eocd);
+            parse.end();
+            if (parse.shouldCommit()) {
+                parse.path = file.getPath();
+                parse.entries = zipFile.directory.size();
+                parse.bytes = zipFile.eocd.getSizeOfTotalCD();
+                parse.commit();
+            }
 
-        if (reader == null || zipFile.eocd == null) {
-            throw new OsmZipIOException("failed to read End Of Central Directory");
-        }
-
-        zipFile.cdhs = new ArrayList<>();
+            if (zipFile.directory.size() == 0 && zipFile.eocd.getTotalNumberOfCD() != 0) {
+                throw new OsmZipIOException("failed to read Central Directory Header");
+            }
 
-        zipFile.cdhs.add(reader.getCDH(zipFile.eocd.getOffsetFirstCD()));
-
-        if (zipFile.cdhs.size() == 0) {
-            throw new OsmZipIOException("failed to read Central Directory Header");
+            zipFile.names = new NameIndex(zipFile.directory);
+            zipFile.dataOffsets = new AtomicLongArray(zipFile.directory.size());
+            zipFile.reader = reader;
+            zipFile.identity = new Identity(file.toPath().toAbsolutePath().normalize(), file.length(), file.lastModified());
+        } catch (IOException e) {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            if (e instanceof OsmZipIOException) {
+                throw (OsmZipIOException) e;
+            }
+            throw new OsmZipIOException("failed to open the ZIP file", e);
         }
 
-        zipFile.lfhs = new ArrayList<>();
-        zipFile.fds = new ArrayList<>();
-
-        for (CentralDictionaryHeader cdh: zipFile.cdhs) {
-            LocalFileHeader lfh = reader.getLFH(cdh.getOffsetRelativeLH());
-            zipFile.lfhs.add(lfh);
-            zipFile.fds.add(reader.getFileData(cdh.getOffsetRelativeLH(), lfh));
+        if (start != 0) {
+            ZipMetrics.DEFAULT.recordArchiveOpen(System.nanoTime() - start);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = file.getPath();
+            event.size = zipFile.identity.size();
+            event.entries = zipFile.directory.size();
+            event.backend = backend.name();
+            event.commit();
         }
-
-zipFile.fds.forEach((fd)->System.out.println(new String(fd.getData())));
-
         return zipFile;
     }
 
@@ -139,14 +240,39 @@ zipFile.fds.forEach((fd)->System.out.println(new String(fd.getData())));
 
     /**
      * Retrieves the LocalFileHeaderAccessor object for the file at the specified index.
+     * The accessor is a view over the central directory, so the Local File Header is not read.
      * TODO: FileDescription(FileMetaData)　みたいな形で、公開できるクラスでさらにラップして返したい。
      *       デフォルト値とかも設定できるような感じで
      *
      * @param index the index of the file in the ZipFile
      * @return the LocalFileHeaderAccessor object for the file
      */
-    public LocalFileHeaderAccessor getFile(int index) {
-        return new LocalFileHeaderAccessor(lfhs.get(index));
+    public LocalFileHeaderAccessor getFile(int index) throws OsmZipIOException {
+        return new LocalFileHeaderAccessor(directory, index);
+    }
+
+    /**
+     * Looks up the file with the specified name.
+     * The lookup uses a hash index built while the central directory was read,
+     * so it takes constant time regardless of the number of files.
+     *
+     * @param name the name of the file in the ZipFile
+     * @return the LocalFileHeaderAccessor object for the file, or null if there is no such file
+     * @throws OsmZipIOException if the Local File Header cannot be read
+     */
+    public LocalFileHeaderAccessor getEntry(String name) throws OsmZipIOException {
+        int index = indexOf(name);
+        return index < 0 ? null : getFile(index);
+    }
+
+    /**
+     * Looks up the index of the file with the specified name.
+     *
+     * @param name the name of the file in the ZipFile
+     * @return the index of the file, or -1 if there is no such file
+     */
+    public int indexOf(String name) {
+        return names.find(name);
     }
 
     /**
@@ -157,17 +283,503 @@ zipFile.fds.forEach((fd)->System.out.println(new String(fd.getData())));
      * @return The length of the local file header in bytes.
      */
     public int lengthOfLocalFileHeader() {
-        return lfhs.size();
+        return directory.size();
     }
 
     /**
      * Retrieves the content of a file as a string.
-     * TODO: 圧縮してあるパターンとか、文字コードとかいろんなパターンに対応が必要
+     * TODO: 文字コードとかいろんなパターンに対応が必要
      *
      * @param index the index of the file in the ZipFile
      * @return the content of the file as a string
+     * @throws OsmZipIOException if the file data cannot be read
+     */
+    public String getFileContentAsString(int index) throws OsmZipIOException {
+        try (InputStream in = getInputStream(index)) {
+            return new String(in.readAllBytes());
+        } catch (OsmZipIOException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new OsmZipIOException("failed to read the file data: " + index, e);
+        }
+    }
+
+    /**
+     * Opens the data of the file at the specified index as a stream.
+     * The data is read from the ZIP file on demand and is not kept in memory.
+     * Deflated data is inflated while it is read.
+     *
+     * @param index the index of the file in the ZipFile
+     * @return the stream of the file data
+     * @throws OsmZipIOException if the Local File Header cannot be read
+     *                           or the compression method is not supported
+     */
+    public InputStream getInputStream(int index) throws OsmZipIOException {
+        return Channels.newInputStream(openChannel(index));
+    }
+
+    /**
+     * Opens the data of the file at the specified index as a channel.
+     * The data is read from the ZIP file on demand and is not kept in memory.
+     * Deflated data is inflated while it is read.
+     * Unless checksum verification is turned off, the CRC-32 is computed in the same pass
+     * and the read that reaches the end of the data fails if it does not match the central directory.
+     *
+     * @param index the index of the file in the ZipFile
+     * @return the channel of the file data
+     * @throws OsmZipIOException if the Local File Header cannot be read
+     *                           or the compression method is not supported
      */
-    public String getFileContentAsString(int index) {
-        return new String(fds.get(index).getData());
+    public ReadableByteChannel openChannel(int index) throws OsmZipIOException {
+        EntryOpenEvent event = new EntryOpenEvent();
+        event.begin();
+        long start = ZipMetrics.DEFAULT.isEnabled() ? System.nanoTime() : 0;
+
+        EntryContentCache cache = contentCache;
+        boolean cached = cache != null && cache.accepts(directory.getUncompressedSize(index));
+        ReadableByteChannel channel = cached ? cache.openChannel(this, index) : openUncachedChannel(index);
+
+        if (start != 0) {
+            ZipMetrics.DEFAULT.recordEntryOpen(System.nanoTime() - start);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = identity == null ? null : identity.path().toString();
+            event.entry = directory.getFileName(index);
+            event.compressionMethod = directory.getCompressionMethod(index);
+            event.compressedSize = directory.getCompressedSize(index);
+            event.uncompressedSize = directory.getUncompressedSize(index);
+            event.cached = cached;
+            event.commit();
+        }
+        return channel;
+    }
+
+    /**
+     * Opens the data of the file at the specified index as a channel, bypassing the content cache.
+     *
+     * @param index the index of the file in the ZipFile
+     * @return the channel of the file data
+     * @throws OsmZipIOException if the Local File Header cannot be read
+     *                           or the compression method is not supported
+     */
+    ReadableByteChannel openUncachedChannel(int index) throws OsmZipIOException {
+        // the name is only decoded when the inflate event is being recorded
+        String name = InflateEvent.recording() ? directory.getFileName(index) : null;
+        if (!verifyChecksums) {
+            return reader.openChannel(
+                    getFileDataOffset(index),
+                    directory.getCompressedSize(index),
+                    directory.getCompressionMethod(index),
+                    name);
+        }
+        return reader.openChannel(
+                getFileDataOffset(index),
+                directory.getCompressedSize(index),
+                directory.getCompressionMethod(index),
+                directory.getCrc32(index),
+                directory.getUncompressedSize(index),
+                name);
+    }
+
+    /**
+     * Sets the cache that keeps the inflated data of small, frequently read files.
+     * The same cache can be shared by several ZipFiles.
+     *
+     * @param contentCache the cache, or null to read every file from the ZIP file
+     */
+    public void setContentCache(EntryContentCache contentCache) {
+        this.contentCache = contentCache;
+    }
+
+    /**
+     * Returns the cache that keeps the inflated data of small, frequently read files.
+     *
+     * @return the cache, or null if not set
+     */
+    public EntryContentCache getContentCache() {
+        return contentCache;
+    }
+
+    /**
+     * Returns the identity of the ZIP file on disk.
+     *
+     * @return the identity
+     */
+    Identity identity() {
+        return identity;
+    }
+
+    /**
+     * Returns whether the CRC-32 and size of the file data are verified while it is read.
+     *
+     * @return true if verified (the default)
+     */
+    public boolean isVerifyChecksums() {
+        return verifyChecksums;
+    }
+
+    /**
+     * Sets whether the CRC-32 and size of the file data are verified while it is read.
+     * Turning it off saves the checksum computation for trusted archives.
+     * Channels that are already open are not affected.
+     *
+     * @param verifyChecksums false to skip verification
+     */
+    public void setVerifyChecksums(boolean verifyChecksums) {
+        this.verifyChecksums = verifyChecksums;
+    }
+
+    /**
+     * Opens the data of the file at the specified index as a channel that can be read from any position.
+     * Deflated data is inflated from the nearest checkpoint of a seek index, so reading at any position
+     * inflates at most about the span of the index.
+     * If the file has no seek index yet, one is built with {@link SeekIndex#DEFAULT_SPAN}, which reads the whole file once.
+     * The CRC-32 is verified while the index is built, not while the channel is read.
+     *
+     * @param index the index of the file in the ZipFile
+     * @return the seekable channel of the file data
+     * @throws OsmZipIOException if the Local File Header cannot be read, the compression method is not supported
+     *                           or the seek index cannot be built
+     */
+    public SeekableByteChannel openSeekableChannel(int index) throws OsmZipIOException {
+        SeekIndex seekIndex = null;
+        if (directory.getCompressionMethod(index) == 8) {
+            seekIndex = seekIndexes.get(index);
+            if (seekIndex == null) {
+                seekIndex = buildSeekIndex(index, SeekIndex.DEFAULT_SPAN);
+            }
+        }
+        return reader.openSeekableChannel(
+                getFileDataOffset(index),
+                directory.getCompressedSize(index),
+                directory.getCompressionMethod(index),
+                seekIndex);
+    }
+
+    /**
+     * Builds a seek index for the deflated file at the specified index by inflating it once,
+     * and keeps it for {@link #openSeekableChannel(int)}.
+     *
+     * @param index the index of the file in the ZipFile
+     * @param span the distance between checkpoints in the inflated data
+     * @return the seek index, which can be saved with {@link SeekIndex#writeTo}
+     * @throws OsmZipIOException if the file is not deflated, the data is corrupt,
+     *                           or the CRC-32 does not match while checksum verification is on
+     */
+    public SeekIndex buildSeekIndex(int index, long span) throws OsmZipIOException {
+        if (directory.getCompressionMethod(index) != 8) {
+            throw new OsmZipIOException("seek index is only for deflated files: " + directory.getFileName(index));
+        }
+        SeekIndex seekIndex = reader.buildSeekIndex(getFileDataOffset(index), directory.getCompressedSize(index), span);
+        if (verifyChecksums && (seekIndex.getCrc32() != directory.getCrc32(index)
+                || seekIndex.getUncompressedSize() != directory.getUncompressedSize(index))) {
+            throw new OsmZipIOException("CRC-32 or size does not match: " + directory.getFileName(index));
+        }
+        seekIndexes.put(index, seekIndex);
+        return seekIndex;
+    }
+
+    /**
+     * Sets a seek index that was built before and loaded with {@link SeekIndex#readFrom}.
+     *
+     * @param index the index of the file in the ZipFile
+     * @param seekIndex the seek index
+     * @throws OsmZipIOException if the seek index was not built for this file
+     */
+    public void setSeekIndex(int index, SeekIndex seekIndex) throws OsmZipIOException {
+        if (seekIndex.getCompressedSize() != directory.getCompressedSize(index)
+                || seekIndex.getUncompressedSize() != directory.getUncompressedSize(index)
+                || seekIndex.getCrc32() != directory.getCrc32(index)) {
+            throw new OsmZipIOException("seek index does not belong to the file: " + directory.getFileName(index));
+        }
+        seekIndexes.put(index, seekIndex);
+    }
+
+    /**
+     * Retrieves the seek index of the file at the specified index.
+     *
+     * @param index the index of the file in the ZipFile
+     * @return the seek index, or null if it has not been built or set
+     */
+    public SeekIndex getSeekIndex(int index) {
+        return seekIndexes.get(index);
+    }
+
+    /**
+     * Writes the data of the file at the specified index to the target channel.
+     * When checksum verification is off, stored files are copied straight from the ZIP file with
+     * {@link java.nio.channels.FileChannel#transferTo}, so when the target is a file or a socket the data is copied
+     * inside the kernel and never enters the heap. When it is on, stored files are read once through a direct buffer
+     * that also feeds the CRC-32, and a mismatch is reported after the data has been written, as with
+     * {@link #openChannel(int)}. Deflated files are inflated and written through a buffer.
+     *
+     * @param index the index of the file in the ZipFile
+     * @param target the channel to write to, in blocking mode
+     * @return the number of bytes written
+     * @throws OsmZipIOException if the file data cannot be read or written, or the CRC-32 does not match
+     */
+    public long transferTo(int index, WritableByteChannel target) throws OsmZipIOException {
+        if (directory.getCompressionMethod(index) != 0) {
+            return copy(index, target);
+        }
+
+        long position = getFileDataOffset(index);
+        long size = directory.getCompressedSize(index);
+        if (!verifyChecksums) {
+            return reader.transferTo(position, size, target);
+        }
+
+        CRC32 crc = new CRC32();
+        long written = reader.transferTo(position, size, target, crc);
+        if (size != directory.getUncompressedSize(index) || crc.getValue() != directory.getCrc32(index)) {
+            throw new OsmZipIOException("CRC-32 or size does not match: " + directory.getFileName(index));
+        }
+        return written;
+    }
+
+    /**
+     * Returns a read-only buffer over the data of the stored file at the specified index.
+     * The buffer is a mapping of the ZIP file, so the data is not copied.
+     * Each call creates a new mapping, which is released only when the buffer is garbage collected.
+     * The CRC-32 is not verified.
+     *
+     * @param index the index of the file in the ZipFile
+     * @return the read-only buffer of the file data
+     * @throws OsmZipIOException if the file is not stored, is 2GB or larger, or the Local File Header cannot be read
+     */
+    public ByteBuffer mapData(int index) throws OsmZipIOException {
+        if (directory.getCompressionMethod(index) != 0) {
+            throw new OsmZipIOException("only stored files can be mapped: " + directory.getFileName(index));
+        }
+        return reader.map(getFileDataOffset(index), directory.getCompressedSize(index));
+    }
+
+    /**
+     * Reads and inflates the file with the specified name without blocking the calling thread.
+     *
+     * @param name the name of the file in the ZipFile
+     * @return the future of the inflated data, failed with OsmZipIOException if there is no such file
+     * @see #readEntryAsync(int)
+     */
+    public CompletableFuture<ByteBuffer> readEntryAsync(String name) {
+        int index = indexOf(name);
+        if (index < 0) {
+            return CompletableFuture.failedFuture(new OsmZipIOException("no such file: " + name));
+        }
+        return readEntryAsync(index);
+    }
+
+    /**
+     * Reads and inflates the file at the specified index without blocking the calling thread.
+     * The request is queued and served on the I/O executor together with the other pending requests;
+     * files that lie close to each other in the ZIP file are read with a single read.
+     * The future is completed on an I/O thread, so use the async variants of CompletableFuture
+     * to continue on another thread. The CRC-32 is verified unless checksum verification is turned off.
+     *
+     * @param index the index of the file in the ZipFile
+     * @return the future of the inflated data
+     */
+    public CompletableFuture<ByteBuffer> readEntryAsync(int index) {
+        if (index < 0 || index >= directory.size()) {
+            return CompletableFuture.failedFuture(new IndexOutOfBoundsException(index));
+        }
+        return asyncReader().read(index);
+    }
+
+    /**
+     * Opens the data of the file at the specified index as an asynchronous channel.
+     * Opening the file and every read are done on the I/O executor.
+     *
+     * @param index the index of the file in the ZipFile
+     * @return the channel of the file data
+     */
+    public AsynchronousByteChannel openAsyncChannel(int index) {
+        Objects.checkIndex(index, directory.size());
+        return new AsyncEntryChannel(this, index, asyncExecutor());
+    }
+
+    /**
+     * Sets the executor that performs the reads of the asynchronous API.
+     * By default a shared, fixed-size pool of daemon threads is used.
+     *
+     * @param executor the executor, or null to use the default pool
+     */
+    public synchronized void setAsyncExecutor(Executor executor) {
+        this.asyncExecutor = executor;
+        this.asyncReader = null;
+    }
+
+    private Executor asyncExecutor() {
+        Executor executor = asyncExecutor;
+        return executor == null ? AsyncEntryReader.defaultExecutor() : executor;
+    }
+
+    private synchronized AsyncEntryReader asyncReader() {
+        if (asyncReader == null) {
+            asyncReader = new AsyncEntryReader(this, asyncExecutor());
+        }
+        return asyncReader;
+    }
+
+    /**
+     * Reads a range of the ZIP file at once.
+     *
+     * @param position the offset of the range
+     * @param length the length of the range
+     * @return the content of the range
+     * @throws OsmZipIOException if the range cannot be read
+     */
+    ByteBuffer readRaw(long position, int length) throws OsmZipIOException {
+        return reader.read(position, length);
+    }
+
+    /**
+     * @return the size of the ZIP file
+     * @throws OsmZipIOException if the size cannot be read
+     */
+    long rawSize() throws OsmZipIOException {
+        return reader.size();
+    }
+
+    /**
+     * Writes a range of the raw (not inflated) file data at the specified index to the target channel
+     * without copying it through the heap.
+     *
+     * @param index the index of the file in the ZipFile
+     * @param offset the offset from the start of the file data
+     * @param length the length of the range
+     * @param target the channel to write to
+     * @throws OsmZipIOException if the range cannot be read or written
+     */
+    void transferRawTo(int index, long offset, long length, WritableByteChannel target) throws OsmZipIOException {
+        reader.transferTo(getFileDataOffset(index) + offset, length, target);
+    }
+
+    /**
+     * Writes a range of the raw file data at the specified index to the target channel
+     * and computes its CRC-32 in the same pass.
+     *
+     * @param index the index of the file in the ZipFile
+     * @param offset the offset from the start of the file data
+     * @param length the length of the range
+     * @param target the channel to write to
+     * @return the CRC-32 of the range
+     * @throws OsmZipIOException if the range cannot be read or written
+     */
+    long transferRawCheckedTo(int index, long offset, long length, WritableByteChannel target) throws OsmZipIOException {
+        CRC32 crc = new CRC32();
+        reader.transferTo(getFileDataOffset(index) + offset, length, target, crc);
+        return crc.getValue();
+    }
+
+    /**
+     * Copies the entry at the specified index to the writer as-is, without inflating or deflating it.
+     *
+     * @param index the index of the file in the ZipFile
+     * @param writer the writer of the new archive
+     * @throws OsmZipIOException if the entry cannot be read or written
+     */
+    void copyRawTo(int index, ZipWriter writer) throws OsmZipIOException {
+        writer.copyEntry(reader, directory, index, getFileDataOffset(index));
+    }
+
+    private long copy(int index, WritableByteChannel target) throws OsmZipIOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.max(1, Math.min(1 << 16, directory.getUncompressedSize(index))));
+        long written = 0;
+        try (ReadableByteChannel in = openChannel(index)) {
+            while (in.read(buf) >= 0) {
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    written += target.write(buf);
+                }
+                buf.clear();
+            }
+        } catch (OsmZipIOException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new OsmZipIOException("failed to write the file data: " + directory.getFileName(index), e);
+        }
+        return written;
+    }
+
+    /**
+     * Retrieves the Central Directory Header of the file at the specified index.
+     * A new object is created on each call.
+     *
+     * @param index the index of the file in the ZipFile
+     * @return the Central Directory Header
+     */
+    CentralDictionaryHeader getCentralDictionaryHeader(int index) {
+        return directory.get(index);
+    }
+
+    /**
+     * Retrieves the central directory of the ZipFile.
+     *
+     * @return the central directory
+     */
+    CentralDirectory getCentralDirectory() {
+        return directory;
+    }
+
+    /**
+     * Closes the underlying ZIP file.
+     * Streams and channels opened from this ZipFile cannot be read after closing.
+     * A handle created by {@link ZipFileCache} only returns itself to the cache and never closes the file.
+     * Closing more than once has no effect.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (release != null) {
+            release.run();
+            return;
+        }
+        reader.close();
+    }
+
+    /**
+     * Creates a handle that shares the parsed central directory and the open file with this ZipFile.
+     * Closing the handle runs the given action instead of closing the file.
+     *
+     * @param release the action to run when the handle is closed
+     * @return the handle
+     */
+    ZipFile share(Runnable release) {
+        ZipFile handle = new ZipFile();
+        handle.eocd = eocd;
+        handle.directory = directory;
+        handle.dataOffsets = dataOffsets;
+        handle.names = names;
+        handle.reader = reader;
+        handle.identity = identity;
+        handle.seekIndexes = seekIndexes;
+        handle.asyncExecutor = asyncExecutor;
+        handle.release = release;
+        return handle;
+    }
+
+    /**
+     * Retrieves the offset of the file data at the specified index,
+     * reading the Local File Header from the ZIP file on first access.
+     *
+     * @param index the index of the file in the ZipFile
+     * @return the offset of the file data from the start of the ZIP file
+     * @throws OsmZipIOException if the Local File Header cannot be read
+     */
+    private long getFileDataOffset(int index) throws OsmZipIOException {
+        // handles created by share() use the same array. The LFH is read without a lock:
+        // threads that miss at the same time read the same value, so the last store wins harmlessly
+        long offset = dataOffsets.get(index);
+        if (offset == 0) {
+            offset = reader.getFileDataOffset(directory.getOffsetRelativeLH(index));
+            dataOffsets.set(index, offset);
+        }
+        return offset;
     }
 }
@@ -0,0 +1,251 @@
+package xyz.osamusasa.osmzip;
+
+import xyz.osamusasa.osmzip.io.OsmZipIOException;
+import xyz.osamusasa.osmzip.io.ZipReader;
+import xyz.osamusasa.osmzip.monitor.ZipMetrics;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * 開いたZIPファイルを使い回すキャッシュ
+ *
+ * 同じZIPファイルを何度も開く場合に、ファイルを開いて Central directory を解析する処理を1回で済ませる。
+ * キーはファイルの絶対パス・サイズ・更新日時で、ファイルが書き換えられていれば開き直す。
+ *
+ * {@link #open(File)} が返す ZipFile は、Central directory と読み込み用のファイルを同じZIPファイルの他のハンドルと共有する。
+ * ハンドルを close() してもファイルは閉じず、キャッシュに返すだけ。
+ * 開いているファイルの数は上限までで、超えそうなときは使われていないものを古い順(LRU)に閉じる。
+ * 全て使用中で閉じられない場合は {@link OsmZipIOException} を投げる。
+ *
+ * <pre>
+ * try (ZipFile zip = cache.open(file)) {
+ *     ...
+ * }
+ * </pre>
+ */
+public class ZipFileCache implements Closeable {
+
+    private final int maxOpenFiles;
+    private final ZipReader.Backend backend;
+
+    /**
+     * パスごとのエントリ。アクセス順に並ぶので、先頭が最も長く使われていない
+     */
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * 開いているファイルの数。キャッシュから外れたがまだ使用中のものと、開いている途中のものを含む
+     */
+    private int openFiles;
+    private boolean closed;
+
+    /**
+     * 開いたZIPファイルとその参照数
+     */
+    private static final class Entry {
+        private final long size;
+        private final FileTime lastModified;
+        private final ZipFile zip;
+        private int references;
+
+        /**
+         * キャッシュから外れたかどうか。外れたエントリは参照が無くなったときに閉じる
+         */
+        private boolean retired;
+
+        Entry(BasicFileAttributes attributes, ZipFile zip) {
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime();
+            this.zip = zip;
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size() && lastModified.equals(attributes.lastModifiedTime());
+        }
+    }
+
+    /**
+     * @param maxOpenFiles 同時に開いておくファイルの最大数
+     */
+    public ZipFileCache(int maxOpenFiles) {
+        this(maxOpenFiles, ZipReader.Backend.RANDOM_ACCESS_FILE);
+    }
+
+    /**
+     * @param maxOpenFiles 同時に開いておくファイルの最大数
+     * @param backend ZIPファイルを読み込む方法
+     */
+    public ZipFileCache(int maxOpenFiles, ZipReader.Backend backend) {
+        if (maxOpenFiles < 1) {
+            throw new IllegalArgumentException("maxOpenFiles は1以上：" + maxOpenFiles);
+        }
+        this.maxOpenFiles = maxOpenFiles;
+        this.backend = backend;
+    }
+
+    /**
+     * ZIPファイルを開く。キャッシュにあって書き換えられていなければ、それを共有するハンドルを返す。
+     * 使い終わったら返したハンドルを close() すること。
+     *
+     * @param file ZIPファイル
+     * @return ZipFile のハンドル
+     * @throws OsmZipIOException ZIPファイルとして読めない場合か、開いているファイルが上限に達している場合
+     */
+    public ZipFile open(File file) throws OsmZipIOException {
+        Path path = file.toPath().toAbsolutePath().normalize();
+        BasicFileAttributes attributes = attributes(path);
+
+        synchronized (this) {
+            checkOpen();
+            Entry entry = entries.get(path);
+            boolean hit = entry != null && entry.matches(attributes);
+            if (ZipMetrics.DEFAULT.isEnabled()) {
+                ZipMetrics.DEFAULT.recordArchiveCache(hit);
+            }
+            if (hit) {
+                return acquire(entry);
+            }
+            reserve();
+            openFiles++;
+        }
+
+        // 解析には時間がかかるので、ロックの外で行う
+        ZipFile zip;
+        try {
+            zip = ZipFile.read(path.toFile(), backend);
+        } catch (OsmZipIOException e) {
+            synchronized (this) {
+                openFiles--;
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            Entry current = entries.get(path);
+            if (closed || (current != null && current.matches(attributes))) {
+                // 閉じられたか、他のスレッドが先に開いた
+                openFiles--;
+                closeQuietly(zip);
+                checkOpen();
+                return acquire(current);
+            }
+            if (current != null) {
+                entries.remove(path);
+                retire(current);
+            }
+            Entry entry = new Entry(attributes, zip);
+            entries.put(path, entry);
+            return acquire(entry);
+        }
+    }
+
+    /**
+     * キャッシュにあるZIPファイルの数を返す
+     *
+     * @return ZIPファイルの数
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * 開いているファイルの数を返す。キャッシュから外れたがまだ使用中のものを含む
+     *
+     * @return ファイルの数
+     */
+    public synchronized int openFiles() {
+        return openFiles;
+    }
+
+    /**
+     * キャッシュを空にする。使用中のZIPファイルは、全てのハンドルが閉じられたときに閉じる
+     */
+    public synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            retire(entry);
+        }
+        entries.clear();
+    }
+
+    /**
+     * キャッシュを閉じる。以降は開けない
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        clear();
+    }
+
+    private ZipFile acquire(Entry entry) {
+        entry.references++;
+        return entry.zip.share(() -> release(entry));
+    }
+
+    private synchronized void release(Entry entry) {
+        entry.references--;
+        if (entry.references == 0 && entry.retired) {
+            closeEntry(entry);
+        }
+    }
+
+    /**
+     * 新しくファイルを開けるように、使われていないZIPファイルを古い順に閉じる
+     *
+     * @throws OsmZipIOException 全て使用中で上限を超える場合
+     */
+    private void reserve() throws OsmZipIOException {
+        Iterator<Entry> it = entries.values().iterator();
+        while (openFiles >= maxOpenFiles && it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.references == 0) {
+                it.remove();
+                retire(entry);
+            }
+        }
+        if (openFiles >= maxOpenFiles) {
+            throw new OsmZipIOException("開いているZIPファイルが上限に達している。：" + maxOpenFiles);
+        }
+    }
+
+    private void retire(Entry entry) {
+        entry.retired = true;
+        if (entry.references == 0) {
+            closeEntry(entry);
+        }
+    }
+
+    private void closeEntry(Entry entry) {
+        openFiles--;
+        closeQuietly(entry.zip);
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("閉じている");
+        }
+    }
+
+    private static BasicFileAttributes attributes(Path path) throws OsmZipIOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            throw new OsmZipIOException("ZIPファイルの属性が読めない。：" + path, e);
+        }
+    }
+
+    private static void closeQuietly(ZipFile zip) {
+        try {
+            zip.close();
+        } catch (IOException e) {
+            // 読み込み専用のファイルなので、閉じるときの失敗は無視する
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package xyz.osamusasa.osmzip;
+
+import xyz.osamusasa.osmzip.io.CentralDirectory;
+import xyz.osamusasa.osmzip.io.OsmZipIOException;
+import xyz.osamusasa.osmzip.io.ZipReader;
+import xyz.osamusasa.osmzip.io.ZipWriter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * ZIPファイルのエントリを、展開も再圧縮もせずに新しいZIPファイルにまとめるクラス
+ *
+ * 複数のZIPファイルの結合や、名前によるエントリの絞り込みに使う。
+ * 各エントリは LFH と圧縮データをそのまま転送し({@link ZipWriter#copyEntry})、Central directory だけを作り直す。
+ * CRC-32 とサイズは元の CDH の値を使うので、読み込み・書き込みの速度だけで終わる。
+ *
+ * 同じ名前のエントリが複数ある場合は1つだけを残す。複数のZIPファイルにあれば後に指定したZIPファイルのもの、
+ * 1つのZIPファイルに複数あれば Central directory で後にあるものを残す。
+ */
+class ZipRepacker {
+
+    private final Predicate<String> filter;
+
+    /**
+     * @param filter 残すエントリの名前を選ぶ条件
+     */
+    ZipRepacker(Predicate<String> filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * ZIPファイルのエントリを、指定した順に新しいZIPファイルに書き込む
+     *
+     * @param archives 元のZIPファイル
+     * @param target 作成するZIPファイル。元のZIPファイルと同じであってはならない
+     * @throws OsmZipIOException 読み込みか書き込みに失敗した場合
+     */
+    void repack(List<Path> archives, Path target) throws OsmZipIOException {
+        Path normalized = target.toAbsolutePath().normalize();
+        for (Path archive : archives) {
+            if (archive.toAbsolutePath().normalize().equals(normalized)) {
+                throw new IllegalArgumentException("元のZIPファイルには書き込めない：" + target);
+            }
+        }
+
+        // Central directory は1回だけ読み、保持しておく。開いたままにしないよう、ZIPファイルは1つずつ開く
+        List<CentralDirectory> directories = new ArrayList<>(archives.size());
+        for (Path archive : archives) {
+            try (ZipReader reader = new ZipReader(archive.toFile())) {
+                directories.add(reader.getCentralDirectory(reader.getEocd()));
+            } catch (OsmZipIOException e) {
+                throw e;
+            } catch (IOException e) {
+                throw new OsmZipIOException("ZIPファイルが読めない。：" + archive, e);
+            }
+        }
+
+        // 名前ごとに、残すエントリ(ZIPファイルの番号 << 32 | エントリ番号)。後にあるものほど優先する
+        Map<String, Long> owners = new HashMap<>();
+        for (int z = 0; z < directories.size(); z++) {
+            CentralDirectory directory = directories.get(z);
+            for (int i = 0; i < directory.size(); i++) {
+                String name = name(directory, i);
+                if (filter.test(name)) {
+                    owners.put(name, (long) z << 32 | i);
+                }
+            }
+        }
+        List<BitSet> selected = new ArrayList<>(directories.size());
+        for (CentralDirectory directory : directories) {
+            selected.add(new BitSet(directory.size()));
+        }
+        for (long owner : owners.values()) {
+            selected.get((int) (owner >>> 32)).set((int) owner);
+        }
+
+        try (ZipWriter writer = new ZipWriter(target.toFile())) {
+            for (int z = 0; z < archives.size(); z++) {
+                CentralDirectory directory = directories.get(z);
+                BitSet entries = selected.get(z);
+                if (entries.isEmpty()) {
+                    continue;
+                }
+                try (ZipReader reader = new ZipReader(archives.get(z).toFile())) {
+                    for (int i = entries.nextSetBit(0); i >= 0; i = entries.nextSetBit(i + 1)) {
+                        long dataOffset = reader.getFileDataOffset(directory.getOffsetRelativeLH(i));
+                        writer.copyEntry(reader, directory, i, dataOffset);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    ZipCompressor.abort(writer, e);
+                    throw e;
+                }
+            }
+        } catch (OsmZipIOException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new OsmZipIOException("ZIPファイルの書き込みに失敗。：" + target, e);
+        }
+    }
+
+    private static String name(CentralDirectory directory, int i) {
+        String name = directory.getFileName(i);
+        return name == null ? "" : name;
+    }
+}
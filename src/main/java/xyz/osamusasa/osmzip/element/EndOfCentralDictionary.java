@@ -85,4 +85,19 @@ public class EndOfCentralDictionary {
      *  文字列？ (安全性は保証されない)
      */
     private String zipComment;
+
+    /**
+     * .ZIP file comment の生のバイト列。書き直すときは文字コードに関わらずこれをそのまま使う
+     *
+     *  null (.ZIP file comment を使用しない)
+     */
+    private byte[] zipCommentBytes;
+
+    /**
+     * ZIP64 end of central directory record
+     *
+     *  null (ZIP64形式ではない)
+     *  ※ZIP64形式の場合、$FFFF や $FFFFFFFF のフィールドはこのレコードの値で置き換えてある
+     */
+    private Zip64EndOfCentralDictionary zip64;
 }
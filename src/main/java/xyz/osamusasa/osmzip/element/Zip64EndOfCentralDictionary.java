@@ -0,0 +1,70 @@
+package xyz.osamusasa.osmzip.element;
+
+import lombok.Data;
+
+/**
+ * ZIP64形式のZIPファイルにだけ存在し、End of central directory record に収まらない値を格納します。
+ * End of central directory record の直前にある ZIP64 end of central directory locator が、
+ * このレコードの位置を示します。
+ */
+@Data
+public class Zip64EndOfCentralDictionary {
+
+    /**
+     * ZIP64 end of central directory record であることを示す固定値
+     *
+     *  signature = $06064B50 = $50, $4B, $06, $06
+     */
+    private int signature;
+
+    /**
+     * このレコードのサイズ(signature とこのフィールドを除く)
+     *
+     *  44 [byte] + 拡張データのサイズ
+     */
+    private long sizeOfRecord;
+
+    /**
+     * ZIPファイル製作を行ったOSとアプリの情報
+     *
+     *  上位バイト: OSの種類、下位バイト: アプリがサポートするZIPのバージョン
+     */
+    private int versionMadeBy;
+
+    /**
+     * 展開に必要なZIPのバージョン
+     *
+     *  45 (ver.4.5) ⇒ZIP64
+     */
+    private int needVersion;
+
+    /**
+     * このディスク(ZIP64 end of central directory record の有る)の番号
+     */
+    private long numberOfDisk;
+
+    /**
+     * 最初の Central directory header が有るディスクの番号
+     */
+    private long numberOfDiskFirstCD;
+
+    /**
+     * 同じディスクから取得できる Central directory header の数
+     */
+    private long totalNumberOfCDOnDisk;
+
+    /**
+     * ZIPファイルに格納してある Central directory header の総数
+     */
+    private long totalNumberOfCD;
+
+    /**
+     * 全ての Central directory header サイズの合計値
+     */
+    private long sizeOfTotalCD;
+
+    /**
+     * 最初の Central directory header までのオフセット
+     */
+    private long offsetFirstCD;
+}
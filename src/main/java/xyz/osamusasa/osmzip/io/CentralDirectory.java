@@ -0,0 +1,449 @@
+package xyz.osamusasa.osmzip.io;
+
+import xyz.osamusasa.osmzip.element.CentralDictionaryHeader;
+import xyz.osamusasa.osmzip.element.LocalFileHeader;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.StringJoiner;
+
+import static xyz.osamusasa.osmzip.io.HeaderCodec.u16;
+import static xyz.osamusasa.osmzip.io.HeaderCodec.u32;
+
+/**
+ * Central directory をエントリごとのオブジェクトを作らずに保持するクラス
+ *
+ * CDH の固定長部分はフィールドごとのプリミティブ配列に、
+ * ファイル名・extra field・コメントは1つのバイト配列にまとめて格納する。
+ * 文字列や配列は要求されたときに作る。
+ * ZIP64 の場合、サイズとオフセットは ZIP64 extended information extra field の値で置き換えて格納する。
+ *
+ * 各フィールドの意味は {@link CentralDictionaryHeader} と同じで、引数はエントリ番号。
+ */
+public class CentralDirectory {
+
+    private int size;
+
+    private short[] versionMadeBy;
+    private short[] needVersion;
+    private short[] optionFlag;
+    private short[] compressionMethod;
+    private short[] lastModTime;
+    private short[] lastModDate;
+    private int[] crc32;
+    private long[] compressedSize;
+    private long[] uncompressedSize;
+    private int[] diskNumberStart;
+    private short[] internalFileAttr;
+    private int[] externalFileAttr;
+    private long[] offsetRelativeLH;
+
+    /**
+     * 可変長部分(ファイル名、extra field、コメントの順)
+     */
+    private byte[] pool;
+    private int poolLength;
+    private int[] variableStart;
+    private short[] lengthFileName;
+    private short[] lengthExtraField;
+    private short[] lengthFileComment;
+
+    /**
+     * ファイル名の生のバイト列のハッシュ値({@link NameIndex} 用)。読み込むときに計算しておく
+     */
+    private int[] nameHash;
+
+    /**
+     * @param expected 格納するエントリ数の見込み
+     * @param expectedVariableSize 可変長部分の合計サイズの見込み
+     */
+    public CentralDirectory(int expected, long expectedVariableSize) {
+        int capacity = Math.max(1, expected);
+        versionMadeBy = new short[capacity];
+        needVersion = new short[capacity];
+        optionFlag = new short[capacity];
+        compressionMethod = new short[capacity];
+        lastModTime = new short[capacity];
+        lastModDate = new short[capacity];
+        crc32 = new int[capacity];
+        compressedSize = new long[capacity];
+        uncompressedSize = new long[capacity];
+        diskNumberStart = new int[capacity];
+        internalFileAttr = new short[capacity];
+        externalFileAttr = new int[capacity];
+        offsetRelativeLH = new long[capacity];
+        variableStart = new int[capacity];
+        lengthFileName = new short[capacity];
+        lengthExtraField = new short[capacity];
+        lengthFileComment = new short[capacity];
+        nameHash = new int[capacity];
+        pool = new byte[(int) Math.max(16, Math.min(expectedVariableSize, Integer.MAX_VALUE - 8))];
+    }
+
+    /**
+     * LFH 1つだけを格納した Central directory を作る
+     *
+     * @param lfh LFH
+     * @return Central directory
+     */
+    public static CentralDirectory of(LocalFileHeader lfh) {
+        CentralDictionaryHeader cdh = new CentralDictionaryHeader();
+        cdh.setNeedVersion(lfh.getNeedVersion());
+        cdh.setOptionFlag(lfh.getOptionFlag());
+        cdh.setCompressionMethod(lfh.getCompressionMethod());
+        cdh.setLastModTime(lfh.getLastModTime());
+        cdh.setLastModDate(lfh.getLastModDate());
+        cdh.setCrc32(lfh.getCrc32());
+        cdh.setCompressedSize(lfh.getCompressedSize());
+        cdh.setUncompressedSize(lfh.getUncompressedSize());
+
+        byte[] name = lfh.getFileName() == null ? new byte[0] : lfh.getFileName().getBytes(
+                (lfh.getOptionFlag() & 0004000) != 0 ? StandardCharsets.UTF_8 : Charset.defaultCharset());
+        byte[] extra = lfh.getExtraField() == null ? new byte[0] : ExtraFields.remove(lfh.getExtraField(), ExtraFields.ZIP64);
+        byte[] comment = new byte[0];
+
+        // ZIP64 の値は CDH の extra field として書き、読み込むときに配列へ反映させる
+        ByteBuffer buf = ByteBuffer.allocate(HeaderCodec.cdhLength(cdh, name, extra, comment))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        HeaderCodec.putCDH(buf, cdh, name, extra, comment);
+
+        CentralDirectory dir = new CentralDirectory(1, buf.capacity());
+        try {
+            dir.add(buf, 0, 0);
+        } catch (OsmZipIOException e) {
+            throw new IllegalStateException(e);
+        }
+        return dir;
+    }
+
+    /**
+     * バッファ上の CDH を読み込んで追加する
+     *
+     * @param buf バッファ
+     * @param index CDHの開始位置
+     * @param offset CDHのファイル先頭からのオフセット(エラーメッセージ用)
+     * @throws OsmZipIOException Zip Format Error
+     */
+    void add(ByteBuffer buf, int index, long offset) throws OsmZipIOException {
+        if (buf.getInt(index) != HeaderCodec.CDH_SIGNATURE) {
+            throw new OsmZipIOException("CDHが開始するオフセットではない。：" + offset);
+        }
+
+        int nameLength = u16(buf, index + 28);
+        int extraLength = u16(buf, index + 30);
+        int commentLength = u16(buf, index + 32);
+        int variableLength = nameLength + extraLength + commentLength;
+
+        if (size == variableStart.length) {
+            grow(size * 2);
+        }
+        if ((long) poolLength + variableLength > Integer.MAX_VALUE - 8) {
+            throw new OsmZipIOException("Central directory が大きすぎる。：" + offset);
+        }
+        if (poolLength + variableLength > pool.length) {
+            pool = Arrays.copyOf(pool, (int) Math.min(Integer.MAX_VALUE - 8,
+                    Math.max((long) pool.length * 2, poolLength + variableLength)));
+        }
+
+        int i = size;
+        versionMadeBy[i] = buf.getShort(index + 4);
+        needVersion[i] = buf.getShort(index + 6);
+        optionFlag[i] = buf.getShort(index + 8);
+        compressionMethod[i] = buf.getShort(index + 10);
+        lastModTime[i] = buf.getShort(index + 12);
+        lastModDate[i] = buf.getShort(index + 14);
+        crc32[i] = buf.getInt(index + 16);
+        compressedSize[i] = u32(buf, index + 20);
+        uncompressedSize[i] = u32(buf, index + 24);
+        lengthFileName[i] = (short) nameLength;
+        lengthExtraField[i] = (short) extraLength;
+        lengthFileComment[i] = (short) commentLength;
+        diskNumberStart[i] = u16(buf, index + 34);
+        internalFileAttr[i] = buf.getShort(index + 36);
+        externalFileAttr[i] = buf.getInt(index + 38);
+        offsetRelativeLH[i] = u32(buf, index + 42);
+
+        variableStart[i] = poolLength;
+        buf.get(index + CentralDirectoryScanner.FIXED_SIZE, pool, poolLength, variableLength);
+        nameHash[i] = NameIndex.hash(pool, poolLength, nameLength);
+        poolLength += variableLength;
+
+        applyZip64(i, buf, index + CentralDirectoryScanner.FIXED_SIZE + nameLength, extraLength, offset);
+        size++;
+    }
+
+    /**
+     * ZIP64 extended information extra field の値を反映する。
+     * extra field には、$FFFFFFFF(または $FFFF)になっているフィールドの値だけがこの順に並ぶ。
+     * extra field は読み込み元のバッファから直接読み、コピーしない。
+     */
+    private void applyZip64(int i, ByteBuffer buf, int extraIndex, int extraLength, long offset)
+            throws OsmZipIOException {
+        boolean uncompressed = uncompressedSize[i] == 0xffffffffL;
+        boolean compressed = compressedSize[i] == 0xffffffffL;
+        boolean lh = offsetRelativeLH[i] == 0xffffffffL;
+        boolean disk = diskNumberStart[i] == 0xffff;
+        if (!uncompressed && !compressed && !lh && !disk) {
+            return;
+        }
+
+        int zip64 = HeaderCodec.findExtra(buf, extraIndex, extraLength, ExtraFields.ZIP64);
+        if (zip64 < 0) {
+            throw new OsmZipIOException("ZIP64 extended information extra field が無い。：" + offset);
+        }
+
+        int need = (uncompressed ? 8 : 0) + (compressed ? 8 : 0) + (lh ? 8 : 0) + (disk ? 4 : 0);
+        if (u16(buf, zip64 - 2) < need) {
+            throw new OsmZipIOException("ZIP64 extended information extra field が短い。：" + offset);
+        }
+
+        int j = zip64;
+        if (uncompressed) { uncompressedSize[i] = buf.getLong(j); j += 8; }
+        if (compressed) { compressedSize[i] = buf.getLong(j); j += 8; }
+        if (lh) { offsetRelativeLH[i] = buf.getLong(j); j += 8; }
+        if (disk) diskNumberStart[i] = buf.getInt(j);
+    }
+
+    private void grow(int capacity) {
+        versionMadeBy = Arrays.copyOf(versionMadeBy, capacity);
+        needVersion = Arrays.copyOf(needVersion, capacity);
+        optionFlag = Arrays.copyOf(optionFlag, capacity);
+        compressionMethod = Arrays.copyOf(compressionMethod, capacity);
+        lastModTime = Arrays.copyOf(lastModTime, capacity);
+        lastModDate = Arrays.copyOf(lastModDate, capacity);
+        crc32 = Arrays.copyOf(crc32, capacity);
+        compressedSize = Arrays.copyOf(compressedSize, capacity);
+        uncompressedSize = Arrays.copyOf(uncompressedSize, capacity);
+        diskNumberStart = Arrays.copyOf(diskNumberStart, capacity);
+        internalFileAttr = Arrays.copyOf(internalFileAttr, capacity);
+        externalFileAttr = Arrays.copyOf(externalFileAttr, capacity);
+        offsetRelativeLH = Arrays.copyOf(offsetRelativeLH, capacity);
+        variableStart = Arrays.copyOf(variableStart, capacity);
+        lengthFileName = Arrays.copyOf(lengthFileName, capacity);
+        lengthExtraField = Arrays.copyOf(lengthExtraField, capacity);
+        lengthFileComment = Arrays.copyOf(lengthFileComment, capacity);
+        nameHash = Arrays.copyOf(nameHash, capacity);
+    }
+
+    /**
+     * 格納しているエントリ数を返す
+     *
+     * @return エントリ数
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getMajorVersion(int i) {
+        return versionMadeBy[i] & 0xff;
+    }
+
+    public int getMinerVersion(int i) {
+        return (versionMadeBy[i] >> 8) & 0xff;
+    }
+
+    public int getNeedVersion(int i) {
+        return needVersion[i] & 0xffff;
+    }
+
+    public int getOptionFlag(int i) {
+        return optionFlag[i] & 0xffff;
+    }
+
+    public int getCompressionMethod(int i) {
+        return compressionMethod[i] & 0xffff;
+    }
+
+    public int getLastModTime(int i) {
+        return lastModTime[i] & 0xffff;
+    }
+
+    public int getLastModDate(int i) {
+        return lastModDate[i] & 0xffff;
+    }
+
+    public long getCrc32(int i) {
+        return crc32[i] & 0xffffffffL;
+    }
+
+    public long getCompressedSize(int i) {
+        return compressedSize[i];
+    }
+
+    public long getUncompressedSize(int i) {
+        return uncompressedSize[i];
+    }
+
+    public int getDiskNumberStart(int i) {
+        return diskNumberStart[i];
+    }
+
+    public int getInternalFileAttr(int i) {
+        return internalFileAttr[i] & 0xffff;
+    }
+
+    public long getExternalFileAttr(int i) {
+        return externalFileAttr[i] & 0xffffffffL;
+    }
+
+    public long getOffsetRelativeLH(int i) {
+        return offsetRelativeLH[i];
+    }
+
+    public int getLengthFileName(int i) {
+        return lengthFileName[i] & 0xffff;
+    }
+
+    public int getLengthExtraField(int i) {
+        return lengthExtraField[i] & 0xffff;
+    }
+
+    public int getLengthFileComment(int i) {
+        return lengthFileComment[i] & 0xffff;
+    }
+
+    /**
+     * ファイル名を返す。オプションフラグで UTF-8 が指定されていれば UTF-8 として扱う。
+     *
+     * @param i エントリ番号
+     * @return ファイル名。無ければ null
+     */
+    public String getFileName(int i) {
+        return string(variableStart[i], getLengthFileName(i), getOptionFlag(i));
+    }
+
+    /**
+     * ファイル名がディレクトリを表す("/" で終わる)かを返す
+     *
+     * @param i エントリ番号
+     * @return ディレクトリなら true
+     */
+    public boolean isDirectory(int i) {
+        int length = getLengthFileName(i);
+        return length > 0 && pool[variableStart[i] + length - 1] == '/';
+    }
+
+    /**
+     * extra field を返す
+     *
+     * @param i エントリ番号
+     * @return extra field のコピー。無ければ null
+     */
+    public byte[] getExtraField(int i) {
+        int length = getLengthExtraField(i);
+        if (length == 0) {
+            return null;
+        }
+        int start = variableStart[i] + getLengthFileName(i);
+        return Arrays.copyOfRange(pool, start, start + length);
+    }
+
+    /**
+     * コメントを返す
+     *
+     * @param i エントリ番号
+     * @return コメント。無ければ null
+     */
+    public String getFileComment(int i) {
+        return string(variableStart[i] + getLengthFileName(i) + getLengthExtraField(i),
+                getLengthFileComment(i), getOptionFlag(i));
+    }
+
+    /**
+     * ファイル名の生のバイト列を返す
+     *
+     * @param i エントリ番号
+     * @return ファイル名のバイト列のコピー
+     */
+    byte[] fileNameBytes(int i) {
+        int start = variableStart[i];
+        return Arrays.copyOfRange(pool, start, start + getLengthFileName(i));
+    }
+
+    /**
+     * コメントの生のバイト列を返す
+     *
+     * @param i エントリ番号
+     * @return コメントのバイト列のコピー
+     */
+    byte[] fileCommentBytes(int i) {
+        int start = variableStart[i] + getLengthFileName(i) + getLengthExtraField(i);
+        return Arrays.copyOfRange(pool, start, start + getLengthFileComment(i));
+    }
+
+    /**
+     * ファイル名の生のバイト列が等しいかを返す
+     *
+     * @param i エントリ番号
+     * @param name 比較するバイト列
+     * @return 等しければ true
+     */
+    boolean nameEquals(int i, byte[] name) {
+        int start = variableStart[i];
+        return getLengthFileName(i) == name.length
+                && Arrays.equals(pool, start, start + name.length, name, 0, name.length);
+    }
+
+    /**
+     * ファイル名の生のバイト列のハッシュ値を返す
+     *
+     * @param i エントリ番号
+     * @return ハッシュ値
+     */
+    int nameHash(int i) {
+        return nameHash[i];
+    }
+
+    /**
+     * エントリを CDH として取り出す。呼び出すたびに新しいオブジェクトを作る。
+     *
+     * @param i エントリ番号
+     * @return CDH
+     */
+    public CentralDictionaryHeader get(int i) {
+        CentralDictionaryHeader cdh = new CentralDictionaryHeader();
+        cdh.setSignature(HeaderCodec.CDH_SIGNATURE);
+        cdh.setMajorVersion((short) getMajorVersion(i));
+        cdh.setMinerVersion((short) getMinerVersion(i));
+        cdh.setNeedVersion(getNeedVersion(i));
+        cdh.setOptionFlag(getOptionFlag(i));
+        cdh.setCompressionMethod(getCompressionMethod(i));
+        cdh.setLastModTime(getLastModTime(i));
+        cdh.setLastModDate(getLastModDate(i));
+        cdh.setCrc32(getCrc32(i));
+        cdh.setCompressedSize(getCompressedSize(i));
+        cdh.setUncompressedSize(getUncompressedSize(i));
+        cdh.setLengthFileName(getLengthFileName(i));
+        cdh.setLengthExtraField(getLengthExtraField(i));
+        cdh.setLengthFileComment(getLengthFileComment(i));
+        cdh.setDiskNumberStart(getDiskNumberStart(i));
+        cdh.setInternalFileAttr(getInternalFileAttr(i));
+        cdh.setExternalFileAttr(getExternalFileAttr(i));
+        cdh.setOffsetRelativeLH(getOffsetRelativeLH(i));
+        cdh.setFileName(getFileName(i));
+        cdh.setExtraField(getExtraField(i));
+        cdh.setFileComment(getFileComment(i));
+        return cdh;
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner joiner = new StringJoiner(", ", "CentralDirectory(", ")");
+        for (int i = 0; i < size; i++) {
+            joiner.add(get(i).toString());
+        }
+        return joiner.toString();
+    }
+
+    private String string(int start, int length, int optionFlag) {
+        if (length == 0) {
+            return null;
+        }
+        return (optionFlag & 0004000) != 0
+                ? new String(pool, start, length, StandardCharsets.UTF_8)
+                : new String(pool, start, length);
+    }
+}
@@ -0,0 +1,231 @@
+package xyz.osamusasa.osmzip.io;
+
+import xyz.osamusasa.osmzip.element.CentralDictionaryHeader;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static xyz.osamusasa.osmzip.io.HeaderCodec.u16;
+import static xyz.osamusasa.osmzip.io.HeaderCodec.u32;
+
+/**
+ * 一括で読み込んだ Central directory を先頭から順にたどるクラス
+ *
+ * Central directory 全体を1回の読み込みでバッファにし、CDHを1つずつ取り出す。
+ * CDHごとの seek や read は発生しない。
+ * Central directory が {@link #MAX_WINDOW} より大きい場合だけ、その大きさごとに分けて読み込む。
+ */
+class CentralDirectoryScanner {
+
+    /**
+     * CDHの固定長部分のサイズ
+     */
+    static final int FIXED_SIZE = HeaderCodec.CDH_SIZE;
+
+    /**
+     * 1回に読み込む最大サイズ
+     */
+    static final int MAX_WINDOW = 1 << 30;
+
+    private final ZipSource source;
+    private final long end;
+    private final long total;
+    private ByteBuffer buf;
+    private long bufOffset;
+    private int position;
+    private long count;
+
+    /**
+     * @param source 読み込み元
+     * @param offset Central directory のオフセット
+     * @param size Central directory のサイズ
+     * @param total 格納されている CDH の数
+     * @throws IOException I/O Error
+     */
+    CentralDirectoryScanner(ZipSource source, long offset, long size, long total) throws IOException {
+        this.source = source;
+        this.end = offset + size;
+        this.total = total;
+        this.bufOffset = offset;
+        this.buf = source.read(offset, (int) Math.min(size, MAX_WINDOW));
+    }
+
+    /**
+     * まだ読んでいない CDH が残っているかを返す
+     *
+     * @return 残っていれば true
+     */
+    boolean hasNext() {
+        return count < total;
+    }
+
+    /**
+     * 次の CDH を読み込む
+     *
+     * @return CDH
+     * @throws IOException Zip Format Error or I/O Error
+     */
+    CentralDictionaryHeader next() throws IOException {
+        if (!fits(FIXED_SIZE) || !fits(recordLength(buf, position))) {
+            refill();
+        }
+
+        long offset = bufOffset + position;
+        int length = recordLength(buf, position);
+        CentralDictionaryHeader cdh = parse(buf, position, offset);
+        position += length;
+        count++;
+
+        return cdh;
+    }
+
+    /**
+     * 次の CDH を読み込み、CDH のオブジェクトを作らずに Central directory に追加する
+     *
+     * @param directory 追加先
+     * @throws IOException Zip Format Error or I/O Error
+     */
+    void next(CentralDirectory directory) throws IOException {
+        if (!fits(FIXED_SIZE) || !fits(recordLength(buf, position))) {
+            refill();
+        }
+
+        int length = recordLength(buf, position);
+        directory.add(buf, position, bufOffset + position);
+        position += length;
+        count++;
+    }
+
+    private boolean fits(int length) {
+        return position + length <= buf.limit();
+    }
+
+    /**
+     * 現在の CDH から始まるようにバッファを読み直す
+     *
+     * @throws IOException Zip Format Error or I/O Error
+     */
+    private void refill() throws IOException {
+        long offset = bufOffset + position;
+        long remaining = end - offset;
+        if (remaining < FIXED_SIZE) {
+            throw new OsmZipIOException("Central directory が途中で終わっている。：" + offset);
+        }
+
+        bufOffset = offset;
+        buf = source.read(offset, (int) Math.min(remaining, MAX_WINDOW));
+        position = 0;
+
+        if (!fits(recordLength(buf, 0))) {
+            throw new OsmZipIOException("Central directory が途中で終わっている。：" + offset);
+        }
+    }
+
+    /**
+     * 可変長部分を含めた CDH の長さを返す
+     *
+     * @param buf バッファ
+     * @param index CDHの開始位置
+     * @return CDH の長さ [byte]
+     */
+    static int recordLength(ByteBuffer buf, int index) {
+        return HeaderCodec.cdhLength(buf, index);
+    }
+
+    /**
+     * バッファ上の CDH を読み込む。
+     * ZIP64 の場合は $FFFFFFFF 等のフィールドを ZIP64 extended information extra field の値で置き換える。
+     *
+     * @param buf バッファ
+     * @param index CDHの開始位置
+     * @param offset CDHのファイル先頭からのオフセット(エラーメッセージ用)
+     * @return CDH
+     * @throws OsmZipIOException Zip Format Error
+     */
+    static CentralDictionaryHeader parse(ByteBuffer buf, int index, long offset) throws OsmZipIOException {
+        CentralDictionaryHeader cdh = new CentralDictionaryHeader();
+
+        if (buf.getInt(index) == HeaderCodec.CDH_SIGNATURE) {
+            cdh.setSignature(HeaderCodec.CDH_SIGNATURE);
+        } else {
+            throw new OsmZipIOException("CDHが開始するオフセットではない。：" + offset);
+        }
+
+        cdh.setMajorVersion((short) (buf.get(index + 4) & 0xff));
+        cdh.setMinerVersion((short) (buf.get(index + 5) & 0xff));
+        cdh.setNeedVersion(u16(buf, index + 6));
+        cdh.setOptionFlag(u16(buf, index + 8));
+        cdh.setCompressionMethod(u16(buf, index + 10));
+        cdh.setLastModTime(u16(buf, index + 12));
+        cdh.setLastModDate(u16(buf, index + 14));
+        cdh.setCrc32(u32(buf, index + 16));
+        cdh.setCompressedSize(u32(buf, index + 20));
+        cdh.setUncompressedSize(u32(buf, index + 24));
+        cdh.setLengthFileName(u16(buf, index + 28));
+        cdh.setLengthExtraField(u16(buf, index + 30));
+        cdh.setLengthFileComment(u16(buf, index + 32));
+        cdh.setDiskNumberStart(u16(buf, index + 34));
+        cdh.setInternalFileAttr(u16(buf, index + 36));
+        cdh.setExternalFileAttr(u32(buf, index + 38));
+        cdh.setOffsetRelativeLH(u32(buf, index + 42));
+
+        int i = index + FIXED_SIZE;
+        if (cdh.getLengthFileName()>0)cdh.setFileName(string(buf, i, cdh.getLengthFileName(), cdh.getOptionFlag()));
+        i += cdh.getLengthFileName();
+        if (cdh.getLengthExtraField()>0)cdh.setExtraField(bytes(buf, i, cdh.getLengthExtraField()));
+        i += cdh.getLengthExtraField();
+        if (cdh.getLengthFileComment()>0)cdh.setFileComment(string(buf, i, cdh.getLengthFileComment(), cdh.getOptionFlag()));
+
+        applyZip64(cdh, offset);
+
+        return cdh;
+    }
+
+    /**
+     * ZIP64 extended information extra field の値を反映する。
+     * extra field には、$FFFFFFFF(または $FFFF)になっているフィールドの値だけがこの順に並ぶ。
+     *
+     * @param cdh CDH
+     * @param offset CDHのファイル先頭からのオフセット(エラーメッセージ用)
+     * @throws OsmZipIOException Zip Format Error
+     */
+    private static void applyZip64(CentralDictionaryHeader cdh, long offset) throws OsmZipIOException {
+        boolean uncompressed = cdh.getUncompressedSize() == 0xffffffffL;
+        boolean compressed = cdh.getCompressedSize() == 0xffffffffL;
+        boolean lh = cdh.getOffsetRelativeLH() == 0xffffffffL;
+        boolean disk = cdh.getDiskNumberStart() == 0xffff;
+        if (!uncompressed && !compressed && !lh && !disk) {
+            return;
+        }
+
+        ByteBuffer zip64 = ExtraFields.find(cdh.getExtraField(), ExtraFields.ZIP64);
+        if (zip64 == null) {
+            throw new OsmZipIOException("ZIP64 extended information extra field が無い。：" + offset);
+        }
+
+        try {
+            if (uncompressed) cdh.setUncompressedSize(zip64.getLong());
+            if (compressed) cdh.setCompressedSize(zip64.getLong());
+            if (lh) cdh.setOffsetRelativeLH(zip64.getLong());
+            if (disk) cdh.setDiskNumberStart(zip64.getInt());
+        } catch (BufferUnderflowException e) {
+            throw new OsmZipIOException("ZIP64 extended information extra field が短い。：" + offset);
+        }
+    }
+
+    private static byte[] bytes(ByteBuffer buf, int index, int length) {
+        byte[] dst = new byte[length];
+        buf.get(index, dst);
+        return dst;
+    }
+
+    /**
+     * 文字列を読み込む。オプションフラグで UTF-8 が指定されていれば UTF-8 として扱う。
+     */
+    static String string(ByteBuffer buf, int index, int length, int optionFlag) {
+        byte[] bytes = bytes(buf, index, length);
+        return (optionFlag & 0004000) != 0 ? new String(bytes, StandardCharsets.UTF_8) : new String(bytes);
+    }
+}
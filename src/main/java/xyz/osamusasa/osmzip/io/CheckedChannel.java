@@ -0,0 +1,81 @@
+package xyz.osamusasa.osmzip.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.CRC32;
+
+/**
+ * 読み込んだデータの CRC-32 とサイズを検証するチャネル
+ *
+ * CRC-32 は読み込み先のバッファに書き込まれた直後の範囲について計算するので、データをもう一度読み直すことはない。
+ * 最後まで読んだときに CDH の値と比べ、違えば {@link OsmZipIOException} を投げる。
+ */
+class CheckedChannel implements ReadableByteChannel {
+    private final ReadableByteChannel in;
+    private final CRC32 crc = new CRC32();
+    private final long expectedCrc;
+    private final long expectedSize;
+    private long size;
+    private boolean verified;
+
+    /**
+     * @param in 展開後のデータを読み込むチャネル
+     * @param crc32 期待する CRC-32
+     * @param uncompressedSize 期待するサイズ [byte]
+     */
+    CheckedChannel(ReadableByteChannel in, long crc32, long uncompressedSize) {
+        this.in = in;
+        this.expectedCrc = crc32;
+        this.expectedSize = uncompressedSize;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int start = dst.position();
+        int n = in.read(dst);
+        if (n > 0) {
+            // 今書き込まれた範囲だけを計算する。計算後の position は書き込んだ範囲の終わりになる
+            int limit = dst.limit();
+            dst.limit(dst.position()).position(start);
+            crc.update(dst);
+            dst.limit(limit);
+            size += n;
+            if (size > expectedSize) {
+                throw new OsmZipIOException("展開後のサイズが CDH より大きい。");
+            }
+        } else if (n < 0 && !verified) {
+            verify(crc.getValue(), size, expectedCrc, expectedSize);
+            verified = true;
+        }
+        return n;
+    }
+
+    /**
+     * CRC-32 とサイズが期待する値と同じか確かめる
+     *
+     * @param crc32 計算した CRC-32
+     * @param size 計算したサイズ [byte]
+     * @param expectedCrc 期待する CRC-32
+     * @param expectedSize 期待するサイズ [byte]
+     * @throws OsmZipIOException 違う場合
+     */
+    static void verify(long crc32, long size, long expectedCrc, long expectedSize) throws OsmZipIOException {
+        if (size != expectedSize) {
+            throw new OsmZipIOException("展開後のサイズが違う。：" + size + " (期待値 " + expectedSize + ")");
+        }
+        if (crc32 != expectedCrc) {
+            throw new OsmZipIOException(String.format("CRC-32 が違う。：%08x (期待値 %08x)", crc32, expectedCrc));
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return in.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,220 @@
+package xyz.osamusasa.osmzip.io;
+
+import xyz.osamusasa.osmzip.element.CentralDictionaryHeader;
+import xyz.osamusasa.osmzip.monitor.DeflateEvent;
+import xyz.osamusasa.osmzip.monitor.ZipMetrics;
+import xyz.osamusasa.osmzip.util.Crc32Combiner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 1つの大きなファイルをブロックに分けて並列に圧縮するクラス
+ *
+ * pigz と同じ方式で、各ブロックは直前のブロックの末尾 32KiB を辞書として独立に DEFLATE し、
+ * 最後以外のブロックは SYNC_FLUSH で終える。SYNC_FLUSH の出力はバイト境界で終わるので、
+ * ブロックの出力を順に連結すると1つの正しい DEFLATE ストリームになる。
+ * CRC-32 はブロックごとに計算したものを {@link Crc32Combiner} で合成するので、
+ * ファイルは1回しか読まない。
+ */
+public class ChunkedEntryCompressor {
+
+    /**
+     * DEFLATE の辞書(スライド窓)のサイズ
+     */
+    static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private final int level;
+    private final int blockSize;
+    private final ExecutorService executor;
+    private final int window;
+
+    /**
+     * 圧縮済みのブロック
+     */
+    private record Block(byte[] data, int length, long crc32, int uncompressedSize) {
+    }
+
+    /**
+     * @param level 圧縮レベル
+     * @param blockSize ブロックの大きさ [byte]。辞書のサイズ以上であること
+     * @param executor ブロックの圧縮タスクを実行する ExecutorService
+     * @param window 同時に圧縮中にしておくブロックの最大数
+     */
+    public ChunkedEntryCompressor(int level, int blockSize, ExecutorService executor, int window) {
+        if (blockSize < DICTIONARY_SIZE) {
+            throw new IllegalArgumentException("blockSize: " + blockSize);
+        }
+        this.level = level;
+        this.blockSize = blockSize;
+        this.executor = executor;
+        this.window = Math.max(1, window);
+    }
+
+    /**
+     * ファイルを圧縮してエントリとして書き込む
+     *
+     * @param file 圧縮するファイル
+     * @param name エントリ名
+     * @param writer 書き込み先
+     * @throws OsmZipIOException 読み込みか書き込みに失敗した場合
+     */
+    public void compress(Path file, String name, ZipWriter writer) throws OsmZipIOException {
+        Deque<Future<Block>> pending = new ArrayDeque<>();
+        DeflateEvent event = new DeflateEvent();
+        event.begin();
+
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            CentralDictionaryHeader cdh = EntryCompressor.header(name, attrs);
+            cdh.setNeedVersion(20);
+            cdh.setCompressionMethod(8);
+            // サイズは書き込み後に確定する。ここでは LFH を ZIP64 にするかを決めるため最大値を見積もる
+            cdh.setUncompressedSize(attrs.size());
+            cdh.setCompressedSize(maxCompressedSize(attrs.size()));
+            writer.beginEntry(cdh);
+
+            long crc32 = 0;
+            long compressedSize = 0;
+            long uncompressedSize = 0;
+
+            byte[] previous = null;
+            byte[] block = readBlock(in);
+            while (block != null) {
+                byte[] next = block.length == blockSize ? readBlock(in) : null;
+                if (next != null && next.length == 0) {
+                    next = null;
+                }
+
+                byte[] data = block;
+                byte[] dictionary = previous;
+                boolean last = next == null;
+                pending.add(executor.submit(() -> deflate(data, dictionary, last)));
+
+                previous = block;
+                block = next;
+
+                while (pending.size() >= window || (block == null && !pending.isEmpty())) {
+                    Block deflated = pending.poll().get();
+                    writer.writeData(ByteBuffer.wrap(deflated.data(), 0, deflated.length()));
+                    crc32 = Crc32Combiner.combine(crc32, deflated.crc32(), deflated.uncompressedSize());
+                    compressedSize += deflated.length();
+                    uncompressedSize += deflated.uncompressedSize();
+                }
+            }
+
+            writer.endEntry(crc32, compressedSize, uncompressedSize);
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.entry = name;
+                event.uncompressedBytes = uncompressedSize;
+                event.compressedBytes = compressedSize;
+                event.compressionMethod = 8;
+                event.chunked = true;
+                event.commit();
+            }
+        } catch (ExecutionException e) {
+            pending.forEach((f) -> f.cancel(true));
+            throw new OsmZipIOException("圧縮に失敗。：" + file, e.getCause());
+        } catch (InterruptedException e) {
+            pending.forEach((f) -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new OsmZipIOException("圧縮が中断された。：" + file, e);
+        } catch (OsmZipIOException e) {
+            pending.forEach((f) -> f.cancel(true));
+            throw e;
+        } catch (IOException e) {
+            pending.forEach((f) -> f.cancel(true));
+            throw new OsmZipIOException("圧縮するファイルが読めない。：" + file, e);
+        }
+    }
+
+    /**
+     * 圧縮後のサイズの上限を見積もる。
+     * DEFLATE は圧縮できないデータでも 16KiB ごとに5バイト程度しか増えない。
+     * SYNC_FLUSH はブロックごとにさらに数バイト増える。
+     *
+     * @param size 圧縮前のサイズ
+     * @return 圧縮後のサイズの上限
+     */
+    private long maxCompressedSize(long size) {
+        return size + (size >> 12) + (size / blockSize + 1) * 16 + 64;
+    }
+
+    /**
+     * 1ブロック分を読み込む。ファイルの末尾では短くなる。
+     *
+     * @param in 読み込み元
+     * @return ブロック。ファイルの末尾なら長さ0
+     * @throws IOException I/O Error
+     */
+    private byte[] readBlock(FileChannel in) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(blockSize);
+        while (buf.hasRemaining() && in.read(buf) >= 0) {
+            // 読み込み続ける
+        }
+        return buf.position() == blockSize ? buf.array() : Arrays.copyOf(buf.array(), buf.position());
+    }
+
+    /**
+     * 1ブロックを圧縮する
+     *
+     * @param data ブロック
+     * @param previous 直前のブロック。最初のブロックなら null
+     * @param last 最後のブロックかどうか
+     * @return 圧縮済みのブロック
+     */
+    private Block deflate(byte[] data, byte[] previous, boolean last) {
+        long start = ZipMetrics.DEFAULT.isEnabled() ? System.nanoTime() : 0;
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        Deflater deflater = DeflaterPool.DEFAULT.borrow(level);
+        try {
+            if (previous != null) {
+                int length = Math.min(DICTIONARY_SIZE, previous.length);
+                deflater.setDictionary(previous, previous.length - length, length);
+            }
+            deflater.setInput(data);
+            if (last) {
+                deflater.finish();
+            }
+
+            byte[] out = new byte[Math.max(64, data.length / 2)];
+            int length = 0;
+            while (true) {
+                if (length == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                length += deflater.deflate(out, length, out.length - length,
+                        last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+
+                // SYNC_FLUSH は出力先に空きを残して戻ったら書き出しきっている
+                if (last ? deflater.finished() : length < out.length) {
+                    break;
+                }
+            }
+
+            if (start != 0) {
+                ZipMetrics.DEFAULT.recordDeflate(data.length, length, System.nanoTime() - start);
+            }
+            return new Block(out, length, crc.getValue(), data.length);
+        } finally {
+            DeflaterPool.DEFAULT.release(deflater);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package xyz.osamusasa.osmzip.io;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import xyz.osamusasa.osmzip.element.CentralDictionaryHeader;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 圧縮済みで、ZIPファイルに書き込むだけの状態のエントリ
+ */
+@Getter
+@RequiredArgsConstructor
+public class CompressedEntry {
+
+    /**
+     * エントリの情報。offsetRelativeLH は書き込み時に決まる。
+     */
+    private final CentralDictionaryHeader header;
+
+    /**
+     * 圧縮後の File data
+     */
+    private final ByteBuffer data;
+}
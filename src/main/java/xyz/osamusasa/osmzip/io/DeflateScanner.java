@@ -0,0 +1,355 @@
+package xyz.osamusasa.osmzip.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * DEFLATE の圧縮データを先頭から展開し、{@link SeekIndex} のチェックポイントを記録するクラス
+ *
+ * {@link java.util.zip.Inflater} はブロックの境界やビット単位の位置を教えてくれないので、ここでは自前で展開する。
+ * 展開したデータは直近 32KiB(DEFLATE の参照できる範囲)だけを保持し、CRC-32 を計算して捨てる。
+ *
+ * チェックポイントは、前のチェックポイントから span バイト以上展開した後の、バイト境界から始まるブロックの先頭に置く。
+ * Inflater はバイトの途中から入力を始められないので、バイト境界に無いブロックの先頭は使えない。
+ */
+final class DeflateScanner {
+
+    private static final int WINDOW_SIZE = 1 << 15;
+    private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+
+    /**
+     * 溜まった出力の CRC-32 をまとめて計算する間隔。WINDOW_SIZE から最大の一致長を引いたものより小さいこと
+     */
+    private static final int CRC_INTERVAL = 1 << 14;
+
+    private static final int[] LENGTH_BASE = {
+            3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+            35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+    private static final int[] LENGTH_EXTRA = {
+            0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+            3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+    private static final int[] DISTANCE_BASE = {
+            1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+            257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+    private static final int[] DISTANCE_EXTRA = {
+            0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+            7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+    private static final int[] CODE_LENGTH_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+
+    private static final Huffman FIXED_LITERALS;
+    private static final Huffman FIXED_DISTANCES;
+
+    static {
+        int[] lengths = new int[288];
+        for (int i = 0; i < 288; i++) {
+            lengths[i] = i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8;
+        }
+        FIXED_LITERALS = new Huffman(lengths, 0, 288);
+        int[] distances = new int[30];
+        Arrays.fill(distances, 5);
+        FIXED_DISTANCES = new Huffman(distances, 0, 30);
+    }
+
+    private final ReadableByteChannel in;
+    private final ByteBuffer input;
+    private final byte[] inBuf;
+    private int inPos;
+    private int inLimit;
+
+    /**
+     * inBuf の先頭の、圧縮データの先頭からのオフセット
+     */
+    private long inputBase;
+
+    private long bits;
+    private int bitCount;
+
+    private final byte[] window = new byte[WINDOW_SIZE];
+    private long out;
+    private final CRC32 crc = new CRC32();
+    private long crcOut;
+
+    /**
+     * @param in 圧縮データを読み込むチャネル
+     */
+    DeflateScanner(ReadableByteChannel in) {
+        this.in = in;
+        this.input = ByteBuffer.allocate(1 << 16);
+        this.inBuf = input.array();
+    }
+
+    /**
+     * 最後のブロックまで展開して、チェックポイントを作る
+     *
+     * @param span チェックポイントの間隔 [byte]
+     * @param compressedSize 圧縮データのサイズ
+     * @return 索引
+     * @throws IOException 圧縮データが壊れているか、読み込めない場合
+     */
+    SeekIndex scan(long span, long compressedSize) throws IOException {
+        List<long[]> offsets = new ArrayList<>();
+        List<byte[]> windows = new ArrayList<>();
+        offsets.add(new long[]{0, 0});
+        windows.add(new byte[0]);
+        long last = 0;
+
+        boolean lastBlock = false;
+        while (!lastBlock) {
+            long bitPosition = (inputBase + inPos) * 8 - bitCount;
+            if (out - last >= span && (bitPosition & 7) == 0) {
+                offsets.add(new long[]{bitPosition >>> 3, out});
+                windows.add(windowCopy());
+                last = out;
+            }
+
+            lastBlock = take(1) == 1;
+            switch (take(2)) {
+                case 0 -> stored();
+                case 1 -> codes(FIXED_LITERALS, FIXED_DISTANCES);
+                case 2 -> dynamic();
+                default -> throw new OsmZipIOException("圧縮データが壊れている。：不正なブロックの種類");
+            }
+        }
+        updateCrc();
+
+        long[] inputOffsets = new long[offsets.size()];
+        long[] outputOffsets = new long[offsets.size()];
+        for (int i = 0; i < offsets.size(); i++) {
+            inputOffsets[i] = offsets.get(i)[0];
+            outputOffsets[i] = offsets.get(i)[1];
+        }
+        return new SeekIndex(span, compressedSize, out, crc.getValue(),
+                inputOffsets, outputOffsets, windows.toArray(new byte[0][]));
+    }
+
+    private void stored() throws IOException {
+        // バイト境界まで読み飛ばす
+        int drop = bitCount & 7;
+        bits >>>= drop;
+        bitCount -= drop;
+
+        int length = take(16);
+        int complement = take(16);
+        if (length != (~complement & 0xffff)) {
+            throw new OsmZipIOException("圧縮データが壊れている。：無圧縮ブロックの長さ");
+        }
+        for (int i = 0; i < length; i++) {
+            emit((byte) take(8));
+        }
+    }
+
+    private void dynamic() throws IOException {
+        int literals = take(5) + 257;
+        int distances = take(5) + 1;
+        int codeLengths = take(4) + 4;
+        if (literals > 286 || distances > 30) {
+            throw new OsmZipIOException("圧縮データが壊れている。：符号の数");
+        }
+
+        int[] lengths = new int[19];
+        for (int i = 0; i < codeLengths; i++) {
+            lengths[CODE_LENGTH_ORDER[i]] = take(3);
+        }
+        Huffman lengthCode = new Huffman(lengths, 0, 19);
+
+        lengths = new int[literals + distances];
+        int i = 0;
+        while (i < literals + distances) {
+            int symbol = decode(lengthCode);
+            if (symbol < 16) {
+                lengths[i++] = symbol;
+                continue;
+            }
+
+            int value = 0;
+            int repeat;
+            if (symbol == 16) {
+                if (i == 0) {
+                    throw new OsmZipIOException("圧縮データが壊れている。：繰り返す符号長が無い");
+                }
+                value = lengths[i - 1];
+                repeat = 3 + take(2);
+            } else if (symbol == 17) {
+                repeat = 3 + take(3);
+            } else {
+                repeat = 11 + take(7);
+            }
+            if (i + repeat > literals + distances) {
+                throw new OsmZipIOException("圧縮データが壊れている。：符号長が多すぎる");
+            }
+            while (repeat-- > 0) {
+                lengths[i++] = value;
+            }
+        }
+        if (lengths[256] == 0) {
+            throw new OsmZipIOException("圧縮データが壊れている。：ブロックの終わりの符号が無い");
+        }
+
+        codes(new Huffman(lengths, 0, literals), new Huffman(lengths, literals, distances));
+    }
+
+    private void codes(Huffman literals, Huffman distances) throws IOException {
+        while (true) {
+            int symbol = decode(literals);
+            if (symbol < 256) {
+                emit((byte) symbol);
+                continue;
+            }
+            if (symbol == 256) {
+                return;
+            }
+
+            symbol -= 257;
+            if (symbol >= LENGTH_BASE.length) {
+                throw new OsmZipIOException("圧縮データが壊れている。：不正な長さの符号");
+            }
+            int length = LENGTH_BASE[symbol] + take(LENGTH_EXTRA[symbol]);
+
+            symbol = decode(distances);
+            if (symbol >= DISTANCE_BASE.length) {
+                throw new OsmZipIOException("圧縮データが壊れている。：不正な距離の符号");
+            }
+            int distance = DISTANCE_BASE[symbol] + take(DISTANCE_EXTRA[symbol]);
+            if (distance > out) {
+                throw new OsmZipIOException("圧縮データが壊れている。：距離が遠すぎる");
+            }
+
+            for (int i = 0; i < length; i++) {
+                window[(int) out & WINDOW_MASK] = window[(int) (out - distance) & WINDOW_MASK];
+                out++;
+            }
+            if (out - crcOut >= CRC_INTERVAL) {
+                updateCrc();
+            }
+        }
+    }
+
+    private void emit(byte b) {
+        window[(int) out & WINDOW_MASK] = b;
+        out++;
+        if (out - crcOut >= CRC_INTERVAL) {
+            updateCrc();
+        }
+    }
+
+    /**
+     * まだ計算していない出力の CRC-32 を計算する
+     */
+    private void updateCrc() {
+        while (crcOut < out) {
+            int start = (int) crcOut & WINDOW_MASK;
+            int length = (int) Math.min(out - crcOut, WINDOW_SIZE - start);
+            crc.update(window, start, length);
+            crcOut += length;
+        }
+    }
+
+    /**
+     * 直近 32KiB の出力を古い順に並べて返す
+     */
+    private byte[] windowCopy() {
+        int length = (int) Math.min(out, WINDOW_SIZE);
+        byte[] copy = new byte[length];
+        int start = (int) (out - length) & WINDOW_MASK;
+        int first = Math.min(length, WINDOW_SIZE - start);
+        System.arraycopy(window, start, copy, 0, first);
+        System.arraycopy(window, 0, copy, first, length - first);
+        return copy;
+    }
+
+    private int decode(Huffman huffman) throws IOException {
+        fill(huffman.maxLength);
+        int entry = huffman.table[(int) bits & ((1 << huffman.maxLength) - 1)];
+        int length = entry & 15;
+        if (length == 0) {
+            throw new OsmZipIOException("圧縮データが壊れている。：不正な符号");
+        }
+        if (length > bitCount) {
+            throw new EOFException("圧縮データが途中で終わっている。");
+        }
+        bits >>>= length;
+        bitCount -= length;
+        return entry >>> 4;
+    }
+
+    private int take(int n) throws IOException {
+        fill(n);
+        if (bitCount < n) {
+            throw new EOFException("圧縮データが途中で終わっている。");
+        }
+        int value = (int) bits & ((1 << n) - 1);
+        bits >>>= n;
+        bitCount -= n;
+        return value;
+    }
+
+    /**
+     * ビットバッファに少なくとも n ビットあるようにする。入力が終わっていれば足りないまま戻る
+     */
+    private void fill(int n) throws IOException {
+        while (bitCount < n) {
+            if (inPos == inLimit && !refill()) {
+                return;
+            }
+            bits |= (long) (inBuf[inPos++] & 0xff) << bitCount;
+            bitCount += 8;
+        }
+    }
+
+    private boolean refill() throws IOException {
+        inputBase += inLimit;
+        input.clear();
+        int n;
+        do {
+            n = in.read(input);
+        } while (n == 0);
+        inPos = 0;
+        inLimit = Math.max(0, n);
+        return n > 0;
+    }
+
+    /**
+     * ハフマン符号の表。ビット列の下位 maxLength ビットで引くと、(記号 << 4 | 符号長) が得られる
+     */
+    private static final class Huffman {
+        final int[] table;
+        final int maxLength;
+
+        Huffman(int[] lengths, int offset, int count) {
+            int[] counts = new int[16];
+            int max = 0;
+            for (int i = 0; i < count; i++) {
+                counts[lengths[offset + i]]++;
+                max = Math.max(max, lengths[offset + i]);
+            }
+            counts[0] = 0;
+
+            int[] next = new int[16];
+            int code = 0;
+            for (int length = 1; length < 16; length++) {
+                code = (code + counts[length - 1]) << 1;
+                next[length] = code;
+            }
+
+            this.maxLength = Math.max(1, max);
+            this.table = new int[1 << maxLength];
+            for (int symbol = 0; symbol < count; symbol++) {
+                int length = lengths[offset + symbol];
+                if (length == 0) {
+                    continue;
+                }
+                // DEFLATE の符号は上位ビットから格納されるので、反転したものを表の添字にする
+                int reversed = Integer.reverse(next[length]++) >>> (32 - length);
+                for (int i = reversed; i < table.length; i += 1 << length) {
+                    table[i] = symbol << 4 | length;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package xyz.osamusasa.osmzip.io;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * {@link Deflater} を再利用するためのプール
+ *
+ * {@link InflaterPool} と同様に、使い終わったものは reset してプールに戻す。
+ */
+class DeflaterPool {
+
+    /**
+     * 共有のプール
+     */
+    static final DeflaterPool DEFAULT = new DeflaterPool(Runtime.getRuntime().availableProcessors() * 4);
+
+    private final ArrayBlockingQueue<Deflater> pool;
+
+    /**
+     * @param capacity プールに保持する Deflater の最大数
+     */
+    DeflaterPool(int capacity) {
+        this.pool = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Deflater を取り出す。プールが空なら新しく作る。
+     * ZIPのデータはヘッダ無しの DEFLATE なので nowrap で作る。
+     *
+     * @param level 圧縮レベル
+     * @return Deflater
+     */
+    Deflater borrow(int level) {
+        Deflater deflater = pool.poll();
+        if (deflater == null) {
+            return new Deflater(level, true);
+        }
+        deflater.setLevel(level);
+        return deflater;
+    }
+
+    /**
+     * Deflater をプールに戻す
+     *
+     * @param deflater 使い終わった Deflater
+     */
+    void release(Deflater deflater) {
+        deflater.reset();
+        if (!pool.offer(deflater)) {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package xyz.osamusasa.osmzip.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * ZIPファイル中の決まった範囲だけを読み込むチャネル
+ *
+ * File data を読み込むために使う。読み込みは呼び出されたときに都度行う。
+ * 位置は範囲の先頭からのオフセットで移動できる。
+ */
+class EntryChannel implements SeekableByteChannel {
+    private final ZipSource source;
+    private final long start;
+    private final long end;
+    private long position;
+    private boolean open = true;
+
+    /**
+     * @param source 読み込み元
+     * @param position 範囲の開始位置
+     * @param length 範囲の長さ
+     */
+    EntryChannel(ZipSource source, long position, long length) {
+        this.source = source;
+        this.start = position;
+        this.position = position;
+        this.end = position + length;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        if (position >= end) {
+            return -1;
+        }
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+
+        int limit = dst.limit();
+        if (dst.remaining() > end - position) {
+            dst.limit(dst.position() + (int) (end - position));
+        }
+
+        int n;
+        try {
+            n = source.read(position, dst);
+        } finally {
+            dst.limit(limit);
+        }
+
+        if (n < 0) {
+            throw new EOFException("File data が途中で終わっている。：" + position);
+        }
+        position += n;
+
+        return n;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        return position - start;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("負の位置：" + newPosition);
+        }
+        position = start + newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() {
+        return end - start;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+}
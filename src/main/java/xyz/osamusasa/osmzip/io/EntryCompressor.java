@@ -0,0 +1,172 @@
+package xyz.osamusasa.osmzip.io;
+
+import xyz.osamusasa.osmzip.element.CentralDictionaryHeader;
+import xyz.osamusasa.osmzip.monitor.DeflateEvent;
+import xyz.osamusasa.osmzip.monitor.ZipMetrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * ファイルを1つのエントリとして圧縮するクラス
+ *
+ * スレッドセーフなので、複数のエントリを別々のスレッドで同時に圧縮できる。
+ */
+public class EntryCompressor {
+
+    private EntryCompressor() {
+    }
+
+    /**
+     * ファイルまたはディレクトリを圧縮する。
+     * DEFLATE で小さくならないファイルは無圧縮で格納する。
+     *
+     * @param file 圧縮するファイルまたはディレクトリ
+     * @param name エントリ名。ディレクトリの場合は "/" で終わる
+     * @param level 圧縮レベル
+     * @return 圧縮済みのエントリ
+     * @throws OsmZipIOException ファイルが読めない場合
+     */
+    public static CompressedEntry compress(Path file, String name, int level) throws OsmZipIOException {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            CentralDictionaryHeader cdh = header(name, attrs);
+
+            if (attrs.isDirectory()) {
+                cdh.setNeedVersion(20);
+                cdh.setExternalFileAttr(0x10);
+                return new CompressedEntry(cdh, ByteBuffer.allocate(0));
+            }
+
+            DeflateEvent event = new DeflateEvent();
+            event.begin();
+            long start = ZipMetrics.DEFAULT.isEnabled() ? System.nanoTime() : 0;
+
+            byte[] data = Files.readAllBytes(file);
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            cdh.setCrc32(crc.getValue());
+            cdh.setUncompressedSize(data.length);
+
+            byte[] deflated = deflate(data, level);
+            CompressedEntry entry;
+            if (deflated.length < data.length) {
+                cdh.setNeedVersion(20);
+                cdh.setCompressionMethod(8);
+                cdh.setCompressedSize(deflated.length);
+                entry = new CompressedEntry(cdh, ByteBuffer.wrap(deflated));
+            } else {
+                cdh.setNeedVersion(10);
+                cdh.setCompressionMethod(0);
+                cdh.setCompressedSize(data.length);
+                entry = new CompressedEntry(cdh, ByteBuffer.wrap(data));
+            }
+
+            if (start != 0) {
+                ZipMetrics.DEFAULT.recordDeflate(data.length, deflated.length, System.nanoTime() - start);
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.entry = name;
+                event.uncompressedBytes = data.length;
+                event.compressedBytes = cdh.getCompressedSize();
+                event.compressionMethod = cdh.getCompressionMethod();
+                event.commit();
+            }
+            return entry;
+        } catch (IOException e) {
+            throw new OsmZipIOException("圧縮するファイルが読めない。：" + file, e);
+        }
+    }
+
+    /**
+     * 圧縮方式とサイズ以外の項目を埋めた CDH を作る
+     *
+     * @param name エントリ名
+     * @param attrs ファイルの属性
+     * @return CDH
+     */
+    public static CentralDictionaryHeader header(String name, BasicFileAttributes attrs) {
+        CentralDictionaryHeader cdh = new CentralDictionaryHeader();
+        LocalDateTime time = LocalDateTime.ofInstant(attrs.lastModifiedTime().toInstant(), ZoneId.systemDefault());
+
+        cdh.setSignature(0x02014b50);
+        cdh.setMajorVersion((short) 20);
+        cdh.setMinerVersion((short) 0);
+        cdh.setOptionFlag(isAscii(name) ? 0 : 0004000);
+        cdh.setLastModTime(dosTime(time));
+        cdh.setLastModDate(dosDate(time));
+        cdh.setFileName(name);
+        cdh.setLengthFileName(name.getBytes(StandardCharsets.UTF_8).length);
+
+        return cdh;
+    }
+
+    /**
+     * DEFLATE で圧縮する
+     *
+     * @param data 圧縮するデータ
+     * @param level 圧縮レベル
+     * @return 圧縮後のデータ
+     */
+    private static byte[] deflate(byte[] data, int level) {
+        Deflater deflater = DeflaterPool.DEFAULT.borrow(level);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+
+            byte[] out = new byte[Math.max(64, data.length / 2)];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            return Arrays.copyOf(out, length);
+        } finally {
+            DeflaterPool.DEFAULT.release(deflater);
+        }
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * タイムスタンプ(時刻)の形式に変換する
+     *
+     * @param time 日時
+     * @return %hhhhhmmmmmmsssss
+     */
+    static int dosTime(LocalDateTime time) {
+        return time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() / 2;
+    }
+
+    /**
+     * タイムスタンプ(日付)の形式に変換する。1980年より前は1980年1月1日とする。
+     *
+     * @param time 日時
+     * @return %yyyyyyymmmmddddd
+     */
+    static int dosDate(LocalDateTime time) {
+        if (time.getYear() < 1980) {
+            return 1 << 5 | 1;
+        }
+        return (time.getYear() - 1980) << 9 | time.getMonthValue() << 5 | time.getDayOfMonth();
+    }
+}
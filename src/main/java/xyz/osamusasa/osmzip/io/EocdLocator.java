@@ -0,0 +1,93 @@
+package xyz.osamusasa.osmzip.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * ファイル末尾から EOCD(End Of Central Dictionary)の位置を探すクラス
+ *
+ * EOCD の後ろには最大 65535 バイトのコメントが付くので、ファイル末尾 65535 + 22 バイトを
+ * 一括で読み込んだバッファを後ろから探す。8バイトずつ比較して signature の先頭バイト($50)を
+ * 含む語だけを1バイトずつ調べる。
+ */
+class EocdLocator {
+
+    /**
+     * EOCD の固定長部分のサイズ
+     */
+    static final int FIXED_SIZE = 22;
+
+    /**
+     * EOCD を探すために読み込む末尾の最大サイズ。ZIP64 EOCD locator の分も含む。
+     */
+    static final int MAX_TAIL = 0xffff + FIXED_SIZE + 20;
+
+    private static final int SIGNATURE = HeaderCodec.EOCD_SIGNATURE;
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+    private static final long PATTERN = 0x5050505050505050L;
+
+    private EocdLocator() {
+    }
+
+    /**
+     * EOCD の位置を探す
+     *
+     * @param tail ファイル末尾のバッファ(リトルエンディアン)
+     * @param tailOffset バッファ先頭のファイル先頭からのオフセット
+     * @return バッファ上の EOCD の位置。見つからなければ -1
+     */
+    static int find(ByteBuffer tail, long tailOffset) {
+        int i = tail.limit() - FIXED_SIZE;
+
+        // 8バイトずつ: [i-7, i] に $50 が無ければまとめて飛ばす
+        while (i >= 7) {
+            long v = tail.getLong(i - 7) ^ PATTERN;
+            long t = (v - ONES) & ~v & HIGHS;
+            if (t != 0) {
+                for (int j = i; j >= i - 7; j--) {
+                    if (isValid(tail, j, tailOffset)) {
+                        return j;
+                    }
+                }
+            }
+            i -= 8;
+        }
+
+        // 先頭の端数は1バイトずつ
+        for (; i >= 0; i--) {
+            if (isValid(tail, i, tailOffset)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * 位置 i が正しい EOCD かどうかを調べる。
+     * signature に加え、コメントがバッファに収まること、Central directory が EOCD より前にあることを確かめる。
+     *
+     * @param tail バッファ
+     * @param i 候補の位置
+     * @param tailOffset バッファ先頭のファイル先頭からのオフセット
+     * @return 正しい EOCD なら true
+     */
+    private static boolean isValid(ByteBuffer tail, int i, long tailOffset) {
+        if (i + FIXED_SIZE > tail.limit() || tail.getInt(i) != SIGNATURE) {
+            return false;
+        }
+
+        int lengthZipComment = tail.getShort(i + 20) & 0xffff;
+        if (i + FIXED_SIZE + lengthZipComment > tail.limit()) {
+            return false;
+        }
+
+        long sizeOfTotalCD = tail.getInt(i + 12) & 0xffffffffL;
+        long offsetFirstCD = tail.getInt(i + 16) & 0xffffffffL;
+        if (sizeOfTotalCD == 0xffffffffL || offsetFirstCD == 0xffffffffL) {
+            // ZIP64 の値は ZIP64 EOCD で確かめる
+            return true;
+        }
+        return offsetFirstCD + sizeOfTotalCD <= tailOffset + i;
+    }
+}
@@ -0,0 +1,67 @@
+package xyz.osamusasa.osmzip.io;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * extra field を扱うクラス
+ *
+ * extra field は (ヘッダID 2byte, データサイズ 2byte, データ) の並び。
+ */
+class ExtraFields {
+
+    /**
+     * ZIP64 extended information extra field のヘッダID
+     */
+    static final int ZIP64 = 0x0001;
+
+    private ExtraFields() {
+    }
+
+    /**
+     * 指定したヘッダIDのデータを探す
+     *
+     * @param extra extra field
+     * @param headerId ヘッダID
+     * @return データ部分(リトルエンディアン)。無ければ null
+     */
+    static ByteBuffer find(byte[] extra, int headerId) {
+        if (extra == null) {
+            return null;
+        }
+
+        ByteBuffer buf = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+        int i = HeaderCodec.findExtra(buf, 0, extra.length, headerId);
+        if (i < 0) {
+            return null;
+        }
+        return buf.slice(i, HeaderCodec.u16(buf, i - 2)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * 指定したヘッダIDのデータを取り除く
+     *
+     * @param extra extra field
+     * @param headerId ヘッダID
+     * @return 取り除いた extra field
+     */
+    static byte[] remove(byte[] extra, int headerId) {
+        if (extra == null || extra.length == 0) {
+            return new byte[0];
+        }
+
+        ByteBuffer buf = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(extra.length);
+        int i = 0;
+        while (i + 4 <= extra.length) {
+            int id = buf.getShort(i) & 0xffff;
+            int size = Math.min(buf.getShort(i + 2) & 0xffff, extra.length - i - 4);
+            if (id != headerId) {
+                out.write(extra, i, 4 + size);
+            }
+            i += 4 + size;
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,317 @@
+package xyz.osamusasa.osmzip.io;
+
+import xyz.osamusasa.osmzip.element.CentralDictionaryHeader;
+
+import java.nio.ByteBuffer;
+
+/**
+ * ZIPのヘッダをリトルエンディアンで読み書きするクラス
+ *
+ * 読み込みはバッファ上の位置を指定して行い、バッファの position は動かさない。
+ * 書き込みはバッファの position から順に行う。どちらもバッファはリトルエンディアンであること。
+ * オブジェクトは作らない。
+ */
+final class HeaderCodec {
+
+    static final int LFH_SIGNATURE = 0x04034b50;
+    static final int CDH_SIGNATURE = 0x02014b50;
+    static final int EOCD_SIGNATURE = 0x06054b50;
+    static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+
+    /**
+     * 固定長部分のサイズ [byte]
+     */
+    static final int LFH_SIZE = 30;
+    static final int CDH_SIZE = 46;
+    static final int EOCD_SIZE = 22;
+    static final int ZIP64_EOCD_SIZE = 56;
+    static final int ZIP64_LOCATOR_SIZE = 20;
+
+    /**
+     * 32bit のフィールドに収まらないことを示す値
+     */
+    static final long ZIP64_MAGIC = 0xffffffffL;
+
+    /**
+     * 16bit のフィールドに収まらないことを示す値
+     */
+    static final int ZIP64_MAGIC_COUNT = 0xffff;
+
+    private HeaderCodec() {
+    }
+
+    static int u8(ByteBuffer buf, int index) {
+        return buf.get(index) & 0xff;
+    }
+
+    static int u16(ByteBuffer buf, int index) {
+        return buf.getShort(index) & 0xffff;
+    }
+
+    static long u32(ByteBuffer buf, int index) {
+        return buf.getInt(index) & 0xffffffffL;
+    }
+
+    static long u64(ByteBuffer buf, int index) {
+        return buf.getLong(index);
+    }
+
+    /**
+     * 可変長部分を含めた LFH の長さを返す
+     *
+     * @param buf バッファ
+     * @param index LFHの開始位置
+     * @return LFH の長さ [byte]
+     */
+    static int lfhLength(ByteBuffer buf, int index) {
+        return LFH_SIZE + u16(buf, index + 26) + u16(buf, index + 28);
+    }
+
+    /**
+     * 可変長部分を含めた CDH の長さを返す
+     *
+     * @param buf バッファ
+     * @param index CDHの開始位置
+     * @return CDH の長さ [byte]
+     */
+    static int cdhLength(ByteBuffer buf, int index) {
+        return CDH_SIZE + u16(buf, index + 28) + u16(buf, index + 30) + u16(buf, index + 32);
+    }
+
+    /**
+     * extra field から指定したヘッダIDのデータを探す
+     *
+     * @param buf バッファ
+     * @param index extra field の開始位置
+     * @param length extra field の長さ
+     * @param headerId ヘッダID
+     * @return データ部分の開始位置。無ければ -1。データのサイズはその2byte前に入っている
+     */
+    static int findExtra(ByteBuffer buf, int index, int length, int headerId) {
+        int end = index + length;
+        int i = index;
+        while (i + 4 <= end) {
+            int size = u16(buf, i + 2);
+            if (i + 4 + size > end) {
+                break;
+            }
+            if (u16(buf, i) == headerId) {
+                return i + 4;
+            }
+            i += 4 + size;
+        }
+        return -1;
+    }
+
+    /**
+     * LFH の長さを返す
+     *
+     * @param name ファイル名
+     * @param extra ZIP64 以外の extra field
+     * @param zip64 サイズを ZIP64 extended information extra field に入れるかどうか
+     * @return LFH の長さ [byte]
+     */
+    static int lfhLength(byte[] name, byte[] extra, boolean zip64) {
+        return LFH_SIZE + name.length + (zip64 ? 4 + 16 : 0) + extra.length;
+    }
+
+    /**
+     * LFH(Local File Header)を書き込む
+     *
+     * @param dst 書き込み先
+     * @param cdh 対応する CDH
+     * @param name ファイル名
+     * @param extra ZIP64 以外の extra field
+     * @param zip64 サイズを ZIP64 extended information extra field に入れるかどうか
+     * @param descriptor Data descriptor を使うかどうか。使う場合、CRC-32 とサイズは 0 にする
+     */
+    static void putLFH(ByteBuffer dst, CentralDictionaryHeader cdh, byte[] name, byte[] extra, boolean zip64,
+                       boolean descriptor) {
+        long crc32 = descriptor ? 0 : cdh.getCrc32();
+        long compressedSize = descriptor ? 0 : cdh.getCompressedSize();
+        long uncompressedSize = descriptor ? 0 : cdh.getUncompressedSize();
+
+        dst.putInt(LFH_SIGNATURE);
+        dst.putShort((short) cdh.getNeedVersion());
+        dst.putShort((short) cdh.getOptionFlag());
+        dst.putShort((short) cdh.getCompressionMethod());
+        dst.putShort((short) cdh.getLastModTime());
+        dst.putShort((short) cdh.getLastModDate());
+        dst.putInt((int) crc32);
+        dst.putInt((int) (zip64 ? ZIP64_MAGIC : compressedSize));
+        dst.putInt((int) (zip64 ? ZIP64_MAGIC : uncompressedSize));
+        dst.putShort((short) name.length);
+        dst.putShort((short) ((zip64 ? 4 + 16 : 0) + extra.length));
+        dst.put(name);
+        if (zip64) {
+            dst.putShort((short) ExtraFields.ZIP64);
+            dst.putShort((short) 16);
+            dst.putLong(uncompressedSize);
+            dst.putLong(compressedSize);
+        }
+        dst.put(extra);
+    }
+
+    /**
+     * CDH の ZIP64 extended information extra field のデータ部分のサイズを返す
+     *
+     * @param cdh CDH
+     * @return データ部分のサイズ。ZIP64 にしなくてよければ 0
+     */
+    static int zip64DataSize(CentralDictionaryHeader cdh) {
+        return (cdh.getUncompressedSize() >= ZIP64_MAGIC ? 8 : 0)
+                + (cdh.getCompressedSize() >= ZIP64_MAGIC ? 8 : 0)
+                + (cdh.getOffsetRelativeLH() >= ZIP64_MAGIC ? 8 : 0);
+    }
+
+    /**
+     * CDH の長さを返す
+     *
+     * @param cdh CDH
+     * @param name ファイル名
+     * @param extra ZIP64 以外の extra field
+     * @param comment コメント
+     * @return CDH の長さ [byte]
+     */
+    static int cdhLength(CentralDictionaryHeader cdh, byte[] name, byte[] extra, byte[] comment) {
+        int zip64Size = zip64DataSize(cdh);
+        return CDH_SIZE + name.length + (zip64Size > 0 ? 4 + zip64Size : 0) + extra.length + comment.length;
+    }
+
+    /**
+     * CDH(Central Dictionary Header)を書き込む。
+     * 32bit に収まらない値は ZIP64 extended information extra field に入れる。
+     *
+     * @param dst 書き込み先
+     * @param cdh CDH
+     * @param name ファイル名
+     * @param extra ZIP64 以外の extra field
+     * @param comment コメント
+     */
+    static void putCDH(ByteBuffer dst, CentralDictionaryHeader cdh, byte[] name, byte[] extra, byte[] comment) {
+        boolean uncompressed = cdh.getUncompressedSize() >= ZIP64_MAGIC;
+        boolean compressed = cdh.getCompressedSize() >= ZIP64_MAGIC;
+        boolean lh = cdh.getOffsetRelativeLH() >= ZIP64_MAGIC;
+        int zip64Size = zip64DataSize(cdh);
+
+        dst.putInt(CDH_SIGNATURE);
+        dst.put((byte) cdh.getMajorVersion());
+        dst.put((byte) cdh.getMinerVersion());
+        dst.putShort((short) (zip64Size > 0 ? Math.max(45, cdh.getNeedVersion()) : cdh.getNeedVersion()));
+        dst.putShort((short) cdh.getOptionFlag());
+        dst.putShort((short) cdh.getCompressionMethod());
+        dst.putShort((short) cdh.getLastModTime());
+        dst.putShort((short) cdh.getLastModDate());
+        dst.putInt((int) cdh.getCrc32());
+        dst.putInt((int) (compressed ? ZIP64_MAGIC : cdh.getCompressedSize()));
+        dst.putInt((int) (uncompressed ? ZIP64_MAGIC : cdh.getUncompressedSize()));
+        dst.putShort((short) name.length);
+        dst.putShort((short) ((zip64Size > 0 ? 4 + zip64Size : 0) + extra.length));
+        dst.putShort((short) comment.length);
+        dst.putShort((short) 0);
+        dst.putShort((short) cdh.getInternalFileAttr());
+        dst.putInt((int) cdh.getExternalFileAttr());
+        dst.putInt((int) (lh ? ZIP64_MAGIC : cdh.getOffsetRelativeLH()));
+        dst.put(name);
+        if (zip64Size > 0) {
+            dst.putShort((short) ExtraFields.ZIP64);
+            dst.putShort((short) zip64Size);
+            if (uncompressed) dst.putLong(cdh.getUncompressedSize());
+            if (compressed) dst.putLong(cdh.getCompressedSize());
+            if (lh) dst.putLong(cdh.getOffsetRelativeLH());
+        }
+        dst.put(extra);
+        dst.put(comment);
+    }
+
+    /**
+     * Data descriptor の長さを返す
+     *
+     * @param zip64 サイズを 8byte で書くかどうか
+     * @return Data descriptor の長さ [byte]
+     */
+    static int dataDescriptorLength(boolean zip64) {
+        return zip64 ? 24 : 16;
+    }
+
+    /**
+     * Data descriptor を書き込む
+     *
+     * @param dst 書き込み先
+     * @param crc32 CRC-32
+     * @param compressedSize 圧縮後のサイズ
+     * @param uncompressedSize 圧縮前のサイズ
+     * @param zip64 サイズを 8byte で書くかどうか
+     */
+    static void putDataDescriptor(ByteBuffer dst, long crc32, long compressedSize, long uncompressedSize,
+                                  boolean zip64) {
+        dst.putInt(DATA_DESCRIPTOR_SIGNATURE);
+        dst.putInt((int) crc32);
+        if (zip64) {
+            dst.putLong(compressedSize);
+            dst.putLong(uncompressedSize);
+        } else {
+            dst.putInt((int) compressedSize);
+            dst.putInt((int) uncompressedSize);
+        }
+    }
+
+    /**
+     * ZIP64 end of central directory record を書き込む
+     *
+     * @param dst 書き込み先
+     * @param totalNumberOfCD CDH の数
+     * @param sizeOfTotalCD Central directory のサイズ
+     * @param offsetFirstCD Central directory のオフセット
+     */
+    static void putZip64EOCD(ByteBuffer dst, long totalNumberOfCD, long sizeOfTotalCD, long offsetFirstCD) {
+        dst.putInt(ZIP64_EOCD_SIGNATURE);
+        dst.putLong(ZIP64_EOCD_SIZE - 12);
+        dst.putShort((short) 45);
+        dst.putShort((short) 45);
+        dst.putInt(0);
+        dst.putInt(0);
+        dst.putLong(totalNumberOfCD);
+        dst.putLong(totalNumberOfCD);
+        dst.putLong(sizeOfTotalCD);
+        dst.putLong(offsetFirstCD);
+    }
+
+    /**
+     * ZIP64 end of central directory locator を書き込む
+     *
+     * @param dst 書き込み先
+     * @param offsetZip64 ZIP64 EOCD のオフセット
+     */
+    static void putZip64Locator(ByteBuffer dst, long offsetZip64) {
+        dst.putInt(ZIP64_LOCATOR_SIGNATURE);
+        dst.putInt(0);
+        dst.putLong(offsetZip64);
+        dst.putInt(1);
+    }
+
+    /**
+     * EOCD(End Of Central Dictionary)を書き込む。
+     * 収まらない値は $FFFF や $FFFFFFFF にする(ZIP64 EOCD に本当の値が入る)。
+     *
+     * @param dst 書き込み先
+     * @param totalNumberOfCD CDH の数
+     * @param sizeOfTotalCD Central directory のサイズ
+     * @param offsetFirstCD Central directory のオフセット
+     * @param comment ZIPファイルのコメント
+     */
+    static void putEOCD(ByteBuffer dst, long totalNumberOfCD, long sizeOfTotalCD, long offsetFirstCD,
+                        byte[] comment) {
+        dst.putInt(EOCD_SIGNATURE);
+        dst.putShort((short) 0);
+        dst.putShort((short) 0);
+        dst.putShort((short) Math.min(totalNumberOfCD, ZIP64_MAGIC_COUNT));
+        dst.putShort((short) Math.min(totalNumberOfCD, ZIP64_MAGIC_COUNT));
+        dst.putInt((int) Math.min(sizeOfTotalCD, ZIP64_MAGIC));
+        dst.putInt((int) Math.min(offsetFirstCD, ZIP64_MAGIC));
+        dst.putShort((short) comment.length);
+        dst.put(comment);
+    }
+}
@@ -0,0 +1,51 @@
+package xyz.osamusasa.osmzip.io;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Inflater;
+
+/**
+ * {@link Inflater} を再利用するためのプール
+ *
+ * Inflater はネイティブの zlib コンテキストを持つので、エントリごとに生成・破棄すると
+ * 小さなファイルが大量にある場合に負荷が大きい。使い終わったものは reset してプールに戻す。
+ * プールが満杯の場合は {@link Inflater#end()} で解放する。
+ */
+class InflaterPool {
+
+    /**
+     * 共有のプール
+     */
+    static final InflaterPool DEFAULT = new InflaterPool(Runtime.getRuntime().availableProcessors() * 4);
+
+    private final ArrayBlockingQueue<Inflater> pool;
+
+    /**
+     * @param capacity プールに保持する Inflater の最大数
+     */
+    InflaterPool(int capacity) {
+        this.pool = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Inflater を取り出す。プールが空なら新しく作る。
+     * ZIPのデータはヘッダ無しの DEFLATE なので nowrap で作る。
+     *
+     * @return Inflater
+     */
+    Inflater borrow() {
+        Inflater inflater = pool.poll();
+        return inflater != null ? inflater : new Inflater(true);
+    }
+
+    /**
+     * Inflater をプールに戻す
+     *
+     * @param inflater 使い終わった Inflater
+     */
+    void release(Inflater inflater) {
+        inflater.reset();
+        if (!pool.offer(inflater)) {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package xyz.osamusasa.osmzip.io;
+
+import xyz.osamusasa.osmzip.monitor.InflateEvent;
+import xyz.osamusasa.osmzip.monitor.ZipMetrics;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * DEFLATE(圧縮方式 8)で圧縮された File data を展開しながら読み込むチャネル
+ *
+ * 圧縮データは上限のある1つのバッファに少しずつ読み込み、呼び出し元のバッファへ直接展開する。
+ * Inflater は {@link InflaterPool} から借り、展開が終わるかチャネルを閉じたときに返す。
+ * そのときに、{@link ZipMetrics} が有効なら展開量と時間を数え、{@link InflateEvent} が有効ならイベントを記録する。
+ */
+class InflatingChannel implements ReadableByteChannel {
+
+    /**
+     * 圧縮データを読み込むバッファの最大サイズ
+     */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    private final ReadableByteChannel in;
+    private final InflaterPool pool;
+    private final ByteBuffer input;
+    private Inflater inflater;
+    private boolean eof;
+    private boolean open = true;
+
+    /**
+     * 計測する場合のエントリ名とイベント。計測しない場合は timed が false で event が null
+     */
+    private final String name;
+    private final boolean timed;
+    private InflateEvent event;
+    private final long started;
+    private long inflaterNanos;
+
+    /**
+     * @param in 圧縮データを読み込むチャネル
+     * @param compressedSize 圧縮データのサイズ(バッファの大きさを決めるのに使う)
+     * @param pool Inflater を借りるプール
+     */
+    InflatingChannel(ReadableByteChannel in, long compressedSize, InflaterPool pool) {
+        this(in, compressedSize, pool, null);
+    }
+
+    /**
+     * @param in 圧縮データを読み込むチャネル
+     * @param compressedSize 圧縮データのサイズ(バッファの大きさを決めるのに使う)
+     * @param pool Inflater を借りるプール
+     * @param name イベントに記録するエントリ名。無ければ null
+     */
+    InflatingChannel(ReadableByteChannel in, long compressedSize, InflaterPool pool, String name) {
+        this.in = in;
+        this.pool = pool;
+        this.input = ByteBuffer.allocate((int) Math.max(1, Math.min(BUFFER_SIZE, compressedSize)));
+        this.inflater = pool.borrow();
+        this.name = name;
+
+        if (InflateEvent.recording()) {
+            event = new InflateEvent();
+            event.begin();
+        }
+        this.timed = event != null || ZipMetrics.DEFAULT.isEnabled();
+        this.started = timed ? System.nanoTime() : 0;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        if (eof) {
+            return -1;
+        }
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+
+        try {
+            while (true) {
+                int n;
+                if (timed) {
+                    long start = System.nanoTime();
+                    n = inflater.inflate(dst);
+                    inflaterNanos += System.nanoTime() - start;
+                } else {
+                    n = inflater.inflate(dst);
+                }
+                if (n > 0) {
+                    return n;
+                }
+                if (inflater.finished()) {
+                    eof = true;
+                    releaseInflater();
+                    return -1;
+                }
+                if (inflater.needsDictionary()) {
+                    throw new OsmZipIOException("プリセット辞書付きの DEFLATE には対応していない。");
+                }
+                if (inflater.needsInput()) {
+                    input.clear();
+                    if (in.read(input) < 0) {
+                        throw new EOFException("圧縮データが途中で終わっている。");
+                    }
+                    inflater.setInput(input.flip());
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new OsmZipIOException("圧縮データが壊れている。", e);
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            releaseInflater();
+            in.close();
+        }
+    }
+
+    private void releaseInflater() {
+        if (inflater != null) {
+            if (timed) {
+                record();
+            }
+            pool.release(inflater);
+            inflater = null;
+        }
+    }
+
+    /**
+     * 展開量と時間を記録する。Inflater を返す前に呼ぶ
+     */
+    private void record() {
+        long compressed = inflater.getBytesRead();
+        long uncompressed = inflater.getBytesWritten();
+
+        ZipMetrics metrics = ZipMetrics.DEFAULT;
+        if (metrics.isEnabled()) {
+            metrics.recordInflate(compressed, uncompressed, inflaterNanos);
+            if (eof) {
+                metrics.recordEntryInflated(System.nanoTime() - started);
+            }
+        }
+
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.entry = name;
+                event.compressedBytes = compressed;
+                event.uncompressedBytes = uncompressed;
+                event.inflaterNanos = inflaterNanos;
+                event.commit();
+            }
+            event = null;
+        }
+    }
+}
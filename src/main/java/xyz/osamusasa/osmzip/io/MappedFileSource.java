@@ -0,0 +1,150 @@
+package xyz.osamusasa.osmzip.io;
+
+import xyz.osamusasa.osmzip.monitor.ZipMetrics;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link FileChannel#map} でファイルをメモリにマップして読み込む実装
+ *
+ * 1つのマッピングは2GBまでしか扱えないので、ファイルを {@link #WINDOW_SIZE} ごとの窓に分けて
+ * 必要になった窓だけをマップする。隣接する窓は {@link #WINDOW_OVERLAP} だけ重ねてマップするので、
+ * 窓の境界をまたぐヘッダも通常はコピー無しでマッピングから直接読める。
+ */
+class MappedFileSource implements ZipSource {
+
+    /**
+     * 窓の間隔
+     */
+    static final long WINDOW_SIZE = 1L << 30;
+
+    /**
+     * 隣の窓と重ねる量。CDHの最大長(46 + 65535 * 3)より大きい値にする。
+     */
+    static final int WINDOW_OVERLAP = 1 << 18;
+
+    private final FileChannel channel;
+    private final long size;
+    private final MappedByteBuffer[] windows;
+
+    MappedFileSource(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.size = channel.size();
+        this.windows = new MappedByteBuffer[(int) ((size + WINDOW_SIZE - 1) / WINDOW_SIZE)];
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public ByteBuffer read(long position, int length) throws IOException {
+        if (position < 0 || length < 0 || position + length > size) {
+            throw new EOFException("範囲外の読み込み：" + position + "+" + length + " / " + size);
+        }
+
+        int index = (int) (position / WINDOW_SIZE);
+        int relative = (int) (position - index * WINDOW_SIZE);
+
+        if (length == 0) {
+            return ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        MappedByteBuffer window = window(index);
+        if (relative + length <= window.capacity()) {
+            if (ZipMetrics.DEFAULT.isEnabled()) {
+                ZipMetrics.DEFAULT.recordMappedRead(length);
+            }
+            return window.slice(relative, length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        // 窓に収まらない場合はコピーする
+        ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position + buf.position());
+            if (n < 0) {
+                throw new EOFException();
+            }
+            if (ZipMetrics.DEFAULT.isEnabled()) {
+                ZipMetrics.DEFAULT.recordRead(n, false);
+            }
+        }
+        return buf.flip();
+    }
+
+    @Override
+    public int read(long position, ByteBuffer dst) throws IOException {
+        if (position >= size) {
+            return -1;
+        }
+
+        int index = (int) (position / WINDOW_SIZE);
+        int relative = (int) (position - index * WINDOW_SIZE);
+        MappedByteBuffer window = window(index);
+        int length = Math.min(dst.remaining(), window.capacity() - relative);
+
+        dst.put(window.slice(relative, length));
+        if (ZipMetrics.DEFAULT.isEnabled()) {
+            ZipMetrics.DEFAULT.recordMappedRead(length);
+        }
+
+        return length;
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        long n = channel.transferTo(position, count, target);
+        if (ZipMetrics.DEFAULT.isEnabled()) {
+            ZipMetrics.DEFAULT.recordRead(n, false);
+        }
+        return n;
+    }
+
+    @Override
+    public ByteBuffer map(long position, int length) throws IOException {
+        if (position < 0 || length < 0 || position + length > size) {
+            throw new EOFException("範囲外の読み込み：" + position + "+" + length + " / " + size);
+        }
+
+        int index = (int) (position / WINDOW_SIZE);
+        int relative = (int) (position - index * WINDOW_SIZE);
+        if (length > 0) {
+            MappedByteBuffer window = window(index);
+            if (relative + length <= window.capacity()) {
+                return window.slice(relative, length).asReadOnlyBuffer();
+            }
+        }
+        // 窓に収まらない場合は別にマップする
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+    }
+
+    /**
+     * 窓を返す。まだマップしていなければマップする。
+     *
+     * @param index 窓の番号
+     * @return 窓
+     * @throws IOException I/O Error
+     */
+    private synchronized MappedByteBuffer window(int index) throws IOException {
+        if (windows[index] == null) {
+            long start = index * WINDOW_SIZE;
+            long length = Math.min(WINDOW_SIZE + WINDOW_OVERLAP, size - start);
+            windows[index] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        }
+        return windows[index];
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,97 @@
+package xyz.osamusasa.osmzip.io;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * エントリ名からエントリを引くためのハッシュ索引
+ *
+ * {@link CentralDirectory} に格納されたファイル名の生のバイト列のハッシュ値で登録する。
+ * ハッシュ値は Central directory を読み込むときに計算済みなので、索引を作るときは表に入れるだけでよい。
+ * エントリごとに String は作らず、名前のバイト列は Central directory 側のものを比較に使う。
+ * 衝突はオープンアドレス法(線形探索)で解決する。
+ */
+public class NameIndex {
+
+    private final CentralDirectory directory;
+
+    /**
+     * エントリ番号 + 1 を格納する表。0 は空き
+     */
+    private final int[] table;
+    private final int mask;
+
+    /**
+     * Central directory の全エントリを登録した索引を作る。
+     * 同じ名前が複数ある場合、検索では先にあるものが見つかる。
+     *
+     * @param directory Central directory
+     */
+    public NameIndex(CentralDirectory directory) {
+        this.directory = directory;
+        this.table = new int[tableSize(directory.size())];
+        this.mask = table.length - 1;
+
+        for (int i = 0; i < directory.size(); i++) {
+            int slot = directory.nameHash(i) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+    }
+
+    /**
+     * エントリ名からエントリ番号を探す
+     *
+     * @param name エントリ名
+     * @return エントリ番号。無ければ -1
+     */
+    public int find(String name) {
+        int entry = find(name.getBytes(StandardCharsets.UTF_8));
+        if (entry < 0 && !Charset.defaultCharset().equals(StandardCharsets.UTF_8)) {
+            // UTF-8 フラグの無いエントリは既定の文字コードで書かれている
+            entry = find(name.getBytes(Charset.defaultCharset()));
+        }
+        return entry;
+    }
+
+    /**
+     * エントリ名の生のバイト列からエントリ番号を探す
+     *
+     * @param name エントリ名のバイト列
+     * @return エントリ番号。無ければ -1
+     */
+    public int find(byte[] name) {
+        int hash = hash(name, 0, name.length);
+        for (int slot = hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int entry = table[slot] - 1;
+            if (directory.nameHash(entry) == hash && directory.nameEquals(entry, name)) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 登録されているエントリ数を返す
+     *
+     * @return エントリ数
+     */
+    public int size() {
+        return directory.size();
+    }
+
+    private static int tableSize(int entries) {
+        return Integer.highestOneBit(Math.max(2, entries * 2 - 1)) << 1;
+    }
+
+    static int hash(byte[] bytes, int index, int length) {
+        int h = 0x811c9dc5;
+        for (int i = index; i < index + length; i++) {
+            h = (h ^ bytes[i]) * 0x01000193;
+        }
+        // 下位ビットだけで表を引くので上位ビットを混ぜる
+        return h ^ (h >>> 16);
+    }
+}
@@ -6,4 +6,8 @@ public class OsmZipIOException extends IOException {
     public OsmZipIOException(String s) {
         super(s);
     }
+
+    public OsmZipIOException(String s, Throwable cause) {
+        super(s, cause);
+    }
 }
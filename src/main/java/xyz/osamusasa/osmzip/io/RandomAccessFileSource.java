@@ -0,0 +1,88 @@
+package xyz.osamusasa.osmzip.io;
+
+import xyz.osamusasa.osmzip.monitor.ZipMetrics;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * {@link RandomAccessFile} のチャネルから位置指定で読み込む実装
+ *
+ * ファイルポインタを共有しないので、複数のスレッドから同時に読み込める。
+ */
+class RandomAccessFileSource implements ZipSource {
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    /**
+     * 前回の読み込みの終わりの位置。メトリクスでシークを数えるためだけに使うので、スレッド間で厳密でなくてよい
+     */
+    private long lastEnd;
+
+    RandomAccessFileSource(File file) throws FileNotFoundException {
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+    }
+
+    @Override
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position + buf.position());
+            if (n < 0) {
+                throw new EOFException("範囲外の読み込み：" + position + "+" + length);
+            }
+            record(position + buf.position() - n, n);
+        }
+
+        return buf.flip();
+    }
+
+    @Override
+    public int read(long position, ByteBuffer dst) throws IOException {
+        int n = channel.read(dst, position);
+        record(position, n);
+        return n;
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        long n = channel.transferTo(position, count, target);
+        record(position, n);
+        return n;
+    }
+
+    @Override
+    public ByteBuffer map(long position, int length) throws IOException {
+        if (position < 0 || length < 0 || position + length > channel.size()) {
+            throw new EOFException("範囲外の読み込み：" + position + "+" + length);
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+    }
+
+    private void record(long position, long n) {
+        ZipMetrics metrics = ZipMetrics.DEFAULT;
+        if (metrics.isEnabled()) {
+            metrics.recordRead(n, position != lastEnd);
+            lastEnd = position + Math.max(0, n);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,243 @@
+package xyz.osamusasa.osmzip.io;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * DEFLATE で圧縮されたエントリの途中から展開するための索引(zran 方式)
+ *
+ * 展開後のデータ span バイトごとに、そこから展開を始めるのに必要な情報(チェックポイント)を持つ。
+ * チェックポイントは、圧縮データ中のブロックの開始位置と、その時点の展開後のデータの直近 32KiB(辞書)の組。
+ * 任意の位置を読むときは、その位置の手前のチェックポイントから展開すればよく、先頭から展開しなくて済む。
+ *
+ * 索引は {@link #writeTo(OutputStream)} で保存し、{@link #readFrom(InputStream)} で読み込める。
+ * 辞書は DEFLATE で圧縮して保存する。
+ */
+public final class SeekIndex {
+
+    /**
+     * 保存形式の先頭に置く値("OSZI" と形式のバージョン)
+     */
+    private static final int MAGIC = 0x4f535a49;
+    private static final int VERSION = 1;
+
+    /**
+     * チェックポイントの間隔の既定値 [byte]
+     */
+    public static final long DEFAULT_SPAN = 1L << 20;
+
+    private final long span;
+    private final long compressedSize;
+    private final long uncompressedSize;
+    private final long crc32;
+
+    /**
+     * チェックポイントの、圧縮データの先頭からのオフセット
+     */
+    private final long[] inputOffsets;
+
+    /**
+     * チェックポイントの、展開後のデータの先頭からのオフセット。昇順
+     */
+    private final long[] outputOffsets;
+
+    /**
+     * チェックポイントの直前の展開後のデータ(最大 32KiB)
+     */
+    private final byte[][] windows;
+
+    SeekIndex(long span, long compressedSize, long uncompressedSize, long crc32,
+              long[] inputOffsets, long[] outputOffsets, byte[][] windows) {
+        this.span = span;
+        this.compressedSize = compressedSize;
+        this.uncompressedSize = uncompressedSize;
+        this.crc32 = crc32;
+        this.inputOffsets = inputOffsets;
+        this.outputOffsets = outputOffsets;
+        this.windows = windows;
+    }
+
+    /**
+     * 圧縮データを最後まで展開して索引を作る
+     *
+     * @param compressed 圧縮データを先頭から読み込むチャネル
+     * @param compressedSize 圧縮データのサイズ
+     * @param span チェックポイントの間隔 [byte]
+     * @return 索引
+     * @throws OsmZipIOException 圧縮データが壊れているか、読み込めない場合
+     */
+    public static SeekIndex build(ReadableByteChannel compressed, long compressedSize, long span) throws OsmZipIOException {
+        if (span <= 0) {
+            throw new IllegalArgumentException("span は1以上：" + span);
+        }
+        try {
+            return new DeflateScanner(compressed).scan(span, compressedSize);
+        } catch (OsmZipIOException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new OsmZipIOException("索引の作成に失敗。", e);
+        }
+    }
+
+    /**
+     * 保存した索引を読み込む
+     *
+     * @param in 読み込み元
+     * @return 索引
+     * @throws OsmZipIOException 索引の形式ではないか、読み込めない場合
+     */
+    public static SeekIndex readFrom(InputStream in) throws OsmZipIOException {
+        Inflater inflater = InflaterPool.DEFAULT.borrow();
+        try {
+            DataInputStream data = new DataInputStream(in);
+            if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+                throw new OsmZipIOException("索引の形式ではない。");
+            }
+
+            long span = data.readLong();
+            long compressedSize = data.readLong();
+            long uncompressedSize = data.readLong();
+            long crc32 = data.readLong();
+            int count = data.readInt();
+            if (count < 1) {
+                throw new OsmZipIOException("索引の形式ではない。");
+            }
+
+            long[] inputOffsets = new long[count];
+            long[] outputOffsets = new long[count];
+            byte[][] windows = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                inputOffsets[i] = data.readLong();
+                outputOffsets[i] = data.readLong();
+                windows[i] = new byte[data.readUnsignedShort()];
+                byte[] deflated = new byte[data.readInt()];
+                data.readFully(deflated);
+
+                inflater.reset();
+                inflater.setInput(deflated);
+                if (inflater.inflate(windows[i]) != windows[i].length) {
+                    throw new OsmZipIOException("索引が壊れている。：" + i);
+                }
+            }
+            return new SeekIndex(span, compressedSize, uncompressedSize, crc32, inputOffsets, outputOffsets, windows);
+        } catch (OsmZipIOException e) {
+            throw e;
+        } catch (IOException | DataFormatException e) {
+            throw new OsmZipIOException("索引の読み込みに失敗。", e);
+        } finally {
+            InflaterPool.DEFAULT.release(inflater);
+        }
+    }
+
+    /**
+     * 索引を保存する
+     *
+     * @param out 書き込み先。閉じない
+     * @throws OsmZipIOException 書き込めない場合
+     */
+    public void writeTo(OutputStream out) throws OsmZipIOException {
+        Deflater deflater = DeflaterPool.DEFAULT.borrow(Deflater.DEFAULT_COMPRESSION);
+        try {
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeLong(span);
+            data.writeLong(compressedSize);
+            data.writeLong(uncompressedSize);
+            data.writeLong(crc32);
+            data.writeInt(inputOffsets.length);
+
+            byte[] buf = new byte[(1 << 15) + 1024];
+            for (int i = 0; i < inputOffsets.length; i++) {
+                data.writeLong(inputOffsets[i]);
+                data.writeLong(outputOffsets[i]);
+                // 辞書は最大 32KiB なので 16bit に収まる
+                data.writeShort(windows[i].length);
+
+                deflater.reset();
+                deflater.setInput(windows[i]);
+                deflater.finish();
+                int length = 0;
+                while (!deflater.finished()) {
+                    if (length == buf.length) {
+                        buf = Arrays.copyOf(buf, buf.length * 2);
+                    }
+                    length += deflater.deflate(buf, length, buf.length - length);
+                }
+                data.writeInt(length);
+                data.write(buf, 0, length);
+            }
+            data.flush();
+        } catch (IOException e) {
+            throw new OsmZipIOException("索引の書き込みに失敗。", e);
+        } finally {
+            DeflaterPool.DEFAULT.release(deflater);
+        }
+    }
+
+    /**
+     * 指定した位置を読むときに使うチェックポイントを返す
+     *
+     * @param position 展開後のデータの先頭からのオフセット
+     * @return position 以下で最も近いチェックポイントの番号
+     */
+    int checkpointFor(long position) {
+        int i = Arrays.binarySearch(outputOffsets, position);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    long inputOffset(int checkpoint) {
+        return inputOffsets[checkpoint];
+    }
+
+    long outputOffset(int checkpoint) {
+        return outputOffsets[checkpoint];
+    }
+
+    byte[] window(int checkpoint) {
+        return windows[checkpoint];
+    }
+
+    /**
+     * @return チェックポイントの間隔 [byte]
+     */
+    public long getSpan() {
+        return span;
+    }
+
+    /**
+     * @return 索引を作った圧縮データのサイズ
+     */
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    /**
+     * @return 展開後のデータのサイズ
+     */
+    public long getUncompressedSize() {
+        return uncompressedSize;
+    }
+
+    /**
+     * @return 索引を作るときに計算した、展開後のデータの CRC-32
+     */
+    public long getCrc32() {
+        return crc32;
+    }
+
+    /**
+     * @return チェックポイントの数(先頭を含む)
+     */
+    public int size() {
+        return inputOffsets.length;
+    }
+}
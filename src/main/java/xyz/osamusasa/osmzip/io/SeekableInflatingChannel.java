@@ -0,0 +1,189 @@
+package xyz.osamusasa.osmzip.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * DEFLATE で圧縮された File data を、任意の位置から展開しながら読み込むチャネル
+ *
+ * {@link SeekIndex} のチェックポイントから展開を始めるので、1回の移動で展開するのは最大でチェックポイントの間隔程度で済む。
+ * 前に向かって順に読む場合は、展開中の Inflater をそのまま使う。
+ * 途中から読むので CRC-32 は検証しない(索引を作るときに検証する)。
+ */
+class SeekableInflatingChannel implements SeekableByteChannel {
+
+    private final ZipSource source;
+    private final long dataOffset;
+    private final long compressedSize;
+    private final SeekIndex index;
+    private final InflaterPool pool;
+    private final ByteBuffer input;
+
+    /**
+     * 次に読む位置
+     */
+    private long position;
+
+    /**
+     * Inflater が次に出力する位置
+     */
+    private long inflated;
+    private ReadableByteChannel in;
+    private Inflater inflater;
+    private ByteBuffer scratch;
+    private boolean open = true;
+
+    /**
+     * @param source 読み込み元
+     * @param dataOffset 圧縮データの開始位置
+     * @param compressedSize 圧縮データのサイズ
+     * @param index 索引
+     * @param pool Inflater を借りるプール
+     */
+    SeekableInflatingChannel(ZipSource source, long dataOffset, long compressedSize, SeekIndex index, InflaterPool pool) {
+        this.source = source;
+        this.dataOffset = dataOffset;
+        this.compressedSize = compressedSize;
+        this.index = index;
+        this.pool = pool;
+        this.input = ByteBuffer.allocate((int) Math.max(1, Math.min(InflatingChannel.BUFFER_SIZE, compressedSize)));
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        if (position >= size()) {
+            return -1;
+        }
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+
+        // 今の展開位置より近いチェックポイントがあれば、そこから展開し直す
+        int checkpoint = index.checkpointFor(position);
+        if (inflater == null || position < inflated || index.outputOffset(checkpoint) > inflated) {
+            restart(checkpoint);
+        }
+
+        if (inflated < position) {
+            if (scratch == null) {
+                scratch = ByteBuffer.allocate(InflatingChannel.BUFFER_SIZE);
+            }
+            while (inflated < position) {
+                scratch.clear().limit((int) Math.min(scratch.capacity(), position - inflated));
+                inflated += inflate(scratch);
+            }
+        }
+
+        int n = inflate(dst);
+        inflated += n;
+        position += n;
+        return n;
+    }
+
+    /**
+     * チェックポイントから展開を始める
+     */
+    private void restart(int checkpoint) throws IOException {
+        if (inflater == null) {
+            inflater = pool.borrow();
+        } else {
+            inflater.reset();
+        }
+        byte[] window = index.window(checkpoint);
+        if (window.length > 0) {
+            inflater.setDictionary(window);
+        }
+
+        long offset = index.inputOffset(checkpoint);
+        in = new EntryChannel(source, dataOffset + offset, compressedSize - offset);
+        input.clear().flip();
+        inflated = index.outputOffset(checkpoint);
+    }
+
+    private int inflate(ByteBuffer dst) throws IOException {
+        try {
+            while (true) {
+                int n = inflater.inflate(dst);
+                if (n > 0) {
+                    return n;
+                }
+                if (inflater.finished()) {
+                    throw new EOFException("展開後のデータが索引より短い。");
+                }
+                if (inflater.needsDictionary()) {
+                    throw new OsmZipIOException("プリセット辞書付きの DEFLATE には対応していない。");
+                }
+                if (inflater.needsInput()) {
+                    input.clear();
+                    if (in.read(input) < 0) {
+                        throw new EOFException("圧縮データが途中で終わっている。");
+                    }
+                    inflater.setInput(input.flip());
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new OsmZipIOException("圧縮データが壊れている。", e);
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("負の位置：" + newPosition);
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() {
+        return index.getUncompressedSize();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        if (open) {
+            open = false;
+            if (inflater != null) {
+                pool.release(inflater);
+                inflater = null;
+            }
+        }
+    }
+}
@@ -4,23 +4,53 @@ import xyz.osamusasa.osmzip.element.CentralDictionaryHeader;
 import xyz.osamusasa.osmzip.element.EndOfCentralDictionary;
 import xyz.osamusasa.osmzip.element.FileData;
 import xyz.osamusasa.osmzip.element.LocalFileHeader;
+import xyz.osamusasa.osmzip.element.Zip64EndOfCentralDictionary;
+import xyz.osamusasa.osmzip.monitor.ZipMetrics;
 
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.Arrays;
-import java.util.function.ToIntBiFunction;
-import java.util.function.ToLongBiFunction;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static xyz.osamusasa.osmzip.io.HeaderCodec.u16;
+import static xyz.osamusasa.osmzip.io.HeaderCodec.u32;
 
 /**
  * ZIPファイルを読み込むクラス
  */
-public class ZipReader {
-    private static final ToIntBiFunction<byte[], Integer> intVal = (l, i) -> l[i+1] << 8 | l[i];
-    private static final ToLongBiFunction<byte[],Integer> longVal = (l, i) -> l[i+3] << 24 | l[i+2] << 16 | l[i+1] << 8 | l[i];
+public class ZipReader implements Closeable {
+
+    /**
+     * ファイルの読み込み方式
+     */
+    public enum Backend {
+        /**
+         * {@link java.io.RandomAccessFile} のチャネルから都度位置を指定して読み込む
+         */
+        RANDOM_ACCESS_FILE,
+        /**
+         * ファイルをメモリにマップし、マッピングから直接読み込む
+         */
+        MEMORY_MAPPED,
+    }
+
+    /**
+     * CRC-32 を計算しながら転送するときのバッファ。スレッドごとに1つを使い回す
+     */
+    private static final ThreadLocal<ByteBuffer> TRANSFER_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(1 << 16));
 
-    private final RandomAccessFile file;
+    private final ZipSource file;
 
     /**
      * 与えられたストリームから、ZIPリーダーを作成する
@@ -28,7 +58,22 @@ public class ZipReader {
      * @param file ZIPファイルを表すファイルオブジェクト
      */
     public ZipReader(File file) throws FileNotFoundException {
-        this.file = new RandomAccessFile(file, "r");
+        this.file = new RandomAccessFileSource(file);
+    }
+
+    /**
+     * 読み込み方式を指定して、ZIPリーダーを作成する
+     *
+     * @param file ZIPファイルを表すファイルオブジェクト
+     * @param backend 読み込み方式
+     * @throws IOException ファイルが開けない場合
+     */
+    public ZipReader(File file, Backend backend) throws IOException {
+        switch (backend) {
+            case MEMORY_MAPPED -> this.file = new MappedFileSource(file);
+            case RANDOM_ACCESS_FILE -> this.file = new RandomAccessFileSource(file);
+            default -> throw new IllegalArgumentException(String.valueOf(backend));
+        }
     }
 
     /**
@@ -39,40 +84,148 @@ public class ZipReader {
      */
     public EndOfCentralDictionary getEocd() throws OsmZipIOException {
         EndOfCentralDictionary eocd = new EndOfCentralDictionary();
-        byte[] buf = new byte[22];
 
         try {
-            long fileSize = file.length();
-            int offset = -1;
-
-            file.seek(fileSize - 22);
-            file.read(buf);
-
-            if (buf[0] == 0x50 && buf[1] == 0x4b && buf[2] == 0x05 && buf[3] == 0x06) {
-                eocd.setSignature(0x06054b50);
-                offset = 0;
-            } else {
-                throw new OsmZipIOException("EOCDのコメントが0バイトではない。 TODO:コメントが0バイト以外の場合の対応");
-                // TODO
+            long fileSize = file.size();
+            if (fileSize < 22) {
+                throw new OsmZipIOException("EOCDが存在しない。");
             }
 
-            eocd.setNumberOfDisk(intVal.applyAsInt(buf,offset+4));
-            eocd.setNumberOfDiskFirstCD(intVal.applyAsInt(buf,offset+6));
-            eocd.setTotalNumberOfCDOnDisk(intVal.applyAsInt(buf,offset+8));
-            eocd.setTotalNumberOfCD(intVal.applyAsInt(buf,offset+10));
-            eocd.setSizeOfTotalCD(longVal.applyAsLong(buf,offset+12));
-            eocd.setOffsetFirstCD(longVal.applyAsLong(buf,offset+16));
-            eocd.setLengthZipComment(intVal.applyAsInt(buf,offset+20));
+            // コメントの最大長と ZIP64 end of central directory locator の分まで一括で読む
+            int tailLength = (int) Math.min(fileSize, EocdLocator.MAX_TAIL);
+            long tailOffset = fileSize - tailLength;
+            ByteBuffer buf = file.read(tailOffset, tailLength);
+
+            int offset = EocdLocator.find(buf, tailOffset);
+            if (offset < 0) {
+                throw new OsmZipIOException("EOCDが見つからない。");
+            }
+            eocd.setSignature(HeaderCodec.EOCD_SIGNATURE);
+
+            eocd.setNumberOfDisk(u16(buf, offset+4));
+            eocd.setNumberOfDiskFirstCD(u16(buf, offset+6));
+            eocd.setTotalNumberOfCDOnDisk(u16(buf, offset+8));
+            eocd.setTotalNumberOfCD(u16(buf, offset+10));
+            eocd.setSizeOfTotalCD(u32(buf, offset+12));
+            eocd.setOffsetFirstCD(u32(buf, offset+16));
+            eocd.setLengthZipComment(u16(buf, offset+20));
+            if (eocd.getLengthZipComment()>0) {
+                eocd.setZipCommentBytes(bytes(buf, offset+22, eocd.getLengthZipComment()));
+                eocd.setZipComment(new String(eocd.getZipCommentBytes()));
+            }
+
+            readZip64(eocd, buf, offset);
 
         } catch (OsmZipIOException e) {
             throw e;
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new OsmZipIOException("EOCDの読み込みに失敗。", e);
         }
 
         return eocd;
     }
 
+    /**
+     * EOCD の直前に ZIP64 end of central directory locator があれば、
+     * ZIP64 end of central directory record を読み込んで EOCD の値を置き換える。
+     *
+     * @param eocd EOCD
+     * @param buf EOCD とその直前を含むバッファ
+     * @param index バッファ上の EOCD の位置
+     * @throws IOException Zip Format Error or I/O Error
+     */
+    private void readZip64(EndOfCentralDictionary eocd, ByteBuffer buf, int index) throws IOException {
+        if (index < 20 || buf.getInt(index - 20) != HeaderCodec.ZIP64_LOCATOR_SIGNATURE) {
+            return;
+        }
+
+        long offset = buf.getLong(index - 20 + 8);
+        ByteBuffer rec = file.read(offset, 56);
+        if (rec.getInt(0) != HeaderCodec.ZIP64_EOCD_SIGNATURE) {
+            throw new OsmZipIOException("ZIP64 EOCDが開始するオフセットではない。：" + offset);
+        }
+
+        Zip64EndOfCentralDictionary zip64 = new Zip64EndOfCentralDictionary();
+        zip64.setSignature(HeaderCodec.ZIP64_EOCD_SIGNATURE);
+        zip64.setSizeOfRecord(rec.getLong(4));
+        zip64.setVersionMadeBy(u16(rec, 12));
+        zip64.setNeedVersion(u16(rec, 14));
+        zip64.setNumberOfDisk(u32(rec, 16));
+        zip64.setNumberOfDiskFirstCD(u32(rec, 20));
+        zip64.setTotalNumberOfCDOnDisk(rec.getLong(24));
+        zip64.setTotalNumberOfCD(rec.getLong(32));
+        zip64.setSizeOfTotalCD(rec.getLong(40));
+        zip64.setOffsetFirstCD(rec.getLong(48));
+
+        if (zip64.getTotalNumberOfCD() > Integer.MAX_VALUE || zip64.getTotalNumberOfCD() < 0) {
+            throw new OsmZipIOException("エントリ数が多すぎる。：" + zip64.getTotalNumberOfCD());
+        }
+
+        eocd.setZip64(zip64);
+        eocd.setNumberOfDisk((int) zip64.getNumberOfDisk());
+        eocd.setNumberOfDiskFirstCD((int) zip64.getNumberOfDiskFirstCD());
+        eocd.setTotalNumberOfCDOnDisk((int) zip64.getTotalNumberOfCDOnDisk());
+        eocd.setTotalNumberOfCD((int) zip64.getTotalNumberOfCD());
+        eocd.setSizeOfTotalCD(zip64.getSizeOfTotalCD());
+        eocd.setOffsetFirstCD(zip64.getOffsetFirstCD());
+    }
+
+    /**
+     * Central directory に含まれる全ての CDH を読み込む
+     *
+     * Central directory 全体を1回の read で読み込み、そのバッファ上で全 CDH をたどる。
+     *
+     * @param eocd EOCD
+     * @return CDH のリスト(Central directory 上の順)
+     * @throws OsmZipIOException Zip Format Error or Not implemented Feature
+     */
+    public List<CentralDictionaryHeader> getCDHs(EndOfCentralDictionary eocd) throws OsmZipIOException {
+        List<CentralDictionaryHeader> cdhs = new ArrayList<>(eocd.getTotalNumberOfCD());
+
+        try {
+            CentralDirectoryScanner scanner = new CentralDirectoryScanner(
+                    file, eocd.getOffsetFirstCD(), eocd.getSizeOfTotalCD(), eocd.getTotalNumberOfCD());
+
+            while (scanner.hasNext()) {
+                cdhs.add(scanner.next());
+            }
+        } catch (OsmZipIOException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new OsmZipIOException("Central directory の読み込みに失敗。：" + eocd.getOffsetFirstCD(), e);
+        }
+
+        return cdhs;
+    }
+
+    /**
+     * Central directory に含まれる全ての CDH を、エントリごとのオブジェクトを作らずに読み込む
+     *
+     * @param eocd EOCD
+     * @return Central directory
+     * @throws OsmZipIOException Zip Format Error or Not implemented Feature
+     */
+    public CentralDirectory getCentralDirectory(EndOfCentralDictionary eocd) throws OsmZipIOException {
+        int total = eocd.getTotalNumberOfCD();
+        CentralDirectory directory = new CentralDirectory(total,
+                eocd.getSizeOfTotalCD() - (long) total * CentralDirectoryScanner.FIXED_SIZE);
+
+        try {
+            CentralDirectoryScanner scanner = new CentralDirectoryScanner(
+                    file, eocd.getOffsetFirstCD(), eocd.getSizeOfTotalCD(), total);
+
+            while (scanner.hasNext()) {
+                scanner.next(directory);
+            }
+        } catch (OsmZipIOException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new OsmZipIOException("Central directory の読み込みに失敗。：" + eocd.getOffsetFirstCD(), e);
+        }
+
+        return directory;
+    }
+
     /**
      * CDH(Central Dictionary Header)を読み込む
      *
@@ -81,52 +234,20 @@ public class ZipReader {
      * @throws OsmZipIOException Zip Format Error or Not implemented Feature
      */
     public CentralDictionaryHeader getCDH(long offset) throws OsmZipIOException {
-        CentralDictionaryHeader cdh = new CentralDictionaryHeader();
-        byte[] buf = new byte[46];
-
         try {
-            file.seek(offset);
-            file.read(buf);
-
-            if (buf[0] == 0x50 && buf[1] == 0x4b && buf[2] == 0x01 && buf[3] == 0x02) {
-                cdh.setSignature(0x02014b50);
-            } else {
+            ByteBuffer buf = file.read(offset, CentralDirectoryScanner.FIXED_SIZE);
+            if (buf.getInt(0) != HeaderCodec.CDH_SIGNATURE) {
                 throw new OsmZipIOException("CDHが開始するオフセットではない。：" + offset);
             }
 
-            cdh.setMajorVersion(buf[4]);
-            cdh.setMinerVersion(buf[5]);
-            cdh.setNeedVersion(intVal.applyAsInt(buf, 6));
-            cdh.setOptionFlag(intVal.applyAsInt(buf, 8));
-            cdh.setCompressionMethod(intVal.applyAsInt(buf,10));
-            cdh.setLastModTime(intVal.applyAsInt(buf, 12));
-            cdh.setLastModDate(intVal.applyAsInt(buf, 14));
-            cdh.setCrc32(longVal.applyAsLong(buf, 16));
-            cdh.setCompressedSize(longVal.applyAsLong(buf, 20));
-            cdh.setUncompressedSize(longVal.applyAsLong(buf, 24));
-            cdh.setLengthFileName(intVal.applyAsInt(buf, 28));
-            cdh.setLengthExtraField(intVal.applyAsInt(buf, 30));
-            cdh.setLengthFileComment(intVal.applyAsInt(buf, 32));
-            cdh.setDiskNumberStart(intVal.applyAsInt(buf, 34));
-            cdh.setInternalFileAttr(intVal.applyAsInt(buf, 36));
-            cdh.setExternalFileAttr(longVal.applyAsLong(buf, 38));
-            cdh.setOffsetRelativeLH(longVal.applyAsLong(buf, 42));
-
-            buf = new byte[cdh.getLengthFileName() + cdh.getLengthExtraField() + cdh.getLengthFileComment()];
-            file.seek(offset+46);
-            file.read(buf);
-
-            if (cdh.getLengthFileName()>0)cdh.setFileName(new String(Arrays.copyOfRange(buf, 0, cdh.getLengthFileName())));
-            if (cdh.getLengthExtraField()>0)cdh.setExtraField(Arrays.copyOfRange(buf, cdh.getLengthFileName(), cdh.getLengthExtraField()));
-            if (cdh.getLengthFileComment()>0)cdh.setFileComment(new String(Arrays.copyOfRange(buf, cdh.getLengthFileName()+cdh.getLengthExtraField(), cdh.getLengthFileComment())));
+            buf = file.read(offset, CentralDirectoryScanner.recordLength(buf, 0));
 
+            return CentralDirectoryScanner.parse(buf, 0, offset);
         } catch (OsmZipIOException e) {
             throw e;
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new OsmZipIOException("CDHの読み込みに失敗。：" + offset, e);
         }
-
-        return cdh;
     }
 
     /**
@@ -137,40 +258,63 @@ public class ZipReader {
      * @throws OsmZipIOException Zip Format Error or Not implemented Feature
      */
     public LocalFileHeader getLFH(long offset) throws OsmZipIOException {
-        LocalFileHeader lfh = new LocalFileHeader();
-        byte[] buf = new byte[46];
-
         try {
-            file.seek(offset);
-            file.read(buf);
-
-            if (buf[0] == 0x50 && buf[1] == 0x4b && buf[2] == 0x03 && buf[3] == 0x04) {
-                lfh.setSignature(0x04034b50);
-            } else {
+            ByteBuffer buf = file.read(offset, HeaderCodec.LFH_SIZE);
+            if (buf.getInt(0) != HeaderCodec.LFH_SIGNATURE) {
                 throw new OsmZipIOException("LFHが開始するオフセットではない。：" + offset);
             }
 
-            lfh.setNeedVersion(intVal.applyAsInt(buf, 4));
-            lfh.setOptionFlag(intVal.applyAsInt(buf, 6));
-            lfh.setCompressionMethod(intVal.applyAsInt(buf, 8));
-            lfh.setLastModTime(intVal.applyAsInt(buf, 10));
-            lfh.setLastModDate(intVal.applyAsInt(buf, 12));
-            lfh.setCrc32(longVal.applyAsLong(buf, 14));
-            lfh.setCompressedSize(longVal.applyAsLong(buf, 18));
-            lfh.setUncompressedSize(longVal.applyAsLong(buf, 22));
-            lfh.setLengthFileName(intVal.applyAsInt(buf, 26));
-            lfh.setLengthExtraField(intVal.applyAsInt(buf, 28));
-
-            buf = new byte[lfh.getLengthFileName() + lfh.getLengthExtraField()];
-            file.seek(offset+30);
-            file.read(buf);
-
-            if (lfh.getLengthFileName()>0)lfh.setFileName(new String(Arrays.copyOfRange(buf, 0, lfh.getLengthFileName())));
-            if (lfh.getLengthExtraField()>0)lfh.setExtraField(Arrays.copyOfRange(buf, lfh.getLengthFileName(), lfh.getLengthExtraField()));
+            buf = file.read(offset, HeaderCodec.lfhLength(buf, 0));
+
+            return parseLFH(buf, 0, offset);
         } catch (OsmZipIOException e) {
             throw e;
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new OsmZipIOException("LFHの読み込みに失敗。：" + offset, e);
+        }
+    }
+
+    /**
+     * バッファ上の LFH を読み込む。
+     * ZIP64 の場合は $FFFFFFFF になっているサイズを ZIP64 extended information extra field の値で置き換える。
+     *
+     * @param buf 可変長部分まで含めた LFH があるバッファ
+     * @param index LFHの開始位置
+     * @param offset LFHのファイル先頭からのオフセット(エラーメッセージ用)
+     * @return LFH
+     * @throws OsmZipIOException Zip Format Error
+     */
+    static LocalFileHeader parseLFH(ByteBuffer buf, int index, long offset) throws OsmZipIOException {
+        LocalFileHeader lfh = new LocalFileHeader();
+
+        if (buf.getInt(index) == HeaderCodec.LFH_SIGNATURE) {
+            lfh.setSignature(HeaderCodec.LFH_SIGNATURE);
+        } else {
+            throw new OsmZipIOException("LFHが開始するオフセットではない。：" + offset);
+        }
+
+        lfh.setNeedVersion(u16(buf, index + 4));
+        lfh.setOptionFlag(u16(buf, index + 6));
+        lfh.setCompressionMethod(u16(buf, index + 8));
+        lfh.setLastModTime(u16(buf, index + 10));
+        lfh.setLastModDate(u16(buf, index + 12));
+        lfh.setCrc32(u32(buf, index + 14));
+        lfh.setCompressedSize(u32(buf, index + 18));
+        lfh.setUncompressedSize(u32(buf, index + 22));
+        lfh.setLengthFileName(u16(buf, index + 26));
+        lfh.setLengthExtraField(u16(buf, index + 28));
+
+        int i = index + HeaderCodec.LFH_SIZE;
+        if (lfh.getLengthFileName()>0)lfh.setFileName(CentralDirectoryScanner.string(buf, i, lfh.getLengthFileName(), lfh.getOptionFlag()));
+        if (lfh.getLengthExtraField()>0)lfh.setExtraField(bytes(buf, i + lfh.getLengthFileName(), lfh.getLengthExtraField()));
+
+        // ZIP64 の場合、LFH の extra field には両方のサイズが入る
+        if (lfh.getUncompressedSize() == 0xffffffffL || lfh.getCompressedSize() == 0xffffffffL) {
+            ByteBuffer zip64 = ExtraFields.find(lfh.getExtraField(), ExtraFields.ZIP64);
+            if (zip64 != null && zip64.remaining() >= 16) {
+                lfh.setUncompressedSize(zip64.getLong(0));
+                lfh.setCompressedSize(zip64.getLong(8));
+            }
         }
 
         return lfh;
@@ -182,19 +326,414 @@ public class ZipReader {
      * @param lfhOffset 対応するLFH(Local File Header)のオフセット
      * @param lfh 対応するLFH(Local File Header)
      * @return File Data
+     * @throws OsmZipIOException I/O Error
      */
-    public FileData getFileData(long lfhOffset, LocalFileHeader lfh) {
+    public FileData getFileData(long lfhOffset, LocalFileHeader lfh) throws OsmZipIOException {
+        if (lfh.getUncompressedSize() > Integer.MAX_VALUE - 8) {
+            throw new OsmZipIOException("File Dataが大きすぎて配列に入らない。openChannel で読み込むこと。：" + lfhOffset);
+        }
+
         FileData fd = new FileData();
-        byte[] data = new byte[(int)lfh.getUncompressedSize()];
+        ByteBuffer data = ByteBuffer.allocate((int) lfh.getUncompressedSize());
 
-        try {
-            file.seek(lfhOffset + 30 + lfh.getLengthFileName() + lfh.getLengthExtraField());
-            file.read(data);
+        // Data descriptor を使うエントリは LFH に CRC-32 が無いので検証しない
+        boolean descriptor = (lfh.getOptionFlag() & 0000010) != 0;
+        long position = getFileDataOffset(lfhOffset, lfh);
+        try (ReadableByteChannel channel = descriptor
+                ? openChannel(position, lfh.getCompressedSize(), lfh.getCompressionMethod())
+                : openChannel(position, lfh.getCompressedSize(), lfh.getCompressionMethod(),
+                        lfh.getCrc32(), lfh.getUncompressedSize())) {
+            while (data.hasRemaining() && channel.read(data) >= 0) {
+                // 読み込み続ける
+            }
+            // 終わりまで読んで検証する。データが余っていれば CheckedChannel が例外を投げる
+            ByteBuffer tail = ByteBuffer.allocate(1);
+            while (channel.read(tail.clear()) >= 0) {
+                // 読み込み続ける
+            }
+        } catch (OsmZipIOException e) {
+            throw e;
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new OsmZipIOException("File Dataの読み込みに失敗。：" + lfhOffset, e);
         }
 
-        fd.setData(data);
+        fd.setData(data.array());
         return fd;
     }
+
+    /**
+     * LFH の固定長部分だけを読み込んで、File Data の開始位置を返す
+     *
+     * @param lfhOffset LFH(Local File Header)のオフセット
+     * @return File Data のファイル先頭からのオフセット
+     * @throws OsmZipIOException Zip Format Error or I/O Error
+     */
+    public long getFileDataOffset(long lfhOffset) throws OsmZipIOException {
+        try {
+            ByteBuffer buf = file.read(lfhOffset, HeaderCodec.LFH_SIZE);
+            if (buf.getInt(0) != HeaderCodec.LFH_SIGNATURE) {
+                throw new OsmZipIOException("LFHが開始するオフセットではない。：" + lfhOffset);
+            }
+            return lfhOffset + HeaderCodec.lfhLength(buf, 0);
+        } catch (OsmZipIOException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new OsmZipIOException("LFHの読み込みに失敗。：" + lfhOffset, e);
+        }
+    }
+
+    /**
+     * File Data の開始位置を返す
+     *
+     * @param lfhOffset 対応するLFH(Local File Header)のオフセット
+     * @param lfh 対応するLFH(Local File Header)
+     * @return File Data のファイル先頭からのオフセット
+     */
+    public long getFileDataOffset(long lfhOffset, LocalFileHeader lfh) {
+        return lfhOffset + HeaderCodec.LFH_SIZE + lfh.getLengthFileName() + lfh.getLengthExtraField();
+    }
+
+    /**
+     * ファイル中の指定した範囲を読み込むチャネルを開く。
+     * 内容は読み込みのたびに読み込まれ、メモリには保持されない。
+     *
+     * @param position 範囲の開始位置
+     * @param length 範囲の長さ
+     * @return チャネル
+     */
+    public ReadableByteChannel openChannel(long position, long length) {
+        return new EntryChannel(file, position, length);
+    }
+
+    /**
+     * ファイル中の指定した範囲を、圧縮方式に従って展開しながら読み込むチャネルを開く。
+     *
+     * @param position 圧縮データの開始位置
+     * @param compressedSize 圧縮データのサイズ
+     * @param compressionMethod 圧縮方式(0: 無圧縮, 8: DEFLATE)
+     * @return 展開後のデータを読み込むチャネル
+     * @throws OsmZipIOException 対応していない圧縮方式の場合
+     */
+    public ReadableByteChannel openChannel(long position, long compressedSize, int compressionMethod)
+            throws OsmZipIOException {
+        return openChannel(position, compressedSize, compressionMethod, null);
+    }
+
+    /**
+     * ファイル中の指定した範囲を、圧縮方式に従って展開しながら読み込むチャネルを開く。
+     *
+     * @param position 圧縮データの開始位置
+     * @param compressedSize 圧縮データのサイズ
+     * @param compressionMethod 圧縮方式(0: 無圧縮, 8: DEFLATE)
+     * @param name Flight Recorder のイベントに記録するエントリ名。無ければ null
+     * @return 展開後のデータを読み込むチャネル
+     * @throws OsmZipIOException 対応していない圧縮方式の場合
+     */
+    public ReadableByteChannel openChannel(long position, long compressedSize, int compressionMethod, String name)
+            throws OsmZipIOException {
+        return switch (compressionMethod) {
+            case 0 -> openChannel(position, compressedSize);
+            case 8 -> new InflatingChannel(openChannel(position, compressedSize), compressedSize, InflaterPool.DEFAULT, name);
+            default -> throw new OsmZipIOException("対応していない圧縮方式：" + compressionMethod);
+        };
+    }
+
+    /**
+     * ファイル中の指定した範囲を展開しながら読み込み、最後まで読んだときに CRC-32 とサイズを検証するチャネルを開く。
+     * CRC-32 は展開と同じパスで、展開先のバッファについて計算する。
+     *
+     * @param position 圧縮データの開始位置
+     * @param compressedSize 圧縮データのサイズ
+     * @param compressionMethod 圧縮方式(0: 無圧縮, 8: DEFLATE)
+     * @param crc32 展開後のデータの CRC-32
+     * @param uncompressedSize 展開後のデータのサイズ
+     * @return 展開後のデータを読み込むチャネル。値が違えば最後の読み込みで OsmZipIOException を投げる
+     * @throws OsmZipIOException 対応していない圧縮方式の場合
+     */
+    public ReadableByteChannel openChannel(long position, long compressedSize, int compressionMethod,
+                                           long crc32, long uncompressedSize) throws OsmZipIOException {
+        return openChannel(position, compressedSize, compressionMethod, crc32, uncompressedSize, null);
+    }
+
+    /**
+     * ファイル中の指定した範囲を展開しながら読み込み、最後まで読んだときに CRC-32 とサイズを検証するチャネルを開く。
+     *
+     * @param position 圧縮データの開始位置
+     * @param compressedSize 圧縮データのサイズ
+     * @param compressionMethod 圧縮方式(0: 無圧縮, 8: DEFLATE)
+     * @param crc32 展開後のデータの CRC-32
+     * @param uncompressedSize 展開後のデータのサイズ
+     * @param name Flight Recorder のイベントに記録するエントリ名。無ければ null
+     * @return 展開後のデータを読み込むチャネル。値が違えば最後の読み込みで OsmZipIOException を投げる
+     * @throws OsmZipIOException 対応していない圧縮方式の場合
+     */
+    public ReadableByteChannel openChannel(long position, long compressedSize, int compressionMethod,
+                                           long crc32, long uncompressedSize, String name) throws OsmZipIOException {
+        return new CheckedChannel(openChannel(position, compressedSize, compressionMethod, name), crc32, uncompressedSize);
+    }
+
+    /**
+     * ファイル中の指定した範囲を、任意の位置から展開しながら読み込むチャネルを開く。
+     *
+     * @param position 圧縮データの開始位置
+     * @param compressedSize 圧縮データのサイズ
+     * @param compressionMethod 圧縮方式(0: 無圧縮, 8: DEFLATE)
+     * @param index DEFLATE の場合に使う索引
+     * @return 展開後のデータを読み込むチャネル
+     * @throws OsmZipIOException 対応していない圧縮方式の場合
+     */
+    public SeekableByteChannel openSeekableChannel(long position, long compressedSize, int compressionMethod,
+                                                   SeekIndex index) throws OsmZipIOException {
+        return switch (compressionMethod) {
+            case 0 -> new EntryChannel(file, position, compressedSize);
+            case 8 -> new SeekableInflatingChannel(file, position, compressedSize, index, InflaterPool.DEFAULT);
+            default -> throw new OsmZipIOException("対応していない圧縮方式：" + compressionMethod);
+        };
+    }
+
+    /**
+     * DEFLATE で圧縮された範囲を最後まで展開して、途中から展開するための索引を作る
+     *
+     * @param position 圧縮データの開始位置
+     * @param compressedSize 圧縮データのサイズ
+     * @param span チェックポイントの間隔 [byte]
+     * @return 索引
+     * @throws OsmZipIOException 圧縮データが壊れているか、読み込めない場合
+     */
+    public SeekIndex buildSeekIndex(long position, long compressedSize, long span) throws OsmZipIOException {
+        return SeekIndex.build(openChannel(position, compressedSize), compressedSize, span);
+    }
+
+    /**
+     * ファイル中の指定した範囲をそのまま target に書き込む。
+     * ヒープを経由せず、target がファイルやソケットならカーネル内でコピーする。
+     *
+     * @param position 範囲の開始位置
+     * @param length 範囲の長さ
+     * @param target 書き込み先。ブロッキングモードであること
+     * @return 書き込んだバイト数(length)
+     * @throws OsmZipIOException 範囲がファイルの外にある場合か、書き込めない場合。
+     *                           target が書き込みを受け付けない(ノンブロッキングで一杯の)場合も失敗する
+     */
+    public long transferTo(long position, long length, WritableByteChannel target) throws OsmZipIOException {
+        try {
+            long done = 0;
+            while (done < length) {
+                long n = file.transferTo(position + done, length - done, target);
+                if (n <= 0) {
+                    if (position + done >= file.size()) {
+                        throw new EOFException("File data が途中で終わっている。：" + (position + done));
+                    }
+                    throw notBlocking(target);
+                }
+                done += n;
+            }
+            return done;
+        } catch (OsmZipIOException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new OsmZipIOException("File Dataの転送に失敗。：" + position, e);
+        }
+    }
+
+    /**
+     * 書き込み先が1バイトも受け付けなかったときの例外を作る。
+     * ブロッキングモードのチャネルなら起きないので、待たずに失敗させる。
+     */
+    private static IOException notBlocking(WritableByteChannel target) {
+        return new IOException("書き込み先が書き込みを受け付けない。ブロッキングモードであること。：" + target);
+    }
+
+    /**
+     * ファイル中の指定した範囲をメモリにマップした読み込み専用のバッファを返す
+     *
+     * @param position 範囲の開始位置
+     * @param length 範囲の長さ。2GB 未満
+     * @return バッファ
+     * @throws OsmZipIOException 範囲がファイルの外にある場合
+     */
+    public ByteBuffer map(long position, long length) throws OsmZipIOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new OsmZipIOException("範囲が大きすぎてバッファに入らない。：" + length);
+        }
+        try {
+            return file.map(position, (int) length);
+        } catch (IOException e) {
+            throw new OsmZipIOException("File Dataのマップに失敗。：" + position, e);
+        }
+    }
+
+    /**
+     * ファイル中の指定した範囲を target に書き込みながら、その CRC-32 を計算する。
+     * 内容はスレッドごとのダイレクトバッファを経由して1回だけ読むので、ヒープにはコピーしない。
+     * カーネル内でのコピー({@link #transferTo(long, long, WritableByteChannel)})はできない。
+     *
+     * @param position 範囲の開始位置
+     * @param length 範囲の長さ
+     * @param target 書き込み先。ブロッキングモードであること
+     * @param crc 書き込んだ内容で更新する CRC-32
+     * @return 書き込んだバイト数(length)
+     * @throws OsmZipIOException 範囲がファイルの外にある場合か、書き込めない場合。
+     *                           target が書き込みを受け付けない(ノンブロッキングで一杯の)場合も失敗する
+     */
+    public long transferTo(long position, long length, WritableByteChannel target, CRC32 crc) throws OsmZipIOException {
+        ByteBuffer buf = TRANSFER_BUFFER.get();
+        try {
+            long done = 0;
+            while (done < length) {
+                buf.clear().limit((int) Math.min(buf.capacity(), length - done));
+                if (file.read(position + done, buf) < 0) {
+                    throw new EOFException("File data が途中で終わっている。：" + (position + done));
+                }
+                buf.flip();
+                crc.update(buf);
+                buf.rewind();
+                while (buf.hasRemaining()) {
+                    int n = target.write(buf);
+                    if (n <= 0) {
+                        throw notBlocking(target);
+                    }
+                    done += n;
+                }
+            }
+            return done;
+        } catch (OsmZipIOException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new OsmZipIOException("File Dataの転送に失敗。：" + position, e);
+        }
+    }
+
+    /**
+     * ファイルのサイズを返す
+     *
+     * @return サイズ [byte]
+     * @throws OsmZipIOException I/O Error
+     */
+    public long size() throws OsmZipIOException {
+        try {
+            return file.size();
+        } catch (IOException e) {
+            throw new OsmZipIOException("ファイルのサイズが読めない。", e);
+        }
+    }
+
+    /**
+     * ファイル中の指定した範囲をまとめて読み込む。隣り合う複数のエントリを1回で読み込むのに使う
+     *
+     * @param position 範囲の開始位置
+     * @param length 範囲の長さ
+     * @return 読み込んだ内容
+     * @throws OsmZipIOException 範囲がファイルの外にある場合か、読み込めない場合
+     */
+    public ByteBuffer read(long position, int length) throws OsmZipIOException {
+        try {
+            return file.read(position, length);
+        } catch (IOException e) {
+            throw new OsmZipIOException("範囲の読み込みに失敗。：" + position + "+" + length, e);
+        }
+    }
+
+    /**
+     * まとめて読み込んだ範囲から、LFH に続く File data を取り出す
+     *
+     * @param range 読み込んだ範囲
+     * @param lfhIndex range 中の LFH の位置
+     * @param compressedSize 圧縮データのサイズ
+     * @return File data(range と内容を共有する)。LFH か File data が range に収まっていなければ null
+     * @throws OsmZipIOException LFH ではない場合
+     */
+    public static ByteBuffer sliceFileData(ByteBuffer range, int lfhIndex, long compressedSize) throws OsmZipIOException {
+        if (lfhIndex + HeaderCodec.LFH_SIZE > range.limit()) {
+            return null;
+        }
+        if (range.getInt(lfhIndex) != HeaderCodec.LFH_SIGNATURE) {
+            throw new OsmZipIOException("LFHが開始するオフセットではない。：" + lfhIndex);
+        }
+        long start = lfhIndex + (long) HeaderCodec.lfhLength(range, lfhIndex);
+        if (start + compressedSize > range.limit()) {
+            return null;
+        }
+        return range.slice((int) start, (int) compressedSize);
+    }
+
+    /**
+     * メモリ上の File data を最後まで展開する
+     *
+     * @param compressed File data
+     * @param compressionMethod 圧縮方式(0: 無圧縮, 8: DEFLATE)
+     * @param crc32 展開後のデータの CRC-32
+     * @param uncompressedSize 展開後のデータのサイズ
+     * @param verify CRC-32 とサイズを検証するかどうか
+     * @return 展開後のデータ。無圧縮なら compressed と内容を共有する
+     * @throws OsmZipIOException 対応していない圧縮方式の場合か、圧縮データが壊れている場合
+     */
+    public static ByteBuffer decode(ByteBuffer compressed, int compressionMethod, long crc32, long uncompressedSize,
+                                    boolean verify) throws OsmZipIOException {
+        if (uncompressedSize > Integer.MAX_VALUE - 8) {
+            throw new OsmZipIOException("展開後のサイズが大きすぎる。：" + uncompressedSize);
+        }
+
+        ByteBuffer out = switch (compressionMethod) {
+            case 0 -> compressed.slice();
+            case 8 -> inflate(compressed, (int) uncompressedSize);
+            default -> throw new OsmZipIOException("対応していない圧縮方式：" + compressionMethod);
+        };
+
+        if (verify) {
+            CRC32 crc = new CRC32();
+            crc.update(out.duplicate());
+            CheckedChannel.verify(crc.getValue(), out.remaining(), crc32, uncompressedSize);
+        }
+        return out;
+    }
+
+    private static ByteBuffer inflate(ByteBuffer compressed, int uncompressedSize) throws OsmZipIOException {
+        ByteBuffer out = ByteBuffer.allocate(uncompressedSize);
+        long start = ZipMetrics.DEFAULT.isEnabled() ? System.nanoTime() : 0;
+        Inflater inflater = InflaterPool.DEFAULT.borrow();
+        try {
+            inflater.setInput(compressed.duplicate());
+            while (!inflater.finished()) {
+                // 出力先が一杯なら、まだ出力があるかを1バイトの領域で確かめる
+                ByteBuffer dst = out.hasRemaining() ? out : ByteBuffer.allocate(1);
+                int n = inflater.inflate(dst);
+                if (dst != out && n > 0) {
+                    throw new OsmZipIOException("展開後のサイズが CDH より大きい。");
+                }
+                if (n == 0 && !inflater.finished()) {
+                    if (inflater.needsDictionary()) {
+                        throw new OsmZipIOException("プリセット辞書付きの DEFLATE には対応していない。");
+                    }
+                    if (inflater.needsInput()) {
+                        throw new OsmZipIOException("圧縮データが途中で終わっている。");
+                    }
+                }
+            }
+            if (start != 0) {
+                ZipMetrics.DEFAULT.recordInflate(inflater.getBytesRead(), inflater.getBytesWritten(), System.nanoTime() - start);
+            }
+            return out.flip();
+        } catch (DataFormatException e) {
+            throw new OsmZipIOException("圧縮データが壊れている。", e);
+        } finally {
+            InflaterPool.DEFAULT.release(inflater);
+        }
+    }
+
+    /**
+     * ファイルを閉じる
+     *
+     * @throws IOException I/O Error
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private static byte[] bytes(ByteBuffer buf, int index, int length) {
+        byte[] dst = new byte[length];
+        buf.get(index, dst);
+        return dst;
+    }
 }
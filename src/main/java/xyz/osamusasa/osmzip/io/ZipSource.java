@@ -0,0 +1,65 @@
+package xyz.osamusasa.osmzip.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * ZIPファイルの読み込み元を抽象化するインターフェース
+ *
+ * 実装は {@link ZipReader} の生成時に選択される。
+ */
+interface ZipSource extends Closeable {
+
+    /**
+     * 読み込み元のサイズを返す。
+     *
+     * @return ファイルサイズ [byte]
+     * @throws IOException I/O Error
+     */
+    long size() throws IOException;
+
+    /**
+     * 指定した位置から指定した長さを読み込む。
+     * 返却されるバッファはリトルエンディアンで、position 0 から length バイトが有効。
+     *
+     * @param position ファイル先頭からのオフセット
+     * @param length 読み込むバイト数
+     * @return 読み込んだ内容
+     * @throws IOException I/O Error or EOF
+     */
+    ByteBuffer read(long position, int length) throws IOException;
+
+    /**
+     * 指定した位置から dst の残りを上限として読み込む。
+     *
+     * @param position ファイル先頭からのオフセット
+     * @param dst 読み込み先
+     * @return 読み込んだバイト数。ファイル末尾なら -1
+     * @throws IOException I/O Error
+     */
+    int read(long position, ByteBuffer dst) throws IOException;
+
+    /**
+     * 指定した範囲を target に書き込む。ヒープを経由せず、可能ならカーネル内でコピーする({@link java.nio.channels.FileChannel#transferTo})。
+     * 一度に全て書き込むとは限らない。
+     *
+     * @param position ファイル先頭からのオフセット
+     * @param count 書き込む最大のバイト数
+     * @param target 書き込み先
+     * @return 書き込んだバイト数
+     * @throws IOException I/O Error
+     */
+    long transferTo(long position, long count, WritableByteChannel target) throws IOException;
+
+    /**
+     * 指定した範囲をメモリにマップした読み込み専用のバッファを返す。内容はコピーしない。
+     *
+     * @param position ファイル先頭からのオフセット
+     * @param length バイト数
+     * @return position 0 から length バイトが有効なバッファ
+     * @throws IOException I/O Error or EOF
+     */
+    ByteBuffer map(long position, int length) throws IOException;
+}
@@ -0,0 +1,404 @@
+package xyz.osamusasa.osmzip.io;
+
+import xyz.osamusasa.osmzip.element.LocalFileHeader;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static xyz.osamusasa.osmzip.io.HeaderCodec.u32;
+
+/**
+ * ZIPファイルを先頭から順に読み込むクラス
+ *
+ * EOCD や Central directory を使わず、LFH と File data を出てきた順にたどるので、
+ * HTTP のリクエストボディやパイプのような、シークできない入力からも読み込める。
+ * メモリに保持するのは読み込み用のバッファ1つだけ。
+ *
+ * Data descriptor を使うエントリ(オプションフラグのビット3)は、LFH の CRC-32 とサイズが 0 になっている。
+ * その場合、File data を最後まで読んだ時点で Data descriptor の値を LFH に反映する。
+ * 無圧縮で Data descriptor を使うエントリは File data の終わりが分からないので読めない。
+ * File data を最後まで読んだときに、展開しながら計算した CRC-32 とサイズを LFH(または Data descriptor)と比べる。
+ *
+ * <pre>
+ * try (ZipStreamReader reader = new ZipStreamReader(in)) {
+ *     LocalFileHeader lfh;
+ *     while ((lfh = reader.nextEntry()) != null) {
+ *         InputStream data = reader.getInputStream();
+ *         ...
+ *     }
+ * }
+ * </pre>
+ */
+public class ZipStreamReader implements Closeable {
+
+    /**
+     * 読み込み用のバッファのサイズ。これより長い LFH を読むときだけ大きくする
+     */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    private final ReadableByteChannel in;
+    private final InflaterPool pool;
+
+    /**
+     * 読み込んだがまだ使っていないデータ(position から limit まで)
+     */
+    private ByteBuffer buf;
+
+    /**
+     * 入力の先頭から、使い終わったデータまでのバイト数
+     */
+    private long offset;
+
+    private EntryDataChannel data;
+    private ByteBuffer scratch;
+    private boolean end;
+    private boolean open = true;
+    private boolean verifyChecksums = true;
+
+    /**
+     * @param in ZIPファイルの内容を先頭から読み込むストリーム
+     */
+    public ZipStreamReader(InputStream in) {
+        this(Channels.newChannel(in));
+    }
+
+    /**
+     * @param in ZIPファイルの内容を先頭から読み込むチャネル
+     */
+    public ZipStreamReader(ReadableByteChannel in) {
+        this.in = in;
+        this.pool = InflaterPool.DEFAULT;
+        this.buf = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN).flip();
+    }
+
+    /**
+     * 次のエントリの LFH を読み込む。
+     * 今のエントリの File data が読み残されていれば読み飛ばす。
+     *
+     * @return LFH。Central directory に達したか入力が終わった場合は null
+     * @throws OsmZipIOException Zip Format Error or I/O Error
+     */
+    public LocalFileHeader nextEntry() throws OsmZipIOException {
+        if (!open) {
+            throw new IllegalStateException("閉じている");
+        }
+        if (end) {
+            return null;
+        }
+
+        try {
+            if (data != null) {
+                skipEntry();
+            }
+
+            if (!fill(4)) {
+                end = true;
+                return null;
+            }
+            int signature = buf.getInt(buf.position());
+            if (signature == HeaderCodec.CDH_SIGNATURE
+                    || signature == HeaderCodec.EOCD_SIGNATURE
+                    || signature == HeaderCodec.ZIP64_EOCD_SIGNATURE) {
+                end = true;
+                return null;
+            }
+            if (signature != HeaderCodec.LFH_SIGNATURE) {
+                throw new OsmZipIOException("LFHが開始する位置ではない。：" + offset);
+            }
+
+            require(HeaderCodec.LFH_SIZE);
+            int length = HeaderCodec.lfhLength(buf, buf.position());
+            require(length);
+            LocalFileHeader lfh = ZipReader.parseLFH(buf, buf.position(), offset);
+            consume(length);
+
+            boolean descriptor = (lfh.getOptionFlag() & 0000010) != 0;
+            if (lfh.getCompressionMethod() == 0 && descriptor && lfh.getCompressedSize() == 0) {
+                throw new OsmZipIOException("無圧縮で Data descriptor を使うエントリは読めない。：" + lfh.getFileName());
+            }
+            if (lfh.getCompressionMethod() != 0 && lfh.getCompressionMethod() != 8) {
+                throw new OsmZipIOException("対応していない圧縮方式：" + lfh.getCompressionMethod());
+            }
+
+            data = new EntryDataChannel(lfh);
+            return lfh;
+        } catch (OsmZipIOException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new OsmZipIOException("LFHの読み込みに失敗。：" + offset, e);
+        }
+    }
+
+    /**
+     * 今のエントリの File data を展開しながら読み込むチャネルを返す。
+     * 読めるのは次に {@link #nextEntry()} を呼ぶまで。チャネルを閉じても入力は閉じない。
+     *
+     * @return 展開後のデータを読み込むチャネル
+     */
+    public ReadableByteChannel openChannel() {
+        if (data == null) {
+            throw new IllegalStateException("エントリが読み込まれていない");
+        }
+        return data;
+    }
+
+    /**
+     * 今のエントリの File data を展開しながら読み込むストリームを返す。
+     * 読めるのは次に {@link #nextEntry()} を呼ぶまで。ストリームを閉じても入力は閉じない。
+     *
+     * @return 展開後のデータを読み込むストリーム
+     */
+    public InputStream getInputStream() {
+        return Channels.newInputStream(openChannel());
+    }
+
+    /**
+     * File data の CRC-32 とサイズを検証するかどうかを設定する。
+     * 信頼できる入力なら、検証しないことで CRC-32 の計算を省ける。次に読み込むエントリから反映する。
+     *
+     * @param verifyChecksums 検証しない場合は false
+     */
+    public void setVerifyChecksums(boolean verifyChecksums) {
+        this.verifyChecksums = verifyChecksums;
+    }
+
+    /**
+     * 入力を閉じる
+     *
+     * @throws IOException I/O Error
+     */
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            if (data != null) {
+                data.releaseInflater();
+            }
+            in.close();
+        }
+    }
+
+    /**
+     * 今のエントリの File data の残りを読み飛ばす
+     */
+    private void skipEntry() throws IOException {
+        if (scratch == null) {
+            scratch = ByteBuffer.allocate(BUFFER_SIZE);
+        }
+        EntryDataChannel entry = data;
+        entry.open = true;
+        while (entry.read(scratch.clear()) >= 0) {
+            // 読み飛ばす
+        }
+        data = null;
+    }
+
+    /**
+     * バッファに少なくとも length バイトあるようにする
+     *
+     * @param length 必要なバイト数
+     * @return 入力が終わって足りなければ false
+     */
+    private boolean fill(int length) throws IOException {
+        if (buf.remaining() >= length) {
+            return true;
+        }
+        if (buf.capacity() < length) {
+            ByteBuffer larger = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+            larger.put(buf);
+            buf = larger;
+        } else {
+            buf.compact();
+        }
+
+        while (buf.position() < length) {
+            if (in.read(buf) < 0) {
+                break;
+            }
+        }
+        buf.flip();
+        return buf.remaining() >= length;
+    }
+
+    private void require(int length) throws IOException {
+        if (!fill(length)) {
+            throw new EOFException("ZIPファイルが途中で終わっている。：" + offset);
+        }
+    }
+
+    private void consume(int length) {
+        buf.position(buf.position() + length);
+        offset += length;
+    }
+
+    /**
+     * Data descriptor を読み込んで LFH に反映する。シグネチャは省略されていることがある。
+     * LFH に ZIP64 extended information extra field があればサイズは 8byte。
+     */
+    private void readDataDescriptor(LocalFileHeader lfh) throws IOException {
+        require(4);
+        if (buf.getInt(buf.position()) == HeaderCodec.DATA_DESCRIPTOR_SIGNATURE) {
+            consume(4);
+        }
+
+        boolean zip64 = ExtraFields.find(lfh.getExtraField(), ExtraFields.ZIP64) != null;
+        require(zip64 ? 20 : 12);
+        int i = buf.position();
+        lfh.setCrc32(u32(buf, i));
+        if (zip64) {
+            lfh.setCompressedSize(buf.getLong(i + 4));
+            lfh.setUncompressedSize(buf.getLong(i + 12));
+        } else {
+            lfh.setCompressedSize(u32(buf, i + 4));
+            lfh.setUncompressedSize(u32(buf, i + 8));
+        }
+        consume(zip64 ? 20 : 12);
+    }
+
+    /**
+     * 1エントリ分の File data を読み込むチャネル
+     *
+     * 無圧縮なら LFH のサイズだけ、DEFLATE なら圧縮データの終わりまで読み込む。
+     * DEFLATE の場合、Inflater には読み込み用のバッファをそのまま渡すので、
+     * 圧縮データの後ろにある次のエントリのデータはバッファに残る。
+     */
+    private class EntryDataChannel implements ReadableByteChannel {
+        private final LocalFileHeader lfh;
+        private final boolean descriptor;
+        private final CRC32 crc;
+        private long remaining;
+        private long size;
+        private Inflater inflater;
+        private boolean eof;
+        private boolean open = true;
+
+        EntryDataChannel(LocalFileHeader lfh) {
+            this.lfh = lfh;
+            this.descriptor = (lfh.getOptionFlag() & 0000010) != 0;
+            this.remaining = lfh.getCompressedSize();
+            this.crc = verifyChecksums ? new CRC32() : null;
+            if (lfh.getCompressionMethod() == 8) {
+                this.inflater = pool.borrow();
+            }
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open || !ZipStreamReader.this.open) {
+                throw new ClosedChannelException();
+            }
+            if (eof) {
+                return -1;
+            }
+            if (!dst.hasRemaining()) {
+                return 0;
+            }
+
+            int start = dst.position();
+            int n = inflater == null ? readStored(dst) : readDeflated(dst);
+            if (n < 0) {
+                finish();
+            } else if (crc != null) {
+                size += n;
+                // 展開したばかりの範囲だけを計算する
+                int limit = dst.limit();
+                dst.limit(dst.position()).position(start);
+                crc.update(dst);
+                dst.limit(limit);
+            }
+            return n;
+        }
+
+        private int readStored(ByteBuffer dst) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            require(1);
+            int n = (int) Math.min(Math.min(dst.remaining(), buf.remaining()), remaining);
+            dst.put(buf.slice(buf.position(), n));
+            consume(n);
+            remaining -= n;
+            return n;
+        }
+
+        private int readDeflated(ByteBuffer dst) throws IOException {
+            try {
+                while (true) {
+                    if (inflater.needsInput()) {
+                        require(1);
+                        inflater.setInput(buf);
+                    }
+                    int n = inflater.inflate(dst);
+                    if (n > 0) {
+                        return n;
+                    }
+                    if (inflater.finished()) {
+                        return -1;
+                    }
+                    if (inflater.needsDictionary()) {
+                        throw new OsmZipIOException("プリセット辞書付きの DEFLATE には対応していない。");
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new OsmZipIOException("圧縮データが壊れている。：" + lfh.getFileName(), e);
+            }
+        }
+
+        /**
+         * File data を読み終えたときの処理。Data descriptor があれば読み込む。
+         */
+        private void finish() throws IOException {
+            eof = true;
+            if (inflater != null) {
+                // 消費したバイト数の分だけ Inflater がバッファの position を進めている
+                long compressed = inflater.getBytesRead();
+                long uncompressed = inflater.getBytesWritten();
+                offset += compressed;
+                releaseInflater();
+
+                if (!descriptor && compressed != lfh.getCompressedSize()) {
+                    throw new OsmZipIOException("圧縮データのサイズが LFH と違う。：" + lfh.getFileName());
+                }
+                if (descriptor) {
+                    readDataDescriptor(lfh);
+                    if (compressed != lfh.getCompressedSize() || uncompressed != lfh.getUncompressedSize()) {
+                        throw new OsmZipIOException("File data のサイズが Data descriptor と違う。：" + lfh.getFileName());
+                    }
+                }
+            } else if (descriptor) {
+                readDataDescriptor(lfh);
+            }
+
+            if (crc != null) {
+                CheckedChannel.verify(crc.getValue(), size, lfh.getCrc32(), lfh.getUncompressedSize());
+            }
+        }
+
+        void releaseInflater() {
+            if (inflater != null) {
+                pool.release(inflater);
+                inflater = null;
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+}
@@ -0,0 +1,546 @@
+package xyz.osamusasa.osmzip.io;
+
+import xyz.osamusasa.osmzip.element.CentralDictionaryHeader;
+import xyz.osamusasa.osmzip.element.EndOfCentralDictionary;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * ZIPファイルを書き込むクラス
+ *
+ * エントリは {@link #writeEntry} (または {@link #beginEntry} から {@link #endEntry} まで)を呼んだ順に
+ * LFH と File data として書き込む。
+ * {@link #close()} で Central directory と EOCD を書き込む。
+ * 4GB 以上のサイズ・オフセットや 65535 を超えるエントリ数は ZIP64 形式で書き込む。
+ *
+ * ファイルに書き込む場合、CRC-32 とサイズが後から決まるエントリは {@link #endEntry} で LFH を書き換える。
+ * ストリームに書き込む場合は書き換えられないので、そのようなエントリはオプションフラグのビット3を立て、
+ * File data の後ろに Data descriptor を書き込む。
+ * どちらの場合も、書き終えたエントリの CDH は書き込む形式のバイト列にしてだけ保持する。
+ *
+ * {@link #append(File)} で開いた場合は、既存のZIPファイルの Central directory の位置から書き込む。
+ * 既存のエントリの File data はそのまま残し、{@link #close()} で既存の CDH と新しい CDH を合わせた Central directory を書き直す。
+ * 同じ名前のエントリを書き込んだ場合や {@link #remove(String)} したエントリは、Central directory から外すだけで File data は残る。
+ * 書き込む量は新しいエントリと Central directory の分だけで、既存のZIPファイルの大きさによらない。
+ * ただし {@link #close()} までの間は既存の Central directory を上書きしているので、途中で失敗するとZIPファイルとして読めなくなる。
+ *
+ * 書き込みに失敗した場合は {@link #close()} ではなく {@link #abort()} を呼ぶ。
+ * close() は書き込んだところまでを正しいZIPファイルとして仕上げてしまうので、途中で切れたことが読み込む側に分からない。
+ */
+public class ZipWriter implements Closeable {
+
+    private static final long ZIP64_MAGIC = HeaderCodec.ZIP64_MAGIC;
+    private static final int ZIP64_MAGIC_COUNT = HeaderCodec.ZIP64_MAGIC_COUNT;
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * ヘッダを組み立てるバッファ。Central directory はこの大きさごとにまとめて書き込む
+     */
+    private static final int HEADER_BUFFER_SIZE = 1 << 16;
+
+    private final WritableByteChannel channel;
+
+    /**
+     * 書き込み先のファイル。ストリームに書き込む場合は null
+     */
+    private final FileChannel file;
+
+    private ByteBuffer header = ByteBuffer.allocate(HEADER_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * 書き終えたエントリの CDH を並べた Central directory
+     */
+    private ByteBuffer centralDirectory = ByteBuffer.allocate(HEADER_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private long entries;
+    private long position;
+    private CentralDictionaryHeader current;
+
+    /**
+     * 追記する場合の、既存のエントリ。追記でなければ null
+     */
+    private CentralDirectory existing;
+    private NameIndex existingNames;
+
+    /**
+     * Central directory から外す既存のエントリ
+     */
+    private BitSet removed;
+    private byte[] zipComment = EMPTY;
+    private boolean currentZip64;
+    private boolean currentDescriptor;
+    private boolean closed;
+
+    /**
+     * ZIPライターを作成する。既存のファイルは上書きする。
+     *
+     * @param file 書き込むファイル
+     * @throws IOException ファイルが開けない場合
+     */
+    public ZipWriter(File file) throws IOException {
+        this.file = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.channel = this.file;
+    }
+
+    /**
+     * シークできない出力に書き込む ZIPライターを作成する。
+     * 書き込んだ LFH と File data はすぐに出力に渡す。{@link #close()} で出力も閉じる。
+     *
+     * @param out 書き込み先
+     */
+    public ZipWriter(OutputStream out) {
+        this(Channels.newChannel(out));
+    }
+
+    /**
+     * シークできない出力に書き込む ZIPライターを作成する。
+     * 書き込んだ LFH と File data はすぐに出力に渡す。{@link #close()} で出力も閉じる。
+     *
+     * @param out 書き込み先
+     */
+    public ZipWriter(WritableByteChannel out) {
+        this.file = null;
+        this.channel = out;
+    }
+
+    private ZipWriter(FileChannel file, long position) throws IOException {
+        this.file = file;
+        this.channel = file;
+        this.position = position;
+        file.position(position);
+    }
+
+    /**
+     * 既存のZIPファイルに追記する ZIPライターを作成する。
+     * 新しいエントリは既存の Central directory の位置から書き込み、{@link #close()} で Central directory と EOCD を書き直す。
+     *
+     * @param file 追記するZIPファイル
+     * @return ZIPライター
+     * @throws OsmZipIOException ZIPファイルとして読めない場合か、ファイルが開けない場合
+     */
+    public static ZipWriter append(File file) throws OsmZipIOException {
+        EndOfCentralDictionary eocd;
+        CentralDirectory directory;
+        try (ZipReader reader = new ZipReader(file)) {
+            eocd = reader.getEocd();
+            directory = reader.getCentralDirectory(eocd);
+        } catch (OsmZipIOException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new OsmZipIOException("ZIPファイルが読めない。：" + file, e);
+        }
+
+        ZipWriter writer;
+        try {
+            writer = new ZipWriter(FileChannel.open(file.toPath(), StandardOpenOption.WRITE), eocd.getOffsetFirstCD());
+        } catch (IOException e) {
+            throw new OsmZipIOException("ZIPファイルが開けない。：" + file, e);
+        }
+        writer.existing = directory;
+        writer.existingNames = new NameIndex(directory);
+        writer.removed = new BitSet(directory.size());
+        if (eocd.getZipCommentBytes() != null) {
+            writer.zipComment = eocd.getZipCommentBytes();
+        }
+        return writer;
+    }
+
+    /**
+     * 追記する場合に、既存のエントリを Central directory から外す。File data は残る
+     *
+     * @param name エントリ名
+     * @return 外したら true。追記でないか、そのエントリが無い場合は false
+     */
+    public boolean remove(String name) {
+        if (existing == null) {
+            return false;
+        }
+        int i = existingNames.find(name);
+        if (i < 0 || removed.get(i)) {
+            return false;
+        }
+        removed.set(i);
+        return true;
+    }
+
+    /**
+     * 圧縮済みのエントリを書き込む
+     *
+     * @param entry エントリ
+     * @throws OsmZipIOException I/O Error
+     */
+    public void writeEntry(CompressedEntry entry) throws OsmZipIOException {
+        CentralDictionaryHeader cdh = entry.getHeader();
+
+        // CRC-32 とサイズが決まっているので、ストリームでも Data descriptor は要らない
+        begin(cdh, false);
+        writeData(entry.getData().duplicate());
+        endEntry(cdh.getCrc32(), cdh.getCompressedSize(), cdh.getUncompressedSize());
+    }
+
+    /**
+     * エントリの書き込みを始め、LFH を書き込む。
+     * CRC-32 とサイズが未確定でもよく、{@link #endEntry} で LFH を書き換える(ストリームなら Data descriptor を書く)。
+     * その場合、cdh のサイズには想定される最大値を入れておく。4GB 以上なら LFH を ZIP64 形式にする。
+     *
+     * @param cdh エントリの情報
+     * @throws OsmZipIOException I/O Error
+     */
+    public void beginEntry(CentralDictionaryHeader cdh) throws OsmZipIOException {
+        begin(cdh, file == null);
+    }
+
+    /**
+     * @param cdh エントリの情報
+     * @param descriptor Data descriptor を使うかどうか
+     * @throws OsmZipIOException I/O Error
+     */
+    private void begin(CentralDictionaryHeader cdh, boolean descriptor) throws OsmZipIOException {
+        if (current != null) {
+            throw new IllegalStateException("前のエントリが終わっていない：" + current.getFileName());
+        }
+
+        if (cdh.getFileName() != null) {
+            // 同じ名前の既存のエントリは置き換える
+            remove(cdh.getFileName());
+        }
+
+        cdh.setOffsetRelativeLH(position);
+        currentZip64 = cdh.getCompressedSize() >= ZIP64_MAGIC || cdh.getUncompressedSize() >= ZIP64_MAGIC;
+        if (currentZip64) {
+            cdh.setNeedVersion(Math.max(45, cdh.getNeedVersion()));
+        }
+        currentDescriptor = descriptor;
+        if (descriptor) {
+            cdh.setOptionFlag(cdh.getOptionFlag() | 0000010);
+        }
+
+        try {
+            byte[] name = fileName(cdh);
+            byte[] extra = extraField(cdh);
+            ByteBuffer buf = header(HeaderCodec.lfhLength(name, extra, currentZip64));
+            HeaderCodec.putLFH(buf, cdh, name, extra, currentZip64, descriptor);
+            write(buf.flip());
+        } catch (IOException e) {
+            throw new OsmZipIOException("エントリの書き込みに失敗。：" + cdh.getFileName(), e);
+        }
+
+        current = cdh;
+    }
+
+    /**
+     * 書き込み中のエントリの File data を書き込む
+     *
+     * @param data 圧縮後のデータ
+     * @throws OsmZipIOException I/O Error
+     */
+    public void writeData(ByteBuffer data) throws OsmZipIOException {
+        if (current == null) {
+            throw new IllegalStateException("エントリが開始されていない");
+        }
+
+        try {
+            write(data);
+        } catch (IOException e) {
+            throw new OsmZipIOException("エントリの書き込みに失敗。：" + current.getFileName(), e);
+        }
+    }
+
+    /**
+     * 書き込み中のエントリを終える。LFH の CRC-32 とサイズを確定した値で書き換えるか、Data descriptor を書き込む。
+     *
+     * @param crc32 CRC-32
+     * @param compressedSize 圧縮後のサイズ
+     * @param uncompressedSize 圧縮前のサイズ
+     * @throws OsmZipIOException I/O Error, or LFH is not ZIP64 but the sizes are 4GB or more
+     */
+    public void endEntry(long crc32, long compressedSize, long uncompressedSize) throws OsmZipIOException {
+        CentralDictionaryHeader cdh = current;
+        if (cdh == null) {
+            throw new IllegalStateException("エントリが開始されていない");
+        }
+        if (!currentZip64 && (compressedSize >= ZIP64_MAGIC || uncompressedSize >= ZIP64_MAGIC)) {
+            throw new OsmZipIOException("LFHをZIP64形式にしていないエントリが4GBを超えた。：" + cdh.getFileName());
+        }
+
+        boolean changed = cdh.getCrc32() != crc32
+                || cdh.getCompressedSize() != compressedSize
+                || cdh.getUncompressedSize() != uncompressedSize;
+        cdh.setCrc32(crc32);
+        cdh.setCompressedSize(compressedSize);
+        cdh.setUncompressedSize(uncompressedSize);
+
+        try {
+            if (currentDescriptor) {
+                ByteBuffer buf = header(HeaderCodec.dataDescriptorLength(currentZip64));
+                HeaderCodec.putDataDescriptor(buf, crc32, compressedSize, uncompressedSize, currentZip64);
+                write(buf.flip());
+            } else if (changed) {
+                if (file == null) {
+                    throw new OsmZipIOException("ストリームに書き込んだ LFH は書き換えられない。：" + cdh.getFileName());
+                }
+                patchLFH(cdh, currentZip64);
+            }
+        } catch (OsmZipIOException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new OsmZipIOException("エントリの書き込みに失敗。：" + cdh.getFileName(), e);
+        }
+
+        appendCDH(cdh);
+        current = null;
+    }
+
+    /**
+     * 他のZIPファイルのエントリを、展開も再圧縮もせずにそのまま書き込む。
+     * LFH と圧縮データはバイト列のまま転送し(ファイル同士ならカーネル内でコピーする)、CDH は LFH のオフセットだけを書き換える。
+     * CRC-32 とサイズは元の CDH の値を使う。Data descriptor を使うエントリは Data descriptor を書き直す。
+     *
+     * @param reader コピー元のZIPファイル
+     * @param directory コピー元の Central directory
+     * @param index コピーするエントリの番号
+     * @param dataOffset コピー元のエントリの File data の開始位置
+     * @throws OsmZipIOException I/O Error
+     */
+    public void copyEntry(ZipReader reader, CentralDirectory directory, int index, long dataOffset)
+            throws OsmZipIOException {
+        if (current != null) {
+            throw new IllegalStateException("前のエントリが終わっていない：" + current.getFileName());
+        }
+
+        CentralDictionaryHeader cdh = directory.get(index);
+        if (cdh.getFileName() != null) {
+            remove(cdh.getFileName());
+        }
+
+        long lfhOffset = cdh.getOffsetRelativeLH();
+        cdh.setOffsetRelativeLH(position);
+        try {
+            position += reader.transferTo(lfhOffset, dataOffset - lfhOffset + cdh.getCompressedSize(), channel);
+
+            if ((cdh.getOptionFlag() & 0000010) != 0) {
+                byte[] lfhExtra = reader.getLFH(lfhOffset).getExtraField();
+                boolean zip64 = lfhExtra != null && ExtraFields.find(lfhExtra, ExtraFields.ZIP64) != null;
+                ByteBuffer buf = header(HeaderCodec.dataDescriptorLength(zip64));
+                HeaderCodec.putDataDescriptor(buf, cdh.getCrc32(), cdh.getCompressedSize(), cdh.getUncompressedSize(), zip64);
+                write(buf.flip());
+            }
+        } catch (OsmZipIOException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new OsmZipIOException("エントリのコピーに失敗。：" + cdh.getFileName(), e);
+        }
+
+        appendCDH(cdh, directory.fileNameBytes(index), extraField(cdh), directory.fileCommentBytes(index));
+    }
+
+    /**
+     * Central directory と EOCD を書き込み、ファイルを閉じる。{@link #abort()} した後は何もしない
+     *
+     * @throws IOException I/O Error
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        finish();
+    }
+
+    /**
+     * 書き込みを中止して閉じる。以降の {@link #close()} は何もしない。
+     * 新しく作ったZIPファイルやストリームには Central directory と EOCD を書かないので、ZIPファイルとして読めないまま残る。
+     * 追記している場合は、書き込んだエントリと {@link #remove(String)} を取り消し、元のエントリだけの Central directory を書き直す。
+     *
+     * @throws IOException I/O Error
+     */
+    public void abort() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (existing == null) {
+            channel.close();
+            return;
+        }
+        removed.clear();
+        centralDirectory.clear();
+        entries = 0;
+        finish();
+    }
+
+    /**
+     * Central directory と EOCD を書き込み、ファイルを閉じる
+     *
+     * @throws IOException I/O Error
+     */
+    private void finish() throws IOException {
+        try (channel) {
+            long offsetFirstCD = position;
+
+            if (existing != null) {
+                writeExisting();
+            }
+            write(centralDirectory.flip());
+            centralDirectory = null;
+
+            long sizeOfTotalCD = position - offsetFirstCD;
+            ByteBuffer buf = header(HeaderCodec.ZIP64_EOCD_SIZE + HeaderCodec.ZIP64_LOCATOR_SIZE + HeaderCodec.EOCD_SIZE
+                    + zipComment.length);
+            if (entries >= ZIP64_MAGIC_COUNT || sizeOfTotalCD >= ZIP64_MAGIC || offsetFirstCD >= ZIP64_MAGIC) {
+                HeaderCodec.putZip64EOCD(buf, entries, sizeOfTotalCD, offsetFirstCD);
+                HeaderCodec.putZip64Locator(buf, position);
+            }
+            HeaderCodec.putEOCD(buf, entries, sizeOfTotalCD, offsetFirstCD, zipComment);
+            write(buf.flip());
+
+            if (existing != null) {
+                // 既存の Central directory の方が長かった場合の残りを切り詰める
+                file.truncate(position);
+            }
+        }
+    }
+
+    /**
+     * 追記する場合に、残す既存のエントリの CDH を元の順に書き込む。ファイル名とコメントは元のバイト列のまま書く
+     *
+     * @throws IOException I/O Error
+     */
+    private void writeExisting() throws IOException {
+        ByteBuffer buf = header.clear();
+        for (int i = 0; i < existing.size(); i++) {
+            if (removed.get(i)) {
+                continue;
+            }
+            CentralDictionaryHeader cdh = existing.get(i);
+            byte[] name = existing.fileNameBytes(i);
+            byte[] extra = extraField(cdh);
+            byte[] comment = existing.fileCommentBytes(i);
+            int length = HeaderCodec.cdhLength(cdh, name, extra, comment);
+            if (buf.remaining() < length) {
+                write(buf.flip());
+                buf = header(length);
+            }
+            HeaderCodec.putCDH(buf, cdh, name, extra, comment);
+            entries++;
+        }
+        write(buf.flip());
+    }
+
+    /**
+     * 書き終えたエントリの CDH を Central directory に加える
+     *
+     * @param cdh CDH
+     * @throws OsmZipIOException Central directory が大きすぎる場合
+     */
+    private void appendCDH(CentralDictionaryHeader cdh) throws OsmZipIOException {
+        byte[] comment = cdh.getFileComment() == null ? EMPTY : cdh.getFileComment().getBytes(StandardCharsets.UTF_8);
+        appendCDH(cdh, fileName(cdh), extraField(cdh), comment);
+    }
+
+    /**
+     * CDH を Central directory に加える
+     *
+     * @param cdh CDH
+     * @param name ファイル名のバイト列
+     * @param extra ZIP64 extended information extra field を除いた extra field
+     * @param comment コメントのバイト列
+     * @throws OsmZipIOException Central directory が大きすぎる場合
+     */
+    private void appendCDH(CentralDictionaryHeader cdh, byte[] name, byte[] extra, byte[] comment)
+            throws OsmZipIOException {
+        int length = HeaderCodec.cdhLength(cdh, name, extra, comment);
+
+        if (centralDirectory.remaining() < length) {
+            long capacity = Math.max((long) centralDirectory.capacity() * 2, (long) centralDirectory.position() + length);
+            if (capacity > Integer.MAX_VALUE - 8) {
+                capacity = Integer.MAX_VALUE - 8;
+                if (capacity - centralDirectory.position() < length) {
+                    throw new OsmZipIOException("Central directory が大きすぎる。：" + cdh.getFileName());
+                }
+            }
+            ByteBuffer larger = ByteBuffer.allocate((int) capacity).order(ByteOrder.LITTLE_ENDIAN);
+            larger.put(centralDirectory.flip());
+            centralDirectory = larger;
+        }
+
+        HeaderCodec.putCDH(centralDirectory, cdh, name, extra, comment);
+        entries++;
+    }
+
+    /**
+     * ヘッダを組み立てるバッファを空にして返す。足りなければ大きくする。
+     *
+     * @param length 必要な長さ
+     * @return バッファ
+     */
+    private ByteBuffer header(int length) {
+        if (header.capacity() < length) {
+            header = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return header.clear();
+    }
+
+    private void write(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf);
+        }
+    }
+
+    /**
+     * 書き込み済みの LFH の CRC-32 とサイズを書き換える
+     *
+     * @param cdh 確定した値を持つ CDH
+     * @param zip64 LFH が ZIP64 形式かどうか
+     * @throws IOException I/O Error
+     */
+    private void patchLFH(CentralDictionaryHeader cdh, boolean zip64) throws IOException {
+        ByteBuffer buf = header(16);
+        buf.putInt((int) cdh.getCrc32());
+        buf.putInt((int) (zip64 ? ZIP64_MAGIC : cdh.getCompressedSize()));
+        buf.putInt((int) (zip64 ? ZIP64_MAGIC : cdh.getUncompressedSize()));
+        writeAt(buf.flip(), cdh.getOffsetRelativeLH() + 14);
+
+        if (zip64) {
+            // ZIP64 extended information extra field はファイル名の直後に置いてある
+            buf = header(16);
+            buf.putLong(cdh.getUncompressedSize());
+            buf.putLong(cdh.getCompressedSize());
+            writeAt(buf.flip(), cdh.getOffsetRelativeLH() + HeaderCodec.LFH_SIZE + fileName(cdh).length + 4);
+        }
+    }
+
+    private void writeAt(ByteBuffer buf, long at) throws IOException {
+        while (buf.hasRemaining()) {
+            at += file.write(buf, at);
+        }
+    }
+
+    private static byte[] fileName(CentralDictionaryHeader cdh) {
+        return cdh.getFileName() == null ? EMPTY : cdh.getFileName().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * ZIP64 extended information extra field を除いた extra field を返す。書き込むときに付け直す。
+     */
+    private static byte[] extraField(CentralDictionaryHeader cdh) {
+        byte[] extra = cdh.getExtraField();
+        if (extra == null || extra.length == 0) {
+            return EMPTY;
+        }
+        return ExtraFields.find(extra, ExtraFields.ZIP64) == null ? extra : ExtraFields.remove(extra, ExtraFields.ZIP64);
+    }
+}
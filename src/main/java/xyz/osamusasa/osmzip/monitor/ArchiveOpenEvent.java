@@ -0,0 +1,31 @@
+package xyz.osamusasa.osmzip.monitor;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * ZIPファイルを開いた(EOCD と Central directory を読み込んだ)ことを表す Flight Recorder のイベント
+ */
+@Name("xyz.osamusasa.osmzip.ArchiveOpen")
+@Label("Archive Open")
+@Category({"OsmZip"})
+@Description("Opening a ZIP file and reading its central directory")
+public class ArchiveOpenEvent extends Event {
+
+    @Label("Path")
+    public String path;
+
+    @Label("Size")
+    @DataAmount
+    public long size;
+
+    @Label("Entries")
+    public long entries;
+
+    @Label("Backend")
+    public String backend;
+}
@@ -0,0 +1,28 @@
+package xyz.osamusasa.osmzip.monitor;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Central directory を解析したことを表す Flight Recorder のイベント
+ */
+@Name("xyz.osamusasa.osmzip.CentralDirectoryParse")
+@Label("Central Directory Parse")
+@Category({"OsmZip"})
+@Description("Parsing the central directory of a ZIP file")
+public class CentralDirectoryParseEvent extends Event {
+
+    @Label("Path")
+    public String path;
+
+    @Label("Entries")
+    public long entries;
+
+    @Label("Central Directory Size")
+    @DataAmount
+    public long bytes;
+}
@@ -0,0 +1,36 @@
+package xyz.osamusasa.osmzip.monitor;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * 1エントリを圧縮したことを表す Flight Recorder のイベント
+ */
+@Name("xyz.osamusasa.osmzip.Deflate")
+@Label("Deflate")
+@Category({"OsmZip"})
+@Description("Compressing a file into a ZIP entry")
+public class DeflateEvent extends Event {
+
+    @Label("Entry")
+    public String entry;
+
+    @Label("Uncompressed Bytes")
+    @DataAmount
+    public long uncompressedBytes;
+
+    @Label("Compressed Bytes")
+    @DataAmount
+    public long compressedBytes;
+
+    @Label("Compression Method")
+    public int compressionMethod;
+
+    @Label("Chunked")
+    @Description("Whether the file was split into blocks deflated in parallel")
+    public boolean chunked;
+}
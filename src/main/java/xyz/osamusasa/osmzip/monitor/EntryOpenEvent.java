@@ -0,0 +1,39 @@
+package xyz.osamusasa.osmzip.monitor;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * エントリを読み込むチャネルを開いたことを表す Flight Recorder のイベント
+ */
+@Name("xyz.osamusasa.osmzip.EntryOpen")
+@Label("Entry Open")
+@Category({"OsmZip"})
+@Description("Opening a channel on the data of a ZIP entry")
+public class EntryOpenEvent extends Event {
+
+    @Label("Path")
+    public String path;
+
+    @Label("Entry")
+    public String entry;
+
+    @Label("Compression Method")
+    public int compressionMethod;
+
+    @Label("Compressed Size")
+    @DataAmount
+    public long compressedSize;
+
+    @Label("Uncompressed Size")
+    @DataAmount
+    public long uncompressedSize;
+
+    @Label("Cached")
+    @Description("Whether the entry was opened through the entry content cache")
+    public boolean cached;
+}
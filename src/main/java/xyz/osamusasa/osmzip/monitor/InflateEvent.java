@@ -0,0 +1,45 @@
+package xyz.osamusasa.osmzip.monitor;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * 1エントリを展開したことを表す Flight Recorder のイベント。開始はチャネルを開いたとき、終了は展開を終えたか閉じたとき
+ */
+@Name("xyz.osamusasa.osmzip.Inflate")
+@Label("Inflate")
+@Category({"OsmZip"})
+@Description("Inflating the data of a ZIP entry, from opening the channel until the end of the data or close")
+public class InflateEvent extends Event {
+
+    private static final EventType TYPE = EventType.getEventType(InflateEvent.class);
+
+    @Label("Entry")
+    public String entry;
+
+    @Label("Compressed Bytes")
+    @DataAmount
+    public long compressedBytes;
+
+    @Label("Uncompressed Bytes")
+    @DataAmount
+    public long uncompressedBytes;
+
+    @Label("Inflater Time")
+    @Description("Time spent inside the inflater, in nanoseconds")
+    public long inflaterNanos;
+
+    /**
+     * イベントを記録中かどうかを返す。エントリ名を用意するかを決めるのに使う
+     *
+     * @return 記録中なら true
+     */
+    public static boolean recording() {
+        return TYPE.isEnabled();
+    }
+}
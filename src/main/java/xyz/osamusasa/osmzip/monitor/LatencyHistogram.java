@@ -0,0 +1,116 @@
+package xyz.osamusasa.osmzip.monitor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 所要時間の分布を数えるヒストグラム
+ *
+ * 所要時間 [ns] を2の累乗ごとの区間(1ns 未満, 1ns 以上 2ns 未満, 2ns 以上 4ns 未満, ...)に分けて数える。
+ * 記録は配列の1要素を増やすだけなので、複数のスレッドから同時に記録できる。
+ */
+public final class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray totals = new AtomicLongArray(BUCKETS);
+
+    /**
+     * 所要時間を記録する
+     *
+     * @param nanos 所要時間 [ns]
+     */
+    public void record(long nanos) {
+        int bucket = bucket(nanos);
+        counts.incrementAndGet(bucket);
+        totals.addAndGet(bucket, Math.max(0, nanos));
+    }
+
+    /**
+     * 記録した分布を返す
+     *
+     * @return 分布
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            total += totals.get(i);
+        }
+        return new Snapshot(copy, total);
+    }
+
+    /**
+     * 記録を全て消す
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+            totals.set(i, 0);
+        }
+    }
+
+    private static int bucket(long nanos) {
+        return nanos <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+    }
+
+    /**
+     * ヒストグラムのある時点の値
+     *
+     * @param counts 区間ごとの回数。i 番目は 2^(i-1) 以上 2^i 未満 [ns]
+     * @param totalNanos 記録した所要時間の合計 [ns]
+     */
+    public record Snapshot(long[] counts, long totalNanos) {
+
+        /**
+         * @return 記録した回数
+         */
+        public long count() {
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            return count;
+        }
+
+        /**
+         * @return 所要時間の平均 [ns]。記録が無ければ 0
+         */
+        public double mean() {
+            long count = count();
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+
+        /**
+         * 所要時間の分位数の上限を返す。区間ごとに数えているので、値はその分位数を含む区間の上端
+         *
+         * @param quantile 0 以上 1 以下(例：0.99)
+         * @return 分位数の上限 [ns]。記録が無ければ 0
+         */
+        public long percentile(double quantile) {
+            if (quantile < 0 || quantile > 1) {
+                throw new IllegalArgumentException("quantile は0以上1以下：" + quantile);
+            }
+            long count = count();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return i == 0 ? 0 : i >= 63 ? Long.MAX_VALUE : 1L << i;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public String toString() {
+            return "LatencyHistogram.Snapshot(count=" + count() + ", mean=" + (long) mean()
+                    + "ns, p50<=" + percentile(0.5) + "ns, p99<=" + percentile(0.99) + "ns)";
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package xyz.osamusasa.osmzip.monitor;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 読み込み・書き込みの処理量と所要時間を数えるメトリクス
+ *
+ * {@link #DEFAULT} を {@link #setEnabled(boolean)} で有効にすると、ライブラリ全体の処理を数える。
+ * 無効(既定)の間は各処理で volatile のフラグを1回読むだけで、何も数えない。
+ * 値は {@link #snapshot()} でいつでも取り出せる。
+ *
+ * 同じ処理は JDK Flight Recorder のイベント({@link ArchiveOpenEvent} など)としても記録する。
+ * イベントはこのメトリクスの有効・無効に関係なく、Flight Recorder の設定で有効にする。
+ */
+public final class ZipMetrics {
+
+    /**
+     * ライブラリ全体で使うメトリクス
+     */
+    public static final ZipMetrics DEFAULT = new ZipMetrics();
+
+    private volatile boolean enabled;
+
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder seeks = new LongAdder();
+    private final LongAdder archiveOpens = new LongAdder();
+    private final LongAdder entryOpens = new LongAdder();
+    private final LongAdder archiveCacheHits = new LongAdder();
+    private final LongAdder archiveCacheMisses = new LongAdder();
+    private final LongAdder contentCacheHits = new LongAdder();
+    private final LongAdder contentCacheMisses = new LongAdder();
+    private final LongAdder inflateInputBytes = new LongAdder();
+    private final LongAdder inflateOutputBytes = new LongAdder();
+    private final LongAdder inflateNanos = new LongAdder();
+    private final LongAdder deflateInputBytes = new LongAdder();
+    private final LongAdder deflateOutputBytes = new LongAdder();
+    private final LongAdder deflateNanos = new LongAdder();
+    private final LatencyHistogram archiveOpenLatency = new LatencyHistogram();
+    private final LatencyHistogram entryOpenLatency = new LatencyHistogram();
+    private final LatencyHistogram entryInflateLatency = new LatencyHistogram();
+
+    /**
+     * メトリクスのある時点の値
+     *
+     * @param bytesRead ZIPファイルから読み込んだバイト数
+     * @param reads 読み込みのシステムコールの回数(メモリマップの読み込みは含まない)
+     * @param seeks 前回の読み込みの続きではない位置からの読み込みの回数
+     * @param archiveOpens ZIPファイルを開いて Central directory を解析した回数
+     * @param entryOpens エントリを開いた回数
+     * @param archiveCacheHits {@link xyz.osamusasa.osmzip.ZipFileCache} で開かずに済んだ回数
+     * @param archiveCacheMisses {@link xyz.osamusasa.osmzip.ZipFileCache} で開いた回数
+     * @param contentCacheHits {@link xyz.osamusasa.osmzip.EntryContentCache} から読み込んだ回数
+     * @param contentCacheMisses {@link xyz.osamusasa.osmzip.EntryContentCache} に無く展開した回数
+     * @param inflateInputBytes 展開した圧縮データのバイト数
+     * @param inflateOutputBytes 展開後のバイト数
+     * @param inflateNanos 展開にかかった時間の合計 [ns]
+     * @param deflateInputBytes 圧縮したデータのバイト数
+     * @param deflateOutputBytes 圧縮後のバイト数
+     * @param deflateNanos 圧縮にかかった時間の合計 [ns]。並列に圧縮した分は足し合わせる
+     * @param archiveOpenLatency ZIPファイルを開くのにかかった時間
+     * @param entryOpenLatency エントリを開くのにかかった時間
+     * @param entryInflateLatency 1エントリを最後まで展開するのにかかった時間(開いてから読み終わるまで)
+     */
+    public record Snapshot(long bytesRead, long reads, long seeks,
+                           long archiveOpens, long entryOpens,
+                           long archiveCacheHits, long archiveCacheMisses,
+                           long contentCacheHits, long contentCacheMisses,
+                           long inflateInputBytes, long inflateOutputBytes, long inflateNanos,
+                           long deflateInputBytes, long deflateOutputBytes, long deflateNanos,
+                           LatencyHistogram.Snapshot archiveOpenLatency,
+                           LatencyHistogram.Snapshot entryOpenLatency,
+                           LatencyHistogram.Snapshot entryInflateLatency) {
+
+        /**
+         * @return 展開の速度 [展開後の byte/s]。展開していなければ 0
+         */
+        public double inflateThroughput() {
+            return inflateNanos == 0 ? 0 : inflateOutputBytes * 1e9 / inflateNanos;
+        }
+
+        /**
+         * @return 圧縮の速度 [圧縮前の byte/s]。圧縮していなければ 0
+         */
+        public double deflateThroughput() {
+            return deflateNanos == 0 ? 0 : deflateInputBytes * 1e9 / deflateNanos;
+        }
+    }
+
+    /**
+     * @return 数えているなら true
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 数えるかどうかを切り替える。無効にしても数えた値は残る
+     *
+     * @param enabled 数えるなら true
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * 今の値を返す
+     *
+     * @return 値
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(bytesRead.sum(), reads.sum(), seeks.sum(),
+                archiveOpens.sum(), entryOpens.sum(),
+                archiveCacheHits.sum(), archiveCacheMisses.sum(),
+                contentCacheHits.sum(), contentCacheMisses.sum(),
+                inflateInputBytes.sum(), inflateOutputBytes.sum(), inflateNanos.sum(),
+                deflateInputBytes.sum(), deflateOutputBytes.sum(), deflateNanos.sum(),
+                archiveOpenLatency.snapshot(), entryOpenLatency.snapshot(), entryInflateLatency.snapshot());
+    }
+
+    /**
+     * 数えた値を全て 0 に戻す
+     */
+    public void reset() {
+        for (LongAdder adder : new LongAdder[]{bytesRead, reads, seeks, archiveOpens, entryOpens,
+                archiveCacheHits, archiveCacheMisses, contentCacheHits, contentCacheMisses,
+                inflateInputBytes, inflateOutputBytes, inflateNanos,
+                deflateInputBytes, deflateOutputBytes, deflateNanos}) {
+            adder.reset();
+        }
+        archiveOpenLatency.reset();
+        entryOpenLatency.reset();
+        entryInflateLatency.reset();
+    }
+
+    // 以下はライブラリの中から呼ぶ。呼び出し側で isEnabled() を確かめてから呼ぶこと
+
+    /**
+     * 読み込みのシステムコール1回を記録する
+     *
+     * @param bytes 読み込んだバイト数
+     * @param seek 前回の読み込みの続きではない位置から読んだなら true
+     */
+    public void recordRead(long bytes, boolean seek) {
+        reads.increment();
+        bytesRead.add(Math.max(0, bytes));
+        if (seek) {
+            seeks.increment();
+        }
+    }
+
+    /**
+     * システムコールを伴わない読み込み(メモリマップ)を記録する
+     *
+     * @param bytes 読み込んだバイト数
+     */
+    public void recordMappedRead(long bytes) {
+        bytesRead.add(Math.max(0, bytes));
+    }
+
+    /**
+     * @param nanos ZIPファイルを開くのにかかった時間 [ns]
+     */
+    public void recordArchiveOpen(long nanos) {
+        archiveOpens.increment();
+        archiveOpenLatency.record(nanos);
+    }
+
+    /**
+     * @param nanos エントリを開くのにかかった時間 [ns]
+     */
+    public void recordEntryOpen(long nanos) {
+        entryOpens.increment();
+        entryOpenLatency.record(nanos);
+    }
+
+    /**
+     * @param hit キャッシュにあったなら true
+     */
+    public void recordArchiveCache(boolean hit) {
+        (hit ? archiveCacheHits : archiveCacheMisses).increment();
+    }
+
+    /**
+     * @param hit キャッシュにあったなら true
+     */
+    public void recordContentCache(boolean hit) {
+        (hit ? contentCacheHits : contentCacheMisses).increment();
+    }
+
+    /**
+     * Inflater の呼び出しを記録する
+     *
+     * @param input 消費した圧縮データのバイト数
+     * @param output 展開したバイト数
+     * @param nanos かかった時間 [ns]
+     */
+    public void recordInflate(long input, long output, long nanos) {
+        inflateInputBytes.add(input);
+        inflateOutputBytes.add(output);
+        inflateNanos.add(nanos);
+    }
+
+    /**
+     * @param nanos 1エントリを開いてから最後まで展開するのにかかった時間 [ns]
+     */
+    public void recordEntryInflated(long nanos) {
+        entryInflateLatency.record(nanos);
+    }
+
+    /**
+     * 圧縮を記録する
+     *
+     * @param input 圧縮したデータのバイト数
+     * @param output 圧縮後のバイト数
+     * @param nanos かかった時間 [ns]
+     */
+    public void recordDeflate(long input, long output, long nanos) {
+        deflateInputBytes.add(input);
+        deflateOutputBytes.add(output);
+        deflateNanos.add(nanos);
+    }
+}
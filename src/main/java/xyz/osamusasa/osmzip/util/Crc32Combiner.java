@@ -0,0 +1,86 @@
+package xyz.osamusasa.osmzip.util;
+
+/**
+ * 別々に計算した CRC-32 を連結後のデータの CRC-32 に合成するクラス
+ *
+ * データ A, B の CRC-32 と B の長さから、A+B の CRC-32 を元のデータを読まずに求める。
+ * zlib の crc32_combine と同じく、GF(2) 上の行列のべき乗で計算する。
+ */
+public class Crc32Combiner {
+
+    /**
+     * CRC-32 の生成多項式(反転表現)
+     */
+    private static final long POLY = 0xedb88320L;
+
+    private Crc32Combiner() {
+    }
+
+    /**
+     * 2つの CRC-32 を合成する
+     *
+     * @param crc1 前半のデータの CRC-32
+     * @param crc2 後半のデータの CRC-32
+     * @param len2 後半のデータの長さ [byte]
+     * @return 連結したデータの CRC-32
+     */
+    public static long combine(long crc1, long crc2, long len2) {
+        if (len2 <= 0) {
+            return crc1;
+        }
+
+        long[] even = new long[32];
+        long[] odd = new long[32];
+
+        // 1ビット分の0を処理する演算子
+        odd[0] = POLY;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+
+        // 2ビット分、4ビット分
+        square(even, odd);
+        square(odd, even);
+
+        // len2 バイト分の0を crc1 に適用する
+        do {
+            square(even, odd);
+            if ((len2 & 1) != 0) {
+                crc1 = times(even, crc1);
+            }
+            len2 >>= 1;
+            if (len2 == 0) {
+                break;
+            }
+
+            square(odd, even);
+            if ((len2 & 1) != 0) {
+                crc1 = times(odd, crc1);
+            }
+            len2 >>= 1;
+        } while (len2 != 0);
+
+        return (crc1 ^ crc2) & 0xffffffffL;
+    }
+
+    private static long times(long[] mat, long vec) {
+        long sum = 0;
+        int i = 0;
+        while (vec != 0) {
+            if ((vec & 1) != 0) {
+                sum ^= mat[i];
+            }
+            vec >>>= 1;
+            i++;
+        }
+        return sum;
+    }
+
+    private static void square(long[] square, long[] mat) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = times(mat, mat[n]);
+        }
+    }
+}
@@ -1,17 +1,32 @@
 package xyz.osamusasa.osmzip.util;
 
 import xyz.osamusasa.osmzip.element.LocalFileHeader;
+import xyz.osamusasa.osmzip.io.CentralDirectory;
 
 import java.time.LocalDateTime;
 
 /**
  * LFH(Local File Header)へのアクセスを簡易にするクラス
+ *
+ * {@link CentralDirectory} の1エントリを指すだけの軽量なビューで、値は都度 Central directory から読む。
  */
 public class LocalFileHeaderAccessor {
-    private LocalFileHeader lfh;
+    private final CentralDirectory directory;
+    private final int index;
 
     public LocalFileHeaderAccessor(LocalFileHeader lfh) {
-        this.lfh = lfh;
+        this(CentralDirectory.of(lfh), 0);
+    }
+
+    /**
+     * Creates a view over an entry of the central directory.
+     *
+     * @param directory the central directory
+     * @param index the index of the entry
+     */
+    public LocalFileHeaderAccessor(CentralDirectory directory, int index) {
+        this.directory = directory;
+        this.index = index;
     }
 
     /**
@@ -20,7 +35,7 @@ public class LocalFileHeaderAccessor {
      * @return the version needed to extract the file
      */
     public int needToExtractVersion() {
-        return lfh.getNeedVersion();
+        return directory.getNeedVersion(index);
     }
 
     /**
@@ -30,7 +45,7 @@ public class LocalFileHeaderAccessor {
      */
     public boolean isPasswordProtection() {
         // 0 000 000 000 000 001
-        return (lfh.getOptionFlag() & 0000001) == 1;
+        return (directory.getOptionFlag(index) & 0000001) == 1;
     }
 
     /**
@@ -40,7 +55,7 @@ public class LocalFileHeaderAccessor {
      */
     public boolean isUseDataDescriptor() {
         // 0 000 000 000 001 000
-        return ((lfh.getOptionFlag() & 0000010) >> 3) == 1;
+        return ((directory.getOptionFlag(index) & 0000010) >> 3) == 1;
     }
 
     /**
@@ -50,7 +65,7 @@ public class LocalFileHeaderAccessor {
      */
     public boolean isUTF8() {
         // 0 000 100 000 000 000
-        return ((lfh.getOptionFlag() & 0004000) >> 11) == 1;
+        return ((directory.getOptionFlag(index) & 0004000) >> 11) == 1;
     }
 
     /**
@@ -59,7 +74,7 @@ public class LocalFileHeaderAccessor {
      * @return the compression method used for the file
      */
     public int getCompressionMethod() {
-        return lfh.getCompressionMethod();
+        return directory.getCompressionMethod(index);
     }
 
     /**
@@ -69,17 +84,17 @@ public class LocalFileHeaderAccessor {
      */
     public LocalDateTime getTimestamp() {
         // 1 111 111 000 000 000
-        int year = (( lfh.getLastModDate() & 0177000 ) >> 9) + 1980;
+        int year = (( directory.getLastModDate(index) & 0177000 ) >> 9) + 1980;
         // 0 000 000 111 100 000
-        int month = ( lfh.getLastModDate() & 0000740 ) >> 5;
+        int month = ( directory.getLastModDate(index) & 0000740 ) >> 5;
         // 0 000 000 000 011 111
-        int day = ( lfh.getLastModDate() & 0000037 );
+        int day = ( directory.getLastModDate(index) & 0000037 );
         // 1 111 100 000 000 000
-        int hour = (lfh.getLastModTime() & 0174000) >> 11;
+        int hour = (directory.getLastModTime(index) & 0174000) >> 11;
         // 0 000 011 111 100 000
-        int minute = (lfh.getLastModTime() & 0003740) >> 5;
+        int minute = (directory.getLastModTime(index) & 0003740) >> 5;
         // 0 000 000 000 011 111
-        int second = (lfh.getLastModTime() & 0000037) * 2;
+        int second = (directory.getLastModTime(index) & 0000037) * 2;
 
         return LocalDateTime.of(year, month, day, hour, minute, second);
     }
@@ -90,7 +105,7 @@ public class LocalFileHeaderAccessor {
      * @return the CRC-32 value of the file
      */
     public long getCrc32() {
-        return lfh.getCrc32();
+        return directory.getCrc32(index);
     }
 
     /**
@@ -99,7 +114,7 @@ public class LocalFileHeaderAccessor {
      * @return the compressed size of the file
      */
     public long getCompressedSize() {
-        return lfh.getCompressedSize();
+        return directory.getCompressedSize(index);
     }
 
     /**
@@ -108,7 +123,7 @@ public class LocalFileHeaderAccessor {
      * @return the uncompressed size of the file
      */
     public long getUncompressedSize() {
-        return lfh.getUncompressedSize();
+        return directory.getUncompressedSize(index);
     }
 
     /**
@@ -117,7 +132,7 @@ public class LocalFileHeaderAccessor {
      * @return the file name
      */
     public String getFileName() {
-        return lfh.getFileName();
+        return directory.getFileName(index);
     }
 
     /**
@@ -126,7 +141,7 @@ public class LocalFileHeaderAccessor {
      * @return the length of the extra field
      */
     public int getLengthExtraField() {
-        return lfh.getLengthExtraField();
+        return directory.getLengthExtraField(index);
     }
 
     /**
@@ -135,6 +150,6 @@ public class LocalFileHeaderAccessor {
      * @return the extra field as a byte array
      */
     public byte[] getExtraField() {
-        return lfh.getExtraField();
+        return directory.getExtraField(index);
     }
 }
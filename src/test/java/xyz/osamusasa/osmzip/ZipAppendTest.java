@@ -0,0 +1,175 @@
+package xyz.osamusasa.osmzip;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link Zip#append} と {@link Zip#remove} で書き換えたZIPファイルを読み直すテスト
+ */
+class ZipAppendTest {
+
+    private static final Charset SHIFT_JIS = Charset.forName("Shift_JIS");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void appendAddsAndReplacesEntries() throws Exception {
+        Path archive = dir.resolve("archive.zip");
+        Map<String, byte[]> expected = new LinkedHashMap<>();
+        expected.put("a.txt", bytes("first a"));
+        expected.put("b.txt", bytes("first b"));
+        create(archive, expected, null);
+
+        Path sources = Files.createDirectory(dir.resolve("sources"));
+        Files.write(sources.resolve("b.txt"), bytes("second b"));
+        Files.write(sources.resolve("c.txt"), bytes("new c ".repeat(1000)));
+        new Zip(2).append(List.of(sources.resolve("b.txt"), sources.resolve("c.txt")), archive);
+
+        expected.put("b.txt", bytes("second b"));
+        expected.put("c.txt", bytes("new c ".repeat(1000)));
+        assertEntries(archive, expected);
+    }
+
+    @Test
+    void appendKeepsRawComment() throws Exception {
+        // 既定の文字コード(UTF-8)では読めないコメント
+        byte[] comment = "日本語のコメント".getBytes(SHIFT_JIS);
+        Path archive = dir.resolve("archive.zip");
+        create(archive, Map.of("a.txt", bytes("a")), "日本語のコメント");
+
+        Path source = Files.write(dir.resolve("b.txt"), bytes("b"));
+        new Zip(2).append(List.of(source), archive);
+
+        byte[] file = Files.readAllBytes(archive);
+        assertArrayEquals(comment, Arrays.copyOfRange(file, file.length - comment.length, file.length));
+        try (java.util.zip.ZipFile zip = new java.util.zip.ZipFile(archive.toFile(), SHIFT_JIS)) {
+            assertEquals("日本語のコメント", zip.getComment());
+            assertEquals(2, zip.size());
+        }
+    }
+
+    @Test
+    void appendKeepsMaximumLengthComment() throws Exception {
+        // EOCD の書き込みバッファに収まらない長さのコメント
+        String comment = "c".repeat(0xFFFF);
+        Path archive = dir.resolve("archive.zip");
+        create(archive, Map.of("a.txt", bytes("a")), comment);
+
+        Path source = Files.write(dir.resolve("b.txt"), bytes("b"));
+        new Zip(2).append(List.of(source), archive);
+
+        try (java.util.zip.ZipFile zip = new java.util.zip.ZipFile(archive.toFile(), SHIFT_JIS)) {
+            assertEquals(comment, zip.getComment());
+        }
+        assertEntries(archive, Map.of("a.txt", bytes("a"), "b.txt", bytes("b")));
+    }
+
+    @Test
+    void removeShrinksCentralDirectory() throws Exception {
+        Path archive = dir.resolve("archive.zip");
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        List<String> removed = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String name = "directory/with/a/long/name/entry-" + i + ".txt";
+            entries.put(name, bytes("content " + i));
+            if (i % 10 != 0) {
+                removed.add(name);
+            }
+        }
+        create(archive, entries, "comment");
+        long before = Files.size(archive);
+
+        assertEquals(removed.size(), new Zip(2).remove(archive, removed));
+
+        // Central directory が短くなった分だけファイルが切り詰められる
+        assertTrue(Files.size(archive) < before, Files.size(archive) + " >= " + before);
+        removed.forEach(entries::remove);
+        assertEntries(archive, entries);
+        try (ZipFile zip = ZipFile.read(archive.toFile())) {
+            assertEquals("comment", zip.getZipComment());
+        }
+    }
+
+    @Test
+    void removeThenAppend() throws Exception {
+        Path archive = dir.resolve("archive.zip");
+        Map<String, byte[]> expected = new LinkedHashMap<>();
+        expected.put("a.txt", bytes("a"));
+        expected.put("b.txt", bytes("b"));
+        expected.put("c.txt", bytes("c"));
+        create(archive, expected, null);
+
+        assertEquals(1, new Zip(2).remove(archive, List.of("b.txt")));
+        assertEquals(0, new Zip(2).remove(archive, List.of("b.txt", "missing.txt")));
+        Path source = Files.write(dir.resolve("d.txt"), bytes("d"));
+        new Zip(2).append(List.of(source), archive);
+
+        expected.remove("b.txt");
+        expected.put("d.txt", bytes("d"));
+        assertEntries(archive, expected);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void create(Path archive, Map<String, byte[]> entries, String comment) throws IOException {
+        try (OutputStream out = Files.newOutputStream(archive);
+             ZipOutputStream zip = new ZipOutputStream(out, SHIFT_JIS)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey()));
+                zip.write(entry.getValue());
+                zip.closeEntry();
+            }
+            if (comment != null) {
+                zip.setComment(comment);
+            }
+        }
+    }
+
+    /**
+     * OsmZip と java.util.zip の両方で読み直し、エントリが expected と一致することを確かめる
+     */
+    private static void assertEntries(Path archive, Map<String, byte[]> expected) throws IOException {
+        try (ZipFile zip = ZipFile.read(archive.toFile())) {
+            assertEquals(expected.size(), zip.lengthOfLocalFileHeader());
+            for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+                int index = zip.indexOf(entry.getKey());
+                assertTrue(index >= 0, entry.getKey());
+                assertArrayEquals(entry.getValue(), zip.getInputStream(index).readAllBytes(), entry.getKey());
+            }
+        }
+
+        try (java.util.zip.ZipFile zip = new java.util.zip.ZipFile(archive.toFile(), SHIFT_JIS)) {
+            List<String> names = new ArrayList<>();
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                names.add(entry.getName());
+                assertArrayEquals(expected.get(entry.getName()), zip.getInputStream(entry).readAllBytes(), entry.getName());
+            }
+            names.sort(null);
+            List<String> expectedNames = new ArrayList<>(expected.keySet());
+            expectedNames.sort(null);
+            assertEquals(expectedNames, names);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package xyz.osamusasa.osmzip;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import xyz.osamusasa.osmzip.io.OsmZipIOException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link Zip#compress} と {@link Zip#append} が途中で失敗したときに、途中までを正しいZIPファイルとして残さないかのテスト
+ */
+class ZipCompressTest {
+
+    private static final byte[] EOCD_SIGNATURE = {0x50, 0x4b, 0x05, 0x06};
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void streamRoundTrip() throws Exception {
+        Path a = Files.writeString(dir.resolve("a.txt"), "a".repeat(1000));
+        Path b = Files.writeString(dir.resolve("b.txt"), "b");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        new Zip(2).compress(List.of(a, b), out);
+
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry = in.getNextEntry();
+            assertEquals("a.txt", entry.getName());
+            assertArrayEquals(Files.readAllBytes(a), in.readAllBytes());
+            assertEquals("b.txt", in.getNextEntry().getName());
+        }
+        assertTrue(endsWithEocd(out.toByteArray()));
+    }
+
+    @Test
+    void failedStreamHasNoEocd() throws Exception {
+        Path a = Files.writeString(dir.resolve("a.txt"), "a".repeat(1000));
+        // 名前順で a.txt の後に来る、読めないファイル
+        Path missing = dir.resolve("b.txt");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertThrows(OsmZipIOException.class, () -> new Zip(2).compress(List.of(a, missing), out));
+
+        byte[] written = out.toByteArray();
+        assertTrue(written.length > 0, "a.txt should have been written");
+        assertFalse(contains(written, EOCD_SIGNATURE), "EOCD was written after a failure");
+    }
+
+    @Test
+    void failedFileHasNoEocd() throws Exception {
+        Path a = Files.writeString(dir.resolve("a.txt"), "a".repeat(1000));
+        Path target = dir.resolve("target.zip");
+
+        assertThrows(OsmZipIOException.class,
+                () -> new Zip(2).compress(List.of(a, dir.resolve("b.txt")), target));
+
+        assertFalse(contains(Files.readAllBytes(target), EOCD_SIGNATURE), "EOCD was written after a failure");
+    }
+
+    @Test
+    void failedAppendKeepsOriginalEntries() throws Exception {
+        Path a = Files.writeString(dir.resolve("a.txt"), "original a");
+        Path archive = dir.resolve("archive.zip");
+        new Zip(2).compress(List.of(a), archive);
+
+        Files.writeString(a, "replaced a");
+        assertThrows(OsmZipIOException.class,
+                () -> new Zip(2).append(List.of(a, dir.resolve("b.txt")), archive));
+
+        // 置き換えようとした a.txt も元のまま残る
+        try (java.util.zip.ZipFile zip = new java.util.zip.ZipFile(archive.toFile())) {
+            assertEquals(1, zip.size());
+            assertArrayEquals("original a".getBytes(), zip.getInputStream(zip.getEntry("a.txt")).readAllBytes());
+        }
+    }
+
+    @Test
+    void incrementalCrcCheckRecompressesChangedFiles() throws Exception {
+        Path source = Files.createDirectory(dir.resolve("source"));
+        Path same = Files.writeString(source.resolve("same.txt"), "unchanged");
+        Path changed = Files.writeString(source.resolve("changed.txt"), "before");
+        Path first = dir.resolve("first.zip");
+        Zip zip = new Zip(2);
+        zip.compress(source.toString(), first.toString());
+
+        // サイズと更新日時は同じまま内容だけ変える
+        FileTime time = Files.getLastModifiedTime(changed);
+        Files.writeString(changed, "after!");
+        Files.setLastModifiedTime(changed, time);
+
+        Path second = dir.resolve("second.zip");
+        zip.setReuseCheckCrc(true);
+        zip.compress(source.toString(), second.toString(), first.toString());
+
+        try (ZipFile archive = ZipFile.read(second.toFile())) {
+            assertEquals("unchanged", archive.getFileContentAsString(archive.indexOf(same.getFileName().toString())));
+            assertEquals("after!", archive.getFileContentAsString(archive.indexOf(changed.getFileName().toString())));
+        }
+    }
+
+    private static boolean endsWithEocd(byte[] data) {
+        int eocd = data.length - 22;
+        return eocd >= 0 && contains(Arrays.copyOfRange(data, eocd, eocd + 4), EOCD_SIGNATURE);
+    }
+
+    private static boolean contains(byte[] data, byte[] pattern) {
+        for (int i = 0; i + pattern.length <= data.length; i++) {
+            if (Arrays.equals(data, i, i + pattern.length, pattern, 0, pattern.length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,61 @@
+package xyz.osamusasa.osmzip;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * {@link ZipFileCache} が返すハンドルのテスト
+ */
+class ZipFileCacheTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void closeTwiceKeepsOtherHandlesOpen() throws Exception {
+        Path archive = archive();
+        try (ZipFileCache cache = new ZipFileCache(4)) {
+            ZipFile other = cache.open(archive.toFile());
+            try (ZipFile handle = cache.open(archive.toFile())) {
+                assertEquals("content", handle.getFileContentAsString(0));
+                handle.close();
+            }
+
+            assertEquals("content", other.getFileContentAsString(0));
+            assertEquals(1, cache.openFiles());
+            other.close();
+        }
+    }
+
+    @Test
+    void closeTwiceReleasesOnce() throws Exception {
+        Path archive = archive();
+        try (ZipFileCache cache = new ZipFileCache(4)) {
+            ZipFile other = cache.open(archive.toFile());
+            ZipFile handle = cache.open(archive.toFile());
+            handle.close();
+            handle.close();
+
+            // 参照が2回減っていれば、ここで other が使っているファイルが閉じられる
+            cache.clear();
+            assertEquals("content", other.getFileContentAsString(0));
+            assertEquals(1, cache.openFiles());
+
+            other.close();
+            assertEquals(0, cache.openFiles());
+        }
+    }
+
+    private Path archive() throws Exception {
+        Path source = Files.writeString(dir.resolve("a.txt"), "content");
+        Path archive = dir.resolve("archive.zip");
+        new Zip(1).compress(List.of(source), archive);
+        return archive;
+    }
+}
@@ -0,0 +1,96 @@
+package xyz.osamusasa.osmzip;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import xyz.osamusasa.osmzip.io.EntryCompressor;
+import xyz.osamusasa.osmzip.io.ZipWriter;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * {@link Zip#merge} と {@link Zip#repack} で作ったZIPファイルを読み直すテスト
+ */
+class ZipMergeTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void laterArchiveWins() throws Exception {
+        Path first = archive("first.zip", "a.txt", "first a", "b.txt", "first b");
+        Path second = archive("second.zip", "b.txt", "second b", "c.txt", "second c");
+        Path merged = dir.resolve("merged.zip");
+
+        new Zip(2).merge(List.of(first, second), merged);
+
+        assertEquals(List.of("a.txt=first a", "b.txt=second b", "c.txt=second c"), contents(merged));
+    }
+
+    @Test
+    void duplicateNamesInOneArchive() throws Exception {
+        // 1つのZIPファイルに同じ名前が2つある場合は、後にあるものだけを残す
+        Path duplicated = archive("duplicated.zip", "dup.txt", "old", "x.txt", "x", "dup.txt", "new");
+        Path other = archive("other.zip", "y.txt", "y");
+        Path merged = dir.resolve("merged.zip");
+
+        new Zip(2).merge(List.of(duplicated, other), merged);
+
+        assertEquals(List.of("dup.txt=new", "x.txt=x", "y.txt=y"), contents(merged));
+    }
+
+    @Test
+    void repackFiltersEntries() throws Exception {
+        Path source = archive("source.zip", "keep/a.txt", "a", "drop/b.txt", "b", "keep/c.txt", "c");
+        Path repacked = dir.resolve("repacked.zip");
+
+        new Zip(2).repack(List.of(source), repacked, (name) -> name.startsWith("keep/"));
+
+        assertEquals(List.of("keep/a.txt=a", "keep/c.txt=c"), contents(repacked));
+    }
+
+    @Test
+    void targetMustDifferFromSources() throws Exception {
+        Path source = archive("source.zip", "a.txt", "a");
+
+        assertThrows(IllegalArgumentException.class, () -> new Zip(2).merge(List.of(source), source));
+    }
+
+    /**
+     * 名前と内容の組を交互に並べて、ZIPファイルを作る。同じ名前を何度でも書ける
+     */
+    private Path archive(String fileName, String... entries) throws Exception {
+        Path archive = dir.resolve(fileName);
+        try (ZipWriter writer = new ZipWriter(archive.toFile())) {
+            for (int i = 0; i < entries.length; i += 2) {
+                Path source = Files.writeString(dir.resolve("source-" + i), entries[i + 1]);
+                writer.writeEntry(EntryCompressor.compress(source, entries[i], Deflater.DEFAULT_COMPRESSION));
+            }
+        }
+        return archive;
+    }
+
+    /**
+     * java.util.zip で読み、"名前=内容" を名前順に並べて返す
+     */
+    private static List<String> contents(Path archive) throws Exception {
+        List<String> contents = new ArrayList<>();
+        try (java.util.zip.ZipFile zip = new java.util.zip.ZipFile(archive.toFile())) {
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                contents.add(entry.getName() + "="
+                        + new String(zip.getInputStream(entry).readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        Collections.sort(contents);
+        return contents;
+    }
+}
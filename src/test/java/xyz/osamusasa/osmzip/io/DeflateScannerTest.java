@@ -0,0 +1,156 @@
+package xyz.osamusasa.osmzip.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link DeflateScanner} が java.util.zip で圧縮したデータを正しく展開し、使えるチェックポイントを作るかのテスト
+ */
+class DeflateScannerTest {
+
+    @Test
+    void storedBlocks() throws Exception {
+        byte[] data = DeflateTestData.random(200_000, 1);
+        byte[] compressed = DeflateTestData.deflate(data, Deflater.NO_COMPRESSION, 0);
+        assertEquals(0, blockType(compressed));
+
+        SeekIndex index = scan(compressed, 1 << 16);
+        assertScanned(data, compressed, index);
+        // 無圧縮ブロックの後ろはバイト境界なのでチェックポイントを置ける
+        assertTrue(index.size() > 1, "checkpoints: " + index.size());
+    }
+
+    @Test
+    void fixedBlocks() throws Exception {
+        byte[] data = DeflateTestData.text(20, 2);
+        byte[] compressed = DeflateTestData.deflate(data, Deflater.BEST_COMPRESSION, 0);
+        assertEquals(1, blockType(compressed));
+
+        assertScanned(data, compressed, scan(compressed, SeekIndex.DEFAULT_SPAN));
+    }
+
+    @Test
+    void dynamicBlocks() throws Exception {
+        byte[] data = DeflateTestData.text(1 << 20, 3);
+        byte[] compressed = DeflateTestData.deflate(data, Deflater.BEST_COMPRESSION, 0);
+        assertEquals(2, blockType(compressed));
+
+        assertScanned(data, compressed, scan(compressed, 1 << 16));
+    }
+
+    @Test
+    void huffmanOnly() throws Exception {
+        byte[] data = DeflateTestData.text(300_000, 4);
+        byte[] compressed = DeflateTestData.deflate(data, Deflater.DEFAULT_COMPRESSION, Deflater.HUFFMAN_ONLY, 0);
+
+        assertScanned(data, compressed, scan(compressed, 1 << 16));
+    }
+
+    @Test
+    void syncFlush() throws Exception {
+        byte[] data = DeflateTestData.text(1 << 20, 5);
+        byte[] compressed = DeflateTestData.deflate(data, Deflater.DEFAULT_COMPRESSION, 1 << 15);
+
+        SeekIndex index = scan(compressed, 1 << 16);
+        assertScanned(data, compressed, index);
+        // SYNC_FLUSH の後はバイト境界から始まるので、span ごとにチェックポイントがある
+        assertTrue(index.size() >= 16, "checkpoints: " + index.size());
+        for (int i = 1; i < index.size(); i++) {
+            assertTrue(index.outputOffset(i) - index.outputOffset(i - 1) >= index.getSpan());
+        }
+    }
+
+    @Test
+    void spanSmallerThanBlock() throws Exception {
+        byte[] data = DeflateTestData.text(1 << 18, 6);
+        byte[] compressed = DeflateTestData.deflate(data, Deflater.DEFAULT_COMPRESSION, 1 << 14);
+
+        SeekIndex index = scan(compressed, 1);
+        assertScanned(data, compressed, index);
+        // バイト境界から始まるブロック(SYNC_FLUSH の後)ごとにチェックポイントがある
+        assertTrue(index.size() >= 16, "checkpoints: " + index.size());
+    }
+
+    @Test
+    void empty() throws Exception {
+        byte[] compressed = DeflateTestData.deflate(new byte[0], Deflater.DEFAULT_COMPRESSION, 0);
+
+        SeekIndex index = scan(compressed, SeekIndex.DEFAULT_SPAN);
+        assertScanned(new byte[0], compressed, index);
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void truncated() {
+        byte[] data = DeflateTestData.text(1 << 16, 7);
+        byte[] compressed = DeflateTestData.deflate(data, Deflater.DEFAULT_COMPRESSION, 0);
+        byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+
+        assertThrows(OsmZipIOException.class, () -> scan(truncated, SeekIndex.DEFAULT_SPAN));
+    }
+
+    @Test
+    void invalidBlockType() {
+        // BFINAL=1, BTYPE=11(予約済み)
+        byte[] compressed = {0x07, 0, 0, 0};
+
+        assertThrows(OsmZipIOException.class, () -> scan(compressed, SeekIndex.DEFAULT_SPAN));
+    }
+
+    private static SeekIndex scan(byte[] compressed, long span) throws OsmZipIOException {
+        return SeekIndex.build(Channels.newChannel(new ByteArrayInputStream(compressed)), compressed.length, span);
+    }
+
+    private static int blockType(byte[] compressed) {
+        return (compressed[0] >> 1) & 3;
+    }
+
+    /**
+     * 索引のサイズと CRC-32 が元のデータと一致し、全てのチェックポイントから元のデータの続きを展開できることを確かめる
+     */
+    private static void assertScanned(byte[] data, byte[] compressed, SeekIndex index) throws DataFormatException {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        assertEquals(data.length, index.getUncompressedSize());
+        assertEquals(compressed.length, index.getCompressedSize());
+        assertEquals(crc.getValue(), index.getCrc32());
+        assertEquals(0, index.inputOffset(0));
+        assertEquals(0, index.outputOffset(0));
+
+        for (int i = 0; i < index.size(); i++) {
+            int input = (int) index.inputOffset(i);
+            int output = (int) index.outputOffset(i);
+            byte[] window = index.window(i);
+            assertArrayEquals(Arrays.copyOfRange(data, output - window.length, output), window, "window " + i);
+
+            Inflater inflater = new Inflater(true);
+            try {
+                if (window.length > 0) {
+                    inflater.setDictionary(window);
+                }
+                inflater.setInput(compressed, input, compressed.length - input);
+                byte[] expected = Arrays.copyOfRange(data, output, Math.min(data.length, output + (1 << 16)));
+                byte[] actual = new byte[expected.length];
+                int n = 0;
+                while (n < actual.length && !inflater.finished()) {
+                    n += inflater.inflate(actual, n, actual.length - n);
+                }
+                assertArrayEquals(expected, actual, "checkpoint " + i);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package xyz.osamusasa.osmzip.io;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * DEFLATE のテスト用のデータを作るクラス
+ */
+final class DeflateTestData {
+
+    private static final String[] WORDS = {
+            "local", "file", "header", "central", "directory", "deflate", "inflate", "stored",
+            "window", "checkpoint", "span", "offset", "zip", "entry", "archive", "crc"};
+
+    private DeflateTestData() {
+    }
+
+    /**
+     * 圧縮しやすいテキストを作る
+     *
+     * @param size サイズ [byte]
+     * @param seed 乱数の種
+     * @return テキスト
+     */
+    static byte[] text(int size, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(size + 16);
+        while (sb.length() < size) {
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+            sb.append(random.nextInt(8) == 0 ? '\n' : ' ');
+            if (random.nextInt(16) == 0) {
+                sb.append(random.nextInt(100000));
+            }
+        }
+        return sb.substring(0, size).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * 圧縮できない乱数のバイト列を作る
+     *
+     * @param size サイズ [byte]
+     * @param seed 乱数の種
+     * @return バイト列
+     */
+    static byte[] random(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * ヘッダ無しの DEFLATE で圧縮する(ZIP の File data と同じ形式)
+     *
+     * @param data 圧縮するデータ
+     * @param level 圧縮レベル
+     * @param flushInterval この間隔 [byte] ごとに SYNC_FLUSH する。0 ならしない
+     * @return 圧縮後のデータ
+     */
+    static byte[] deflate(byte[] data, int level, int flushInterval) {
+        return deflate(data, level, Deflater.DEFAULT_STRATEGY, flushInterval);
+    }
+
+    /**
+     * ヘッダ無しの DEFLATE で圧縮する(ZIP の File data と同じ形式)
+     *
+     * @param data 圧縮するデータ
+     * @param level 圧縮レベル
+     * @param strategy 圧縮の戦略
+     * @param flushInterval この間隔 [byte] ごとに SYNC_FLUSH する。0 ならしない
+     * @return 圧縮後のデータ
+     */
+    static byte[] deflate(byte[] data, int level, int strategy, int flushInterval) {
+        Deflater deflater = new Deflater(level, true);
+        deflater.setStrategy(strategy);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1 << 16];
+        try {
+            int step = flushInterval > 0 ? flushInterval : data.length;
+            int flush = flushInterval > 0 ? Deflater.SYNC_FLUSH : Deflater.NO_FLUSH;
+            for (int start = 0; start < data.length; start += step) {
+                deflater.setInput(data, start, Math.min(step, data.length - start));
+                int n;
+                while ((n = deflater.deflate(buf, 0, buf.length, flush)) > 0) {
+                    out.write(buf, 0, n);
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                out.write(buf, 0, deflater.deflate(buf));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package xyz.osamusasa.osmzip.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * {@link SeekIndex} の保存と読み込みのテスト
+ */
+class SeekIndexTest {
+
+    @Test
+    void writeAndRead() throws Exception {
+        byte[] data = DeflateTestData.text(1 << 20, 11);
+        byte[] compressed = DeflateTestData.deflate(data, Deflater.DEFAULT_COMPRESSION, 1 << 15);
+        SeekIndex index = SeekIndex.build(Channels.newChannel(new ByteArrayInputStream(compressed)),
+                compressed.length, 1 << 17);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        index.writeTo(out);
+        SeekIndex read = SeekIndex.readFrom(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(index.getSpan(), read.getSpan());
+        assertEquals(index.getCompressedSize(), read.getCompressedSize());
+        assertEquals(index.getUncompressedSize(), read.getUncompressedSize());
+        assertEquals(index.getCrc32(), read.getCrc32());
+        assertEquals(index.size(), read.size());
+        for (int i = 0; i < index.size(); i++) {
+            assertEquals(index.inputOffset(i), read.inputOffset(i));
+            assertEquals(index.outputOffset(i), read.outputOffset(i));
+            assertArrayEquals(index.window(i), read.window(i));
+        }
+    }
+
+    @Test
+    void notAnIndex() {
+        byte[] garbage = DeflateTestData.random(64, 12);
+
+        assertThrows(OsmZipIOException.class, () -> SeekIndex.readFrom(new ByteArrayInputStream(garbage)));
+    }
+
+    @Test
+    void truncatedIndex() throws Exception {
+        byte[] data = DeflateTestData.text(1 << 18, 13);
+        byte[] compressed = DeflateTestData.deflate(data, Deflater.DEFAULT_COMPRESSION, 1 << 15);
+        SeekIndex index = SeekIndex.build(Channels.newChannel(new ByteArrayInputStream(compressed)),
+                compressed.length, 1 << 16);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        index.writeTo(out);
+        byte[] truncated = Arrays.copyOf(out.toByteArray(), out.size() - 10);
+
+        assertThrows(OsmZipIOException.class, () -> SeekIndex.readFrom(new ByteArrayInputStream(truncated)));
+    }
+}
@@ -0,0 +1,119 @@
+package xyz.osamusasa.osmzip.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * {@link SeekableInflatingChannel} で任意の位置から読んだ内容が、先頭から展開した内容と一致するかのテスト
+ */
+class SeekableInflatingChannelTest {
+
+    /**
+     * 圧縮データの前に置くバイト数(ZIP ファイル中の File data の位置の代わり)
+     */
+    private static final int DATA_OFFSET = 123;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void randomPositions() throws Exception {
+        byte[] data = DeflateTestData.text(1 << 21, 21);
+        byte[] compressed = DeflateTestData.deflate(data, Deflater.DEFAULT_COMPRESSION, 1 << 15);
+
+        try (RandomAccessFileSource source = write(compressed);
+             SeekableInflatingChannel channel = open(source, compressed, 1 << 16)) {
+            Random random = new Random(22);
+            for (int i = 0; i < 200; i++) {
+                int position = random.nextInt(data.length);
+                int length = 1 + random.nextInt(1 << 14);
+                assertArrayEquals(expected(data, position, length), read(channel, position, length),
+                        "position " + position);
+            }
+        }
+    }
+
+    @Test
+    void sequentialAndBackwards() throws Exception {
+        byte[] data = DeflateTestData.text(1 << 20, 23);
+        byte[] compressed = DeflateTestData.deflate(data, Deflater.BEST_COMPRESSION, 1 << 14);
+
+        try (RandomAccessFileSource source = write(compressed);
+             SeekableInflatingChannel channel = open(source, compressed, 1 << 15)) {
+            assertArrayEquals(data, read(channel, 0, data.length));
+            for (int position = data.length - 5000; position >= 0; position -= 70001) {
+                assertArrayEquals(expected(data, position, 5000), read(channel, position, 5000),
+                        "position " + position);
+            }
+        }
+    }
+
+    @Test
+    void withoutCheckpoints() throws Exception {
+        // SYNC_FLUSH しないとチェックポイントは先頭だけになる
+        byte[] data = DeflateTestData.text(1 << 19, 24);
+        byte[] compressed = DeflateTestData.deflate(data, Deflater.DEFAULT_COMPRESSION, 0);
+
+        try (RandomAccessFileSource source = write(compressed);
+             SeekableInflatingChannel channel = open(source, compressed, 1 << 16)) {
+            assertArrayEquals(expected(data, 400_000, 1000), read(channel, 400_000, 1000));
+            assertArrayEquals(expected(data, 10, 1000), read(channel, 10, 1000));
+        }
+    }
+
+    @Test
+    void endOfData() throws Exception {
+        byte[] data = DeflateTestData.text(1 << 16, 25);
+        byte[] compressed = DeflateTestData.deflate(data, Deflater.DEFAULT_COMPRESSION, 0);
+
+        try (RandomAccessFileSource source = write(compressed);
+             SeekableInflatingChannel channel = open(source, compressed, 1 << 12)) {
+            assertEquals(data.length, channel.size());
+            channel.position(data.length);
+            assertEquals(-1, channel.read(ByteBuffer.allocate(16)));
+            channel.position(data.length + 100L);
+            assertEquals(-1, channel.read(ByteBuffer.allocate(16)));
+        }
+    }
+
+    private RandomAccessFileSource write(byte[] compressed) throws Exception {
+        byte[] file = new byte[DATA_OFFSET + compressed.length];
+        System.arraycopy(compressed, 0, file, DATA_OFFSET, compressed.length);
+        Path path = dir.resolve("data.bin");
+        Files.write(path, file);
+        return new RandomAccessFileSource(path.toFile());
+    }
+
+    private static SeekableInflatingChannel open(ZipSource source, byte[] compressed, long span) throws Exception {
+        SeekIndex index = SeekIndex.build(Channels.newChannel(new ByteArrayInputStream(compressed)),
+                compressed.length, span);
+        return new SeekableInflatingChannel(source, DATA_OFFSET, compressed.length, index, InflaterPool.DEFAULT);
+    }
+
+    private static byte[] expected(byte[] data, int position, int length) {
+        return Arrays.copyOfRange(data, position, Math.min(data.length, position + length));
+    }
+
+    private static byte[] read(SeekableInflatingChannel channel, long position, int length) throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(length, channel.size() - position));
+        channel.position(position);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0) {
+                break;
+            }
+        }
+        return Arrays.copyOf(buf.array(), buf.position());
+    }
+}
@@ -0,0 +1,40 @@
+package xyz.osamusasa.osmzip.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.Pipe;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * {@link ZipReader#transferTo} のテスト
+ */
+class ZipReaderTransferTest {
+
+    private static final int SIZE = 4 << 20;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void fullNonBlockingTargetFails() throws Exception {
+        Path path = Files.write(dir.resolve("data.bin"), new byte[SIZE]);
+        Pipe pipe = Pipe.open();
+        pipe.sink().configureBlocking(false);
+        // 誰も読まないので、パイプのバッファが一杯になると書き込めなくなる
+        try (ZipReader reader = new ZipReader(path.toFile());
+             Pipe.SinkChannel sink = pipe.sink();
+             Pipe.SourceChannel source = pipe.source()) {
+            assertTimeoutPreemptively(Duration.ofSeconds(10), () ->
+                    assertThrows(OsmZipIOException.class, () -> reader.transferTo(0, SIZE, sink)));
+            assertTimeoutPreemptively(Duration.ofSeconds(10), () ->
+                    assertThrows(OsmZipIOException.class, () -> reader.transferTo(0, SIZE, sink, new CRC32())));
+        }
+    }
+}